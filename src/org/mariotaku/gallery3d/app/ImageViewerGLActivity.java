@@ -23,6 +23,7 @@ import org.mariotaku.gallery3d.ui.GLRootView;
 import org.mariotaku.gallery3d.ui.GLView;
 import org.mariotaku.gallery3d.ui.PhotoView;
 import org.mariotaku.gallery3d.ui.SynchronizedHandler;
+import org.mariotaku.gallery3d.util.BitmapPool;
 import org.mariotaku.gallery3d.util.GalleryUtils;
 import org.mariotaku.gallery3d.util.ThreadPool;
 import org.mariotaku.twidere.Constants;
@@ -225,7 +226,7 @@ public final class ImageViewerGLActivity extends FragmentActivity implements Con
 	public void onLoadFinished(final Loader<GLImageLoader.Result> loader, final GLImageLoader.Result data) {
 		if (data instanceof GLImageLoader.GLImageResult) {
 			final GLImageLoader.GLImageResult data_gl = (GLImageLoader.GLImageResult) data;
-			mAdapter.setData(data_gl.decoder, data_gl.bitmap, data_gl.orientation);
+			mAdapter.setData(data_gl.decoder, data_gl.file, data_gl.bitmap, data_gl.orientation);
 			mImageFile = data.file;
 			mImageLoaded = true;
 			mRefreshStopSaveButton.setImageResource(R.drawable.ic_menu_save);
@@ -285,6 +286,18 @@ public final class ImageViewerGLActivity extends FragmentActivity implements Con
 		}
 	}
 
+	@Override
+	public void onLowMemory() {
+		BitmapPool.getInstance().clear();
+		super.onLowMemory();
+	}
+
+	@Override
+	public void onTrimMemory(final int level) {
+		BitmapPool.getInstance().onTrimMemory(level);
+		super.onTrimMemory(level);
+	}
+
 	@Override
 	protected void onDestroy() {
 		super.onDestroy();
@@ -16,6 +16,13 @@
 
 package org.mariotaku.gallery3d.app;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import org.mariotaku.gallery3d.ui.BitmapScreenNail;
 import org.mariotaku.gallery3d.ui.PhotoView;
 import org.mariotaku.gallery3d.ui.ScreenNail;
@@ -35,8 +42,13 @@ public class PhotoViewAdapter implements PhotoView.ITileImageAdapter {
 
 	private static final String TAG = "PhotoViewAdapter";
 
+	// BitmapRegionDecoder can only decode one region at a time, so more
+	// decoders are opened from the image file for parallel tile decoding.
+	private static final int MAX_REGION_DECODERS = 3;
+
 	protected ScreenNail mScreenNail;
 	protected BitmapRegionDecoder mRegionDecoder;
+	protected File mImageFile;
 	protected int mImageWidth;
 	protected int mImageHeight;
 	protected int mLevelCount;
@@ -46,6 +58,13 @@ public class PhotoViewAdapter implements PhotoView.ITileImageAdapter {
 
 	private int mImageRotation;
 
+	// The following fields are guarded by PhotoViewAdapter.this
+	private final List<BitmapRegionDecoder> mIdleDecoders = new ArrayList<BitmapRegionDecoder>();
+	private final Set<BitmapRegionDecoder> mOpenedDecoders = new HashSet<BitmapRegionDecoder>();
+	private int mDecoderCount, mDecoderLimit;
+	private boolean mOpeningDecoder;
+	private int mGeneration;
+
 	public PhotoViewAdapter(final PhotoView view) {
 		mPhotoView = view;
 	}
@@ -90,7 +109,7 @@ public class PhotoViewAdapter implements PhotoView.ITileImageAdapter {
 	public Bitmap getTile(final int level, final int x, final int y, final int tileSize, final int borderSize,
 			final BitmapPool pool) {
 		if (!ApiHelper.HAS_REUSING_BITMAP_IN_BITMAP_REGION_DECODER)
-			return getTileWithoutReusingBitmap(level, x, y, tileSize, borderSize);
+			return getTileWithoutReusingBitmap(level, x, y, tileSize, borderSize, pool);
 
 		final int b = borderSize << level;
 		final int t = tileSize << level;
@@ -98,24 +117,26 @@ public class PhotoViewAdapter implements PhotoView.ITileImageAdapter {
 		final Rect wantRegion = new Rect(x - b, y - b, x + t + b, y + t + b);
 
 		boolean needClear;
-		BitmapRegionDecoder regionDecoder = null;
+		final int generation;
 
 		synchronized (this) {
-			regionDecoder = mRegionDecoder;
-			if (regionDecoder == null) return null;
+			if (mRegionDecoder == null) return null;
+			generation = mGeneration;
 
 			// We need to clear a reused bitmap, if wantRegion is not fully
 			// within the image.
 			needClear = !new Rect(0, 0, mImageWidth, mImageHeight).contains(wantRegion);
 		}
+		final BitmapRegionDecoder regionDecoder = obtainRegionDecoder(generation);
+		if (regionDecoder == null) return null;
 
-		Bitmap bitmap = pool == null ? null : pool.getBitmap();
+		final int s = tileSize + 2 * borderSize;
+		Bitmap bitmap = pool == null ? null : pool.getBitmap(s, s, Config.ARGB_8888);
 		if (bitmap != null) {
 			if (needClear) {
 				bitmap.eraseColor(0);
 			}
 		} else {
-			final int s = tileSize + 2 * borderSize;
 			bitmap = Bitmap.createBitmap(s, s, Config.ARGB_8888);
 		}
 
@@ -126,11 +147,9 @@ public class PhotoViewAdapter implements PhotoView.ITileImageAdapter {
 		options.inBitmap = bitmap;
 
 		try {
-			// In CropImage, we may call the decodeRegion() concurrently.
-			synchronized (regionDecoder) {
-				bitmap = regionDecoder.decodeRegion(wantRegion, options);
-			}
+			bitmap = regionDecoder.decodeRegion(wantRegion, options);
 		} finally {
+			releaseRegionDecoder(regionDecoder, generation);
 			if (options.inBitmap != bitmap && options.inBitmap != null) {
 				if (pool != null) {
 					pool.recycle(options.inBitmap);
@@ -154,7 +173,8 @@ public class PhotoViewAdapter implements PhotoView.ITileImageAdapter {
 	}
 
 	@Override
-	public boolean setData(final BitmapRegionDecoder decoder, final Bitmap bitmap, final int oroentation) {
+	public boolean setData(final BitmapRegionDecoder decoder, final File file, final Bitmap bitmap,
+			final int oroentation) {
 		try {
 			if (decoder != null) {
 				setScreenNail(bitmap, decoder.getWidth(), decoder.getHeight());
@@ -162,8 +182,10 @@ public class PhotoViewAdapter implements PhotoView.ITileImageAdapter {
 				if (bitmap == null) return false;
 				setScreenNail(bitmap, bitmap.getWidth(), bitmap.getHeight());
 			}
-			setRegionDecoder(decoder);
-			mPhotoView.notifyImageChange();
+			setRegionDecoder(decoder, file);
+			if (mPhotoView != null) {
+				mPhotoView.notifyImageChange();
+			}
 			return true;
 		} catch (final Throwable t) {
 			Log.w(TAG, "fail to decode large", t);
@@ -176,20 +198,22 @@ public class PhotoViewAdapter implements PhotoView.ITileImageAdapter {
 	}
 
 	private Bitmap getTileWithoutReusingBitmap(final int level, final int x, final int y, final int tileSize,
-			final int borderSize) {
+			final int borderSize, final BitmapPool pool) {
 		final int b = borderSize << level;
 		final int t = tileSize << level;
 		final Rect wantRegion = new Rect(x - b, y - b, x + t + b, y + t + b);
 
-		BitmapRegionDecoder regionDecoder;
+		final int generation;
 		Rect overlapRegion;
 
 		synchronized (this) {
-			regionDecoder = mRegionDecoder;
-			if (regionDecoder == null) return null;
+			if (mRegionDecoder == null) return null;
+			generation = mGeneration;
 			overlapRegion = new Rect(0, 0, mImageWidth, mImageHeight);
 			GalleryUtils.assertTrue(overlapRegion.intersect(wantRegion));
 		}
+		final BitmapRegionDecoder regionDecoder = obtainRegionDecoder(generation);
+		if (regionDecoder == null) return null;
 
 		final BitmapFactory.Options options = new BitmapFactory.Options();
 		options.inPreferredConfig = Config.ARGB_8888;
@@ -197,31 +221,107 @@ public class PhotoViewAdapter implements PhotoView.ITileImageAdapter {
 		options.inSampleSize = 1 << level;
 		Bitmap bitmap = null;
 
-		// In CropImage, we may call the decodeRegion() concurrently.
-		synchronized (regionDecoder) {
+		try {
 			bitmap = regionDecoder.decodeRegion(overlapRegion, options);
+		} finally {
+			releaseRegionDecoder(regionDecoder, generation);
 		}
 
 		if (bitmap == null) {
 			Log.w(TAG, "fail in decoding region");
 		}
 
-		if (wantRegion.equals(overlapRegion)) return bitmap;
+		if (bitmap == null || wantRegion.equals(overlapRegion)) return bitmap;
 
 		final int s = tileSize + 2 * borderSize;
-		final Bitmap result = Bitmap.createBitmap(s, s, Config.ARGB_8888);
+		Bitmap result = pool == null ? null : pool.getBitmap(s, s, Config.ARGB_8888);
+		if (result != null) {
+			result.eraseColor(0);
+		} else {
+			result = Bitmap.createBitmap(s, s, Config.ARGB_8888);
+		}
 		final Canvas canvas = new Canvas(result);
 		canvas.drawBitmap(bitmap, overlapRegion.left - wantRegion.left >> level,
 				overlapRegion.top - wantRegion.top >> level, null);
+		bitmap.recycle();
 		return result;
 	}
 
-	private synchronized void setRegionDecoder(final BitmapRegionDecoder decoder) {
+	// Returns an idle decoder of current image, opens a new one if all of
+	// them are busy and limit is not reached, or waits for one.
+	private BitmapRegionDecoder obtainRegionDecoder(final int generation) {
+		final File file;
+		synchronized (this) {
+			while (true) {
+				if (generation != mGeneration || mRegionDecoder == null) return null;
+				final int idle = mIdleDecoders.size();
+				if (idle > 0) return mIdleDecoders.remove(idle - 1);
+				if (!mOpeningDecoder && mDecoderCount < mDecoderLimit) {
+					mOpeningDecoder = true;
+					file = mImageFile;
+					break;
+				}
+				GalleryUtils.waitWithoutInterrupt(this);
+			}
+		}
+		BitmapRegionDecoder decoder = null;
+		try {
+			decoder = BitmapRegionDecoder.newInstance(file.getPath(), false);
+		} catch (final IOException e) {
+			Log.w(TAG, "fail to open region decoder", e);
+		}
+		synchronized (this) {
+			mOpeningDecoder = false;
+			notifyAll();
+			if (decoder == null) {
+				// Don't try again, use decoders we already have.
+				mDecoderLimit = mDecoderCount;
+			} else if (generation != mGeneration) {
+				decoder.recycle();
+				return null;
+			} else {
+				mOpenedDecoders.add(decoder);
+				mDecoderCount++;
+				return decoder;
+			}
+		}
+		return obtainRegionDecoder(generation);
+	}
+
+	private synchronized void releaseRegionDecoder(final BitmapRegionDecoder decoder, final int generation) {
+		if (generation == mGeneration) {
+			mIdleDecoders.add(decoder);
+			notifyAll();
+		} else if (mOpenedDecoders.remove(decoder)) {
+			decoder.recycle();
+		}
+	}
+
+	private synchronized void resetRegionDecoders() {
+		for (final BitmapRegionDecoder decoder : mIdleDecoders) {
+			if (mOpenedDecoders.remove(decoder)) {
+				decoder.recycle();
+			}
+		}
+		mIdleDecoders.clear();
+		mDecoderCount = 0;
+		mDecoderLimit = 0;
+		mGeneration++;
+		// Wake up threads waiting for decoders of previous image.
+		notifyAll();
+	}
+
+	private synchronized void setRegionDecoder(final BitmapRegionDecoder decoder, final File file) {
+		resetRegionDecoders();
 		mRegionDecoder = decoder;
+		mImageFile = file;
 		if (decoder == null) return;
 		mImageWidth = decoder.getWidth();
 		mImageHeight = decoder.getHeight();
 		mLevelCount = calculateLevelCount();
+		mIdleDecoders.add(decoder);
+		mDecoderCount = 1;
+		mDecoderLimit = file != null ? MAX_REGION_DECODERS : 1;
 	}
 
 	private void setScreenNail(final Bitmap bitmap, final int width, final int height) {
@@ -234,7 +334,9 @@ public class PhotoViewAdapter implements PhotoView.ITileImageAdapter {
 		mScreenNail = GalleryUtils.checkNotNull(screenNail);
 		mImageWidth = width;
 		mImageHeight = height;
+		resetRegionDecoders();
 		mRegionDecoder = null;
+		mImageFile = null;
 		mLevelCount = 0;
 	}
 
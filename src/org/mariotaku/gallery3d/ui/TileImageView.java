@@ -16,6 +16,7 @@
 
 package org.mariotaku.gallery3d.ui;
 
+import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.mariotaku.gallery3d.app.ImageViewerGLActivity;
@@ -45,7 +46,17 @@ public class TileImageView extends GLView {
 	private static int TILE_SIZE;
 	private static final int TILE_BORDER = 1;
 	private static int BITMAP_SIZE;
-	private static final int UPLOAD_LIMIT = 1;
+	// Number of tiles uploaded in a frame is adjusted between these values,
+	// so uploading takes about UPLOAD_TIME_BUDGET (in nanoseconds) a frame.
+	private static final int MIN_UPLOAD_LIMIT = 1;
+	private static final int MAX_UPLOAD_LIMIT = 4;
+	private static final long UPLOAD_TIME_BUDGET = 8 * 1000 * 1000;
+
+	private static final int MAX_DECODER_COUNT = 3;
+	private static final int DECODER_COUNT = Math.max(1,
+			Math.min(MAX_DECODER_COUNT, Runtime.getRuntime().availableProcessors()));
+
+	private static final int SMALL_TILE_POOL_LIMIT = 4;
 
 	private static BitmapPool sTilePool;
 
@@ -85,6 +96,9 @@ public class TileImageView extends GLView {
 	private int mOffsetY;
 
 	private int mUploadQuota;
+	private int mUploadLimit = MIN_UPLOAD_LIMIT;
+	// Moving average of time used to upload a tile, in nanoseconds.
+	private long mUploadTime;
 	private boolean mRenderComplete;
 
 	private final RectF mSourceRect = new RectF();
@@ -95,7 +109,7 @@ public class TileImageView extends GLView {
 	// The following three queue is guarded by TileImageView.this
 	private final TileQueue mRecycledQueue = new TileQueue();
 	private final TileQueue mUploadQueue = new TileQueue();
-	private final TileQueue mDecodeQueue = new TileQueue();
+	private final DecodeQueue mDecodeQueue = new DecodeQueue();
 
 	// The width and height of the full-sized bitmap
 	protected int mImageWidth = SIZE_UNKNOWN;
@@ -112,13 +126,13 @@ public class TileImageView extends GLView {
 
 	private final TileUploader mTileUploader = new TileUploader();
 	private boolean mIsTextureFreed;
-	private Future<Void> mTileDecoder;
+	private Future<?>[] mTileDecoders;
 	private final ThreadPool mThreadPool;
 	private boolean mBackgroundTileUploaded;
 
 	public TileImageView(final ImageViewerGLActivity context) {
 		mThreadPool = context.getThreadPool();
-		mTileDecoder = mThreadPool.submit(new TileDecoder());
+		startTileDecoders();
 		if (TILE_SIZE == 0) {
 			if (GalleryUtils.isHighResolution(context)) {
 				TILE_SIZE = 510;
@@ -126,18 +140,24 @@ public class TileImageView extends GLView {
 				TILE_SIZE = 254;
 			}
 			BITMAP_SIZE = TILE_SIZE + TILE_BORDER * 2;
-			sTilePool = ApiHelper.HAS_REUSING_BITMAP_IN_BITMAP_REGION_DECODER ? new BitmapPool(BITMAP_SIZE,
-					BITMAP_SIZE, 128) : null;
+			// Before API 16 region decoder can't decode into a reused bitmap,
+			// pooled bitmaps are only used for edge tiles, so keep a few.
+			sTilePool = ApiHelper.HAS_REUSING_BITMAP_IN_BITMAP_REGION_DECODER ? BitmapPool.getInstance()
+					: new BitmapPool(BITMAP_SIZE, BITMAP_SIZE, SMALL_TILE_POOL_LIMIT);
 		}
 	}
 
 	public void freeTextures() {
 		mIsTextureFreed = true;
 
-		if (mTileDecoder != null) {
-			mTileDecoder.cancel();
-			mTileDecoder.get();
-			mTileDecoder = null;
+		if (mTileDecoders != null) {
+			for (final Future<?> decoder : mTileDecoders) {
+				decoder.cancel();
+			}
+			for (final Future<?> decoder : mTileDecoders) {
+				decoder.get();
+			}
+			mTileDecoders = null;
 		}
 
 		final int n = mActiveTiles.size();
@@ -158,9 +178,7 @@ public class TileImageView extends GLView {
 			}
 		}
 		setScreenNail(null);
-		if (sTilePool != null) {
-			sTilePool.clear();
-		}
+		sTilePool.clear();
 	}
 
 	public void notifyModelInvalidated() {
@@ -181,8 +199,8 @@ public class TileImageView extends GLView {
 	}
 
 	public void prepareTextures() {
-		if (mTileDecoder == null) {
-			mTileDecoder = mThreadPool.submit(new TileDecoder());
+		if (mTileDecoders == null) {
+			startTileDecoders();
 		}
 		if (mIsTextureFreed) {
 			layoutTiles(mCenterX, mCenterY, mScale, mRotation);
@@ -223,7 +241,7 @@ public class TileImageView extends GLView {
 
 	@Override
 	protected void render(final GLCanvas canvas) {
-		mUploadQuota = UPLOAD_LIMIT;
+		mUploadQuota = mUploadLimit;
 		mRenderComplete = true;
 
 		final int level = mLevel;
@@ -304,9 +322,7 @@ public class TileImageView extends GLView {
 			if (tile.mTileState == STATE_RECYCLING) {
 				tile.mTileState = STATE_RECYCLED;
 				if (tile.mDecodedTile != null) {
-					if (sTilePool != null) {
-						sTilePool.recycle(tile.mDecodedTile);
-					}
+					sTilePool.recycle(tile.mDecodedTile);
 					tile.mDecodedTile = null;
 				}
 				mRecycledQueue.push(tile);
@@ -332,7 +348,7 @@ public class TileImageView extends GLView {
 				if (tile.mTileState == STATE_DECODED) {
 					if (mUploadQuota > 0) {
 						--mUploadQuota;
-						tile.updateContent(canvas);
+						uploadTile(tile, canvas);
 					} else {
 						mRenderComplete = false;
 					}
@@ -389,6 +405,16 @@ public class TileImageView extends GLView {
 		getRange(out, cX, cY, level, 1f / (1 << level + 1), rotation);
 	}
 
+	// Smaller value is decoded first. Tiles of the level used for display come
+	// first, then tiles closer to the center of the view. Guarded by
+	// TileImageView.this
+	private long getDecodePriority(final Tile tile) {
+		final int half_size = TILE_SIZE << tile.mTileLevel >> 1;
+		final long dx = tile.mX + half_size - mCenterX;
+		final long dy = tile.mY + half_size - mCenterY;
+		return (long) Math.abs(tile.mTileLevel - mLevel) << 40 | dx * dx + dy * dy;
+	}
+
 	private Tile getTile(final int x, final int y, final int level) {
 		return mActiveTiles.get(makeTileKey(x, y, level));
 	}
@@ -503,9 +529,9 @@ public class TileImageView extends GLView {
 	private synchronized void queueForDecode(final Tile tile) {
 		if (tile.mTileState == STATE_ACTIVATED) {
 			tile.mTileState = STATE_IN_QUEUE;
-			if (mDecodeQueue.push(tile)) {
-				notifyAll();
-			}
+			mDecodeQueue.push(tile);
+			// Wake up one of the idle decoders.
+			notify();
 		}
 	}
 
@@ -525,14 +551,30 @@ public class TileImageView extends GLView {
 		}
 		tile.mTileState = STATE_RECYCLED;
 		if (tile.mDecodedTile != null) {
-			if (sTilePool != null) {
-				sTilePool.recycle(tile.mDecodedTile);
-			}
+			sTilePool.recycle(tile.mDecodedTile);
 			tile.mDecodedTile = null;
 		}
 		mRecycledQueue.push(tile);
 	}
 
+	private void startTileDecoders() {
+		mTileDecoders = new Future<?>[DECODER_COUNT];
+		for (int i = 0; i < DECODER_COUNT; i++) {
+			mTileDecoders[i] = mThreadPool.submit(new TileDecoder());
+		}
+	}
+
+	// Uploads the tile and adjusts number of tiles uploaded in a frame by time
+	// used, only the upload itself is timed. Called on GL thread.
+	private void uploadTile(final Tile tile, final GLCanvas canvas) {
+		final long start_time = System.nanoTime();
+		tile.updateContent(canvas);
+		final long upload_time = System.nanoTime() - start_time;
+		mUploadTime = mUploadTime == 0 ? upload_time : (mUploadTime * 3 + upload_time) / 4;
+		final long limit = UPLOAD_TIME_BUDGET / Math.max(1, mUploadTime);
+		mUploadLimit = (int) Math.max(MIN_UPLOAD_LIMIT, Math.min(MAX_UPLOAD_LIMIT, limit));
+	}
+
 	private void uploadBackgroundTiles(final GLCanvas canvas) {
 		mBackgroundTileUploaded = true;
 		final int n = mActiveTiles.size();
@@ -631,9 +673,7 @@ public class TileImageView extends GLView {
 
 		@Override
 		protected void onFreeBitmap(final Bitmap bitmap) {
-			if (sTilePool != null) {
-				sTilePool.recycle(bitmap);
-			}
+			sTilePool.recycle(bitmap);
 		}
 
 		@Override
@@ -699,6 +739,39 @@ public class TileImageView extends GLView {
 		}
 	}
 
+	// Guarded by TileImageView.this
+	private class DecodeQueue {
+		private final ArrayList<Tile> mTiles = new ArrayList<Tile>();
+
+		public void clean() {
+			mTiles.clear();
+		}
+
+		// Tiles which scrolled out of view are removed by layoutTiles(), so
+		// the queue is small and a linear search is fine.
+		public Tile pop() {
+			final int size = mTiles.size();
+			if (size == 0) return null;
+			int best_index = 0;
+			long best_priority = Long.MAX_VALUE;
+			for (int i = 0; i < size; i++) {
+				final long priority = getDecodePriority(mTiles.get(i));
+				if (priority < best_priority) {
+					best_priority = priority;
+					best_index = i;
+				}
+			}
+			final Tile tile = mTiles.get(best_index);
+			mTiles.set(best_index, mTiles.get(size - 1));
+			mTiles.remove(size - 1);
+			return tile;
+		}
+
+		public void push(final Tile tile) {
+			mTiles.add(tile);
+		}
+	}
+
 	private static class TileQueue {
 		private Tile mHead;
 
@@ -730,7 +803,7 @@ public class TileImageView extends GLView {
 			// Skips uploading if there is a pending rendering request.
 			// Returns true to keep uploading in next rendering loop.
 			if (renderRequested) return true;
-			int quota = UPLOAD_LIMIT;
+			int quota = mUploadLimit;
 			Tile tile = null;
 			while (quota > 0) {
 				synchronized (TileImageView.this) {
@@ -742,7 +815,7 @@ public class TileImageView extends GLView {
 				if (!tile.isContentValid()) {
 					final boolean hasBeenLoaded = tile.isLoaded();
 					GalleryUtils.assertTrue(tile.mTileState == STATE_DECODED);
-					tile.updateContent(canvas);
+					uploadTile(tile, canvas);
 					if (!hasBeenLoaded) {
 						tile.draw(canvas, 0, 0);
 					}
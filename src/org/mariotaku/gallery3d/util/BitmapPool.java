@@ -17,58 +17,200 @@
 package org.mariotaku.gallery3d.util;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import android.content.ComponentCallbacks2;
 import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
 
+// A pool of mutable bitmaps, bucketed by width, height and config. The pool
+// is limited by total size in bytes, least recently pooled bitmaps of all
+// buckets are recycled first.
 public class BitmapPool {
 	@SuppressWarnings("unused")
 	private static final String TAG = "BitmapPool";
 
-	private final ArrayList<Bitmap> mPool;
-	private final int mPoolLimit;
+	private static final int DEFAULT_MEMORY_FRACTION = 8;
 
-	// mOneSize is true if the pool can only cache Bitmap with one size.
+	private static BitmapPool sInstance;
+
+	private final HashMap<Key, ArrayList<Bitmap>> mBuckets = new HashMap<Key, ArrayList<Bitmap>>();
+	// Pooled bitmaps in the order they are added, used for LRU trimming.
+	private final LinkedHashMap<Bitmap, Key> mBitmaps = new LinkedHashMap<Bitmap, Key>();
+	private final Key mLookupKey = new Key();
+	private final long mMaxSize;
+
+	// mOneSize is true if the pool is created for one size, getBitmap()
+	// without arguments can only be used in this case.
 	private final boolean mOneSize;
 	private final int mWidth, mHeight; // only used if mOneSize is true
 
+	private long mSize;
+	private int mHitCount, mMissCount;
+
 	// Construct a BitmapPool which caches bitmap with the specified size.
 	public BitmapPool(final int width, final int height, final int poolLimit) {
 		mWidth = width;
 		mHeight = height;
-		mPoolLimit = poolLimit;
-		mPool = new ArrayList<Bitmap>(poolLimit);
+		mMaxSize = (long) width * height * 4 * poolLimit;
 		mOneSize = true;
 	}
 
+	// Construct a BitmapPool which caches bitmaps of any size, up to maxSize
+	// bytes in total.
+	public BitmapPool(final long maxSize) {
+		mWidth = -1;
+		mHeight = -1;
+		mMaxSize = maxSize;
+		mOneSize = false;
+	}
+
 	public synchronized void clear() {
-		mPool.clear();
+		trimToSize(0);
 	}
 
 	// Get a Bitmap from the pool.
-	public synchronized Bitmap getBitmap() {
+	public Bitmap getBitmap() {
 		GalleryUtils.assertTrue(mOneSize);
-		final int size = mPool.size();
-		return size > 0 ? mPool.remove(size - 1) : null;
+		return getBitmap(mWidth, mHeight, Config.ARGB_8888);
+	}
+
+	// Get a Bitmap with the specified size and config from the pool, or null
+	// if there is no such Bitmap.
+	public synchronized Bitmap getBitmap(final int width, final int height, final Config config) {
+		mLookupKey.set(width, height, config);
+		final ArrayList<Bitmap> bucket = mBuckets.get(mLookupKey);
+		final int size = bucket != null ? bucket.size() : 0;
+		if (size == 0) {
+			mMissCount++;
+			return null;
+		}
+		mHitCount++;
+		final Bitmap bitmap = bucket.remove(size - 1);
+		mBitmaps.remove(bitmap);
+		mSize -= getBitmapSize(bitmap);
+		return bitmap;
+	}
+
+	public synchronized int getHitCount() {
+		return mHitCount;
+	}
+
+	public long getMaxSize() {
+		return mMaxSize;
+	}
+
+	public synchronized int getMissCount() {
+		return mMissCount;
+	}
+
+	public synchronized long getSize() {
+		return mSize;
 	}
 
 	public boolean isOneSize() {
 		return mOneSize;
 	}
 
-	// Put a Bitmap into the pool, if the Bitmap has a proper size. Otherwise
-	// the Bitmap will be recycled. If the pool is full, an old Bitmap will be
-	// recycled.
+	// Releases pooled bitmaps according to the memory level, see
+	// ComponentCallbacks2#onTrimMemory(int).
+	public synchronized void onTrimMemory(final int level) {
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+				|| level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+			trimToSize(0);
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+			trimToSize(mMaxSize / 2);
+		}
+	}
+
+	// Put a Bitmap into the pool, if the Bitmap can be reused. Otherwise the
+	// Bitmap will be recycled. If the pool is full, least recently pooled
+	// Bitmaps will be recycled.
 	public void recycle(final Bitmap bitmap) {
-		if (bitmap == null) return;
-		if (mOneSize && (bitmap.getWidth() != mWidth || bitmap.getHeight() != mHeight)) {
+		if (bitmap == null || bitmap.isRecycled()) return;
+		final long bitmapSize = getBitmapSize(bitmap);
+		if (!bitmap.isMutable() || bitmap.getConfig() == null || bitmapSize > mMaxSize
+				|| mOneSize && (bitmap.getWidth() != mWidth || bitmap.getHeight() != mHeight)) {
 			bitmap.recycle();
 			return;
 		}
 		synchronized (this) {
-			if (mPool.size() >= mPoolLimit) {
-				mPool.remove(0);
+			if (mBitmaps.containsKey(bitmap)) return;
+			final Key key = new Key();
+			key.set(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+			ArrayList<Bitmap> bucket = mBuckets.get(key);
+			if (bucket == null) {
+				bucket = new ArrayList<Bitmap>();
+				mBuckets.put(key, bucket);
 			}
-			mPool.add(bitmap);
+			bucket.add(bitmap);
+			mBitmaps.put(bitmap, key);
+			mSize += bitmapSize;
+			trimToSize(mMaxSize);
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "BitmapPool{size=" + mSize + ", max_size=" + mMaxSize + ", hits=" + mHitCount + ", misses="
+				+ mMissCount + "}";
+	}
+
+	private void trimToSize(final long maxSize) {
+		final Iterator<Map.Entry<Bitmap, Key>> it = mBitmaps.entrySet().iterator();
+		while (mSize > maxSize && it.hasNext()) {
+			final Map.Entry<Bitmap, Key> eldest = it.next();
+			final Bitmap bitmap = eldest.getKey();
+			final ArrayList<Bitmap> bucket = mBuckets.get(eldest.getValue());
+			bucket.remove(bitmap);
+			if (bucket.isEmpty()) {
+				mBuckets.remove(eldest.getValue());
+			}
+			it.remove();
+			mSize -= getBitmapSize(bitmap);
+			bitmap.recycle();
+		}
+	}
+
+	// Pool shared by image viewer components, limited to a fraction of
+	// maximum heap size.
+	public static synchronized BitmapPool getInstance() {
+		if (sInstance == null) {
+			sInstance = new BitmapPool(Runtime.getRuntime().maxMemory() / DEFAULT_MEMORY_FRACTION);
+		}
+		return sInstance;
+	}
+
+	private static long getBitmapSize(final Bitmap bitmap) {
+		return (long) bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+	private static final class Key {
+		int width, height;
+		Config config;
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof Key)) return false;
+			final Key key = (Key) o;
+			return width == key.width && height == key.height && config == key.config;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = width;
+			result = 31 * result + height;
+			result = 31 * result + (config != null ? config.hashCode() : 0);
+			return result;
+		}
+
+		void set(final int width, final int height, final Config config) {
+			this.width = width;
+			this.height = height;
+			this.config = config;
 		}
 	}
 }
@@ -51,7 +51,7 @@ public interface Constants extends TwitterConstants {
 	public static final String SILENT_NOTIFICATIONS_PREFERENCE_NAME = "silent_notifications";
 
 	public static final String DATABASES_NAME = "twidere.sqlite";
-	public static final int DATABASES_VERSION = 41;
+	public static final int DATABASES_VERSION = 45;
 
 	// The following 4 constants are not included in source code, you'd better
 	// use your own.
@@ -207,6 +207,9 @@ public interface Constants extends TwitterConstants {
 	public static final String PREFERENCE_KEY_DISABLE_TAB_SWIPE = "disable_tab_swipe";
 	public static final String PREFERENCE_KEY_DARK_THEME_COLOR = "dark_theme_color";
 	public static final String PREFERENCE_KEY_LIGHT_THEME_COLOR = "light_theme_color";
+	public static final String PREFERENCE_KEY_MAX_CONCURRENT_REQUESTS = "max_concurrent_requests";
+	public static final String PREFERENCE_KEY_MAX_TOTAL_CONNECTIONS = "max_total_connections";
+	public static final String PREFERENCE_KEY_MAX_CONNECTIONS_PER_ROUTE = "max_connections_per_route";
 
 	public static final String PREFERENCE_DEFAULT_QUOTE_FORMAT = "RT @" + FORMAT_PATTERN_NAME + ": "
 			+ FORMAT_PATTERN_TEXT;
@@ -216,6 +219,9 @@ public interface Constants extends TwitterConstants {
 	public static final int PREFERENCE_DEFAULT_DATABASE_ITEM_LIMIT = 100;
 	public static final int PREFERENCE_DEFAULT_LOAD_ITEM_LIMIT = 20;
 	public static final int PREFERENCE_DEFAULT_TEXT_SIZE = 15;
+	public static final int PREFERENCE_DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+	public static final int PREFERENCE_DEFAULT_MAX_TOTAL_CONNECTIONS = 20;
+	public static final int PREFERENCE_DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 6;
 
 	public static final String NAME_DISPLAY_OPTION_BOTH = "both";
 	public static final String NAME_DISPLAY_OPTION_NAME = "name";
@@ -65,7 +65,6 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.graphics.PorterDuff.Mode;
 import android.graphics.drawable.Drawable;
@@ -942,13 +941,7 @@ public class ComposeActivity extends BaseDialogWhenLargeActivity implements Text
 			final Context context = getContext();
 			final float density = context.getResources().getDisplayMetrics().density;
 			final int thumbnail_size_px = (int) (THUMBNAIL_SIZE * density);
-			final BitmapFactory.Options o = new BitmapFactory.Options();
-			o.inJustDecodeBounds = true;
-			BitmapFactory.decodeFile(path, o);
-			if (o.outWidth == 0 || o.outHeight == 0) return null;
-			o.inJustDecodeBounds = false;
-			o.inSampleSize = Math.round(Math.max(o.outWidth, o.outHeight) / thumbnail_size_px);
-			return BitmapDecodeHelper.decode(path, o);
+			return BitmapDecodeHelper.decode(path, thumbnail_size_px, thumbnail_size_px);
 		}
 
 		@Override
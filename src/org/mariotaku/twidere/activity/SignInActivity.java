@@ -495,10 +495,12 @@ public class SignInActivity extends BaseActivity implements OnClickListener, Tex
 		int analyseUserProfileColor(final User user) throws TwitterException {
 			final HttpClientWrapper client = new HttpClientWrapper(conf);
 			final String profile_image_url = user != null ? parseString(user.getProfileImageUrlHttps()) : null;
+			final Integer cached_color = ColorAnalyser.getCachedColor(profile_image_url);
+			if (cached_color != null) return cached_color;
 			final HttpResponse conn = profile_image_url != null ? client.get(profile_image_url, null) : null;
 			final Bitmap bm = conn != null ? BitmapFactory.decodeStream(conn.asStream()) : null;
 			if (bm == null) throw new TwitterException("Can't get profile image");
-			return ColorAnalyser.analyse(bm);
+			return ColorAnalyser.analyse(profile_image_url, bm);
 		}
 
 	}
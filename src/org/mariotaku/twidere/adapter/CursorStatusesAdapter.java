@@ -20,7 +20,6 @@
 package org.mariotaku.twidere.adapter;
 
 import static android.text.format.DateUtils.getRelativeTimeSpanString;
-import static org.mariotaku.twidere.util.HtmlEscapeHelper.toPlainText;
 import static org.mariotaku.twidere.util.Utils.findStatusInDatabases;
 import static org.mariotaku.twidere.util.Utils.formatSameDayTime;
 import static org.mariotaku.twidere.util.Utils.getAccountColor;
@@ -28,7 +27,6 @@ import static org.mariotaku.twidere.util.Utils.getAccountScreenName;
 import static org.mariotaku.twidere.util.Utils.getAllAvailableImage;
 import static org.mariotaku.twidere.util.Utils.getInlineImagePreviewDisplayOptionInt;
 import static org.mariotaku.twidere.util.Utils.getNameDisplayOptionInt;
-import static org.mariotaku.twidere.util.Utils.getPreviewImage;
 import static org.mariotaku.twidere.util.Utils.getStatusBackground;
 import static org.mariotaku.twidere.util.Utils.getStatusTypeIconRes;
 import static org.mariotaku.twidere.util.Utils.getUserColor;
@@ -36,6 +34,9 @@ import static org.mariotaku.twidere.util.Utils.getUserTypeIconRes;
 import static org.mariotaku.twidere.util.Utils.openImage;
 import static org.mariotaku.twidere.util.Utils.openUserProfile;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.mariotaku.twidere.R;
 import org.mariotaku.twidere.adapter.iface.IStatusesAdapter;
 import org.mariotaku.twidere.app.TwidereApplication;
@@ -45,6 +46,7 @@ import org.mariotaku.twidere.model.StatusCursorIndices;
 import org.mariotaku.twidere.util.ImageLoaderWrapper;
 import org.mariotaku.twidere.util.MultiSelectManager;
 import org.mariotaku.twidere.util.OnLinkClickHandler;
+import org.mariotaku.twidere.util.StatusSpanTable;
 import org.mariotaku.twidere.util.TwidereLinkify;
 import org.mariotaku.twidere.view.holder.StatusViewHolder;
 
@@ -53,7 +55,6 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.support.v4.widget.SimpleCursorAdapter;
-import android.text.Html;
 import android.text.TextUtils;
 import android.view.View;
 import android.view.View.OnClickListener;
@@ -65,6 +66,8 @@ import android.text.SpannableString;
 
 public class CursorStatusesAdapter extends SimpleCursorAdapter implements IStatusesAdapter, OnClickListener {
 
+	private static final int MAX_REBUILT_SPAN_TABLES = 256;
+
 	private final Context mContext;
 	private final Resources mResources;
 	private final ImageLoaderWrapper mLazyImageLoader;
@@ -80,6 +83,8 @@ public class CursorStatusesAdapter extends SimpleCursorAdapter implements IStatu
 	private int mNameDisplayOption, mInlineImagePreviewDisplayOption;
 	private StatusCursorIndices mIndices;
 
+	private final Map<Long, StatusSpanTable> mRebuiltSpanTables = new HashMap<Long, StatusSpanTable>();
+
 	public CursorStatusesAdapter(final Context context) {
 		super(context, R.layout.status_list_item, null, new String[0], new int[0], 0);
 		mContext = context;
@@ -130,8 +135,10 @@ public class CursorStatusesAdapter extends SimpleCursorAdapter implements IStatu
 			final boolean has_location = mFastTimelineProcessingEnabled ? false : !TextUtils.isEmpty(cursor
 					.getString(mIndices.location));
 			final boolean is_possibly_sensitive = cursor.getInt(mIndices.is_possibly_sensitive) == 1;
-			final ImageSpec preview = !mFastTimelineProcessingEnabled ? getPreviewImage(text,
-					mInlineImagePreviewDisplayOption) : null;
+			final StatusSpanTable span_table = !mFastTimelineProcessingEnabled ? getSpanTable(cursor, status_id,
+					text) : null;
+			final ImageSpec preview = span_table != null ? span_table.getPreviewImage(mInlineImagePreviewDisplayOption)
+					: null;
 			final boolean has_media = preview != null;
 
 			// User type (protected/verified)
@@ -165,13 +172,12 @@ public class CursorStatusesAdapter extends SimpleCursorAdapter implements IStatu
 			holder.setTextSize(mTextSize);
 
 			holder.setIsMyStatus(is_my_status && !mIndicateMyStatusDisabled);
-			if (mFastTimelineProcessingEnabled) {
+			if (mFastTimelineProcessingEnabled || span_table == null) {
 				holder.text.setText(text);
 			} else if (mLinkHighlightingEnabled) {
-				holder.text.setText(Html.fromHtml(text));
-				mLinkify.applyAllLinks(holder.text, account_id, is_possibly_sensitive);
+				mLinkify.applySpanTable(holder.text, span_table, account_id, is_possibly_sensitive);
 			} else {
-				holder.text.setText(toPlainText(text));
+				holder.text.setText(span_table.text);
 			}
 			holder.text.setMovementMethod(null);
 			holder.name.setCompoundDrawablesWithIntrinsicBounds(0, 0, getUserTypeIconRes(is_verified, is_protected), 0);
@@ -256,7 +262,7 @@ public class CursorStatusesAdapter extends SimpleCursorAdapter implements IStatu
 				if (is_possibly_sensitive && !mDisplaySensitiveContents) {
 					holder.image_preview.setImageResource(R.drawable.image_preview_nsfw);
 				} else {
-					mLazyImageLoader.displayPreviewImage(holder.image_preview, preview.preview_image_link);
+					mLazyImageLoader.displayPreviewImage(holder.image_preview, preview.preview_image_link, lp.width);
 				}
 				holder.image_preview_frame.setTag(position);
 			}
@@ -431,6 +437,27 @@ public class CursorStatusesAdapter extends SimpleCursorAdapter implements IStatu
 		}
 	}
 
+	/**
+	 * Rebuilds span table of statuses stored by older versions, rebuilt tables
+	 * are only kept in memory. Span tables are stored when statuses are
+	 * inserted, so these rows are replaced as timelines refresh.
+	 */
+	private StatusSpanTable getSpanTable(final Cursor cursor, final long status_id, final String text_html) {
+		if (mIndices.text_spans != -1) {
+			final StatusSpanTable stored = StatusSpanTable.parse(cursor.getString(mIndices.text_spans));
+			if (stored != null) return stored;
+		}
+		final StatusSpanTable rebuilt = mRebuiltSpanTables.get(status_id);
+		if (rebuilt != null) return rebuilt;
+		final StatusSpanTable table = StatusSpanTable.fromHtml(text_html);
+		if (table == null) return null;
+		if (mRebuiltSpanTables.size() >= MAX_REBUILT_SPAN_TABLES) {
+			mRebuiltSpanTables.clear();
+		}
+		mRebuiltSpanTables.put(status_id, table);
+		return table;
+	}
+
 	@Override
 	public Cursor swapCursor(final Cursor cursor) {
 		if (cursor != null) {
@@ -257,7 +257,7 @@ public class ParcelableStatusesAdapter extends ArrayAdapter<ParcelableStatus> im
 				if (status.is_possibly_sensitive && !mDisplaySensitiveContents) {
 					holder.image_preview.setImageResource(R.drawable.image_preview_nsfw);
 				} else {
-					mLazyImageLoader.displayPreviewImage(holder.image_preview, status.image_preview_url);
+					mLazyImageLoader.displayPreviewImage(holder.image_preview, status.image_preview_url, lp.width);
 				}
 				holder.image_preview_frame.setTag(position);
 			}
@@ -31,12 +31,16 @@ import org.mariotaku.twidere.service.RefreshService;
 import org.mariotaku.twidere.util.AsyncTaskManager;
 import org.mariotaku.twidere.util.AsyncTwitterWrapper;
 import org.mariotaku.twidere.util.DatabaseHelper;
+import org.mariotaku.twidere.util.FilterEngine;
+import org.mariotaku.twidere.util.ImageDiscCache;
+import org.mariotaku.twidere.util.ImageDownloadBudget;
 import org.mariotaku.twidere.util.ImageLoaderUtils;
 import org.mariotaku.twidere.util.ImageLoaderWrapper;
 import org.mariotaku.twidere.util.ImageMemoryCache;
 import org.mariotaku.twidere.util.MultiSelectManager;
 import org.mariotaku.twidere.util.TwidereHostAddressResolver;
 import org.mariotaku.twidere.util.TwidereImageDownloader;
+import org.mariotaku.twidere.util.TwitterInstanceCache;
 import org.mariotaku.twidere.util.URLFileNameGenerator;
 
 import twitter4j.http.HostAddressResolver;
@@ -51,7 +55,6 @@ import android.os.Handler;
 import android.webkit.WebView;
 import android.widget.Toast;
 
-import com.nostra13.universalimageloader.cache.disc.impl.UnlimitedDiscCache;
 import com.nostra13.universalimageloader.core.ImageLoader;
 import com.nostra13.universalimageloader.core.ImageLoaderConfiguration;
 
@@ -59,6 +62,9 @@ import edu.ucdavis.earlybird.UCDService;
 
 public class TwidereApplication extends Application implements Constants, OnSharedPreferenceChangeListener {
 
+	private static final int MAX_IMAGE_DOWNLOADS = 8;
+	private static final int MAX_BACKGROUND_IMAGE_DOWNLOADS = 2;
+
 	private ImageLoaderWrapper mImageLoaderWrapper;
 	private ImageLoader mImageLoader;
 	private AsyncTaskManager mAsyncTaskManager;
@@ -66,6 +72,10 @@ public class TwidereApplication extends Application implements Constants, OnShar
 	private AsyncTwitterWrapper mTwitterWrapper;
 	private MultiSelectManager mMultiSelectManager;
 	private TwidereImageDownloader mImageDownloader;
+	private FilterEngine mFilterEngine;
+	private ImageDiscCache mImageDiscCache;
+	private ImageDownloadBudget mImageDownloadBudget;
+	private TwitterInstanceCache mTwitterInstanceCache;
 
 	private HostAddressResolver mResolver;
 	private SQLiteDatabase mDatabase;
@@ -83,6 +93,11 @@ public class TwidereApplication extends Application implements Constants, OnShar
 		return mBrowserUserAgent;
 	}
 
+	public synchronized FilterEngine getFilterEngine() {
+		if (mFilterEngine != null) return mFilterEngine;
+		return mFilterEngine = new FilterEngine(this, getSQLiteDatabase());
+	}
+
 	public Handler getHandler() {
 		return mHandler;
 	}
@@ -92,15 +107,34 @@ public class TwidereApplication extends Application implements Constants, OnShar
 		return mResolver = new TwidereHostAddressResolver(this);
 	}
 
+	public synchronized ImageDiscCache getImageDiscCache() {
+		if (mImageDiscCache != null) return mImageDiscCache;
+		final File cache_dir = getBestCacheDir(this, DIR_NAME_IMAGE_CACHE);
+		return mImageDiscCache = new ImageDiscCache(cache_dir, new URLFileNameGenerator());
+	}
+
+	public synchronized ImageDownloadBudget getImageDownloadBudget() {
+		if (mImageDownloadBudget != null) return mImageDownloadBudget;
+		return mImageDownloadBudget = new ImageDownloadBudget(MAX_IMAGE_DOWNLOADS, MAX_BACKGROUND_IMAGE_DOWNLOADS);
+	}
+
+	/**
+	 * Created on first use, so processes never loading images through it,
+	 * like image viewer, won't open the disc cache journal.
+	 */
+	public synchronized TwidereImageDownloader getImageDownloader() {
+		if (mImageDownloader != null) return mImageDownloader;
+		return mImageDownloader = new TwidereImageDownloader(this);
+	}
+
 	public ImageLoader getImageLoader() {
 		if (mImageLoader != null) return mImageLoader;
-		final File cache_dir = getBestCacheDir(this, DIR_NAME_IMAGE_CACHE);
 		final ImageLoader loader = ImageLoader.getInstance();
 		final ImageLoaderConfiguration.Builder cb = new ImageLoaderConfiguration.Builder(this);
-		cb.threadPoolSize(8);
-		cb.memoryCache(new ImageMemoryCache(40));
-		cb.discCache(new UnlimitedDiscCache(cache_dir, new URLFileNameGenerator()));
-		cb.imageDownloader(mImageDownloader);
+		cb.threadPoolSize(MAX_IMAGE_DOWNLOADS);
+		cb.memoryCache(new ImageMemoryCache(ImageMemoryCache.DEFAULT_MEMORY_FRACTION));
+		cb.discCache(getImageDiscCache());
+		cb.imageDownloader(getImageDownloader());
 		loader.init(cb.build());
 		return mImageLoader = loader;
 	}
@@ -120,6 +154,11 @@ public class TwidereApplication extends Application implements Constants, OnShar
 		return mDatabase = new DatabaseHelper(this, DATABASES_NAME, DATABASES_VERSION).getWritableDatabase();
 	}
 
+	public synchronized TwitterInstanceCache getTwitterInstanceCache() {
+		if (mTwitterInstanceCache != null) return mTwitterInstanceCache;
+		return mTwitterInstanceCache = new TwitterInstanceCache(this);
+	}
+
 	public AsyncTwitterWrapper getTwitterWrapper() {
 		return mTwitterWrapper;
 	}
@@ -143,7 +182,6 @@ public class TwidereApplication extends Application implements Constants, OnShar
 		mTwitterWrapper = AsyncTwitterWrapper.getInstance(this);
 		mBrowserUserAgent = new WebView(this).getSettings().getUserAgentString();
 		mMultiSelectManager = new MultiSelectManager();
-		mImageDownloader = new TwidereImageDownloader(this);
 		if (mPreferences.getBoolean(PREFERENCE_KEY_UCD_DATA_PROFILING, false)) {
 			startService(new Intent(this, UCDService.class));
 		}
@@ -168,7 +206,8 @@ public class TwidereApplication extends Application implements Constants, OnShar
 			if (preferences.getBoolean(PREFERENCE_KEY_AUTO_REFRESH, false) && hasActiveConnection(this)) {
 				startService(intent);
 			}
-		} else if (PREFERENCE_KEY_ENABLE_PROXY.equals(key) || PREFERENCE_KEY_CONNECTION_TIMEOUT.equals(key)) {
+		} else if (PREFERENCE_KEY_ENABLE_PROXY.equals(key) || PREFERENCE_KEY_CONNECTION_TIMEOUT.equals(key)
+				|| PREFERENCE_KEY_PROXY_HOST.equals(key) || PREFERENCE_KEY_PROXY_PORT.equals(key)) {
 			reloadConnectivitySettings();
 		} else if (PREFERENCE_KEY_UCD_DATA_PROFILING.equals(key)) {
 			final Intent intent = new Intent(this, UCDService.class);
@@ -1,7 +1,7 @@
 package org.mariotaku.twidere.loader;
 
 import static org.mariotaku.twidere.util.Utils.getBestCacheDir;
-import static org.mariotaku.twidere.util.Utils.getImageLoaderHttpClient;
+import static org.mariotaku.twidere.util.Utils.getImageLoaderHttpClientConfiguration;
 import static org.mariotaku.twidere.util.Utils.getRedirectedHttpResponse;
 import static org.mariotaku.twidere.util.Utils.parseString;
 
@@ -11,18 +11,26 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import org.mariotaku.twidere.Constants;
 import org.mariotaku.gallery3d.util.GalleryUtils;
 import org.mariotaku.twidere.util.ImageValidator;
 
-import twitter4j.http.HttpClientWrapper;
+import twitter4j.TwitterException;
+import twitter4j.conf.Configuration;
+import twitter4j.http.HttpClient;
+import twitter4j.http.HttpClientFactory;
 import twitter4j.http.HttpResponse;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.support.v4.content.AsyncTaskLoader;
 import com.nostra13.universalimageloader.cache.disc.naming.FileNameGenerator;
 import org.mariotaku.twidere.util.URLFileNameGenerator;
@@ -30,10 +38,32 @@ import org.mariotaku.twidere.util.URLFileNameGenerator;
 public abstract class AbstractImageLoader extends AsyncTaskLoader<AbstractImageLoader.Result> implements Constants {
 
 	private static final String CACHE_DIR_NAME = DIR_NAME_IMAGE_CACHE;
+	// Treated as temporary file by image disc cache, so it will be deleted if
+	// download is never resumed.
+	private static final String PARTIAL_FILE_SUFFIX = ".part.tmp";
+
+	private static final int BUFFER_SIZE = 32 * 1024;
+	private static final long PROGRESS_UPDATE_INTERVAL = 200;
+	private static final int PROGRESS_UPDATE_STEP_PERCENT = 5;
+
+	private static final int PARTIAL_CONTENT = 206;
+	private static final int REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+
+	private static final ThreadLocal<byte[]> sBuffer = new ThreadLocal<byte[]>() {
+
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
+
+	// Names of cache files being downloaded by loaders in this process.
+	private static final Set<String> sDownloadingFiles = new HashSet<String>();
 
 	private final Uri mUri;
 	private final Context mContext;
-	private final HttpClientWrapper mClient;
+	private final HttpClient mClient;
+	private final Map<String, String> mRequestHeaders;
 	private final Handler mHandler;
 	private final DownloadListener mListener;
 	private final ContentResolver mResolver;
@@ -46,7 +76,9 @@ public abstract class AbstractImageLoader extends AsyncTaskLoader<AbstractImageL
 		mContext = context;
 		mHandler = new Handler();
 		mUri = uri;
-		mClient = getImageLoaderHttpClient(context);
+		final Configuration conf = getImageLoaderHttpClientConfiguration(context);
+		mClient = HttpClientFactory.getInstance(conf);
+		mRequestHeaders = conf.getRequestHeaders();
 		mListener = listener;
 		mResolver = context.getContentResolver();
 		mGenerator = new URLFileNameGenerator();
@@ -66,30 +98,27 @@ public abstract class AbstractImageLoader extends AsyncTaskLoader<AbstractImageL
 			final File cache_file = mImageFile = new File(mCacheDir, mGenerator.generate(url));
 			try {
 				// from SD cache
-				if (ImageValidator.checkImageValidity(cache_file)) return decodeImage(cache_file);
-				final HttpResponse resp = getRedirectedHttpResponse(mClient, url);
+				if (ImageValidator.checkImageValidity(cache_file)) return decodeImage(Uri.fromFile(cache_file));
 				// from web
-				if (resp == null) return null;
-				final long length = resp.getContentLength();
-				mHandler.post(new DownloadStartRunnable(mListener, length));
-				final InputStream is = resp.asStream();
-				final OutputStream os = new FileOutputStream(cache_file);
+				// Download to a partial file and rename it when finished, so
+				// other readers of cache never see a partial image, and
+				// interrupted download can be resumed. Partial file is named
+				// after URL, so only one loader may write it at a time.
+				lockFile(cache_file.getName());
 				try {
-					dump(is, os);
-					mHandler.post(new DownloadFinishRunnable(mListener));
-				} finally {
-					GalleryUtils.closeSilently(is);
-					GalleryUtils.closeSilently(os);
-				}
-				if (!ImageValidator.checkImageValidity(cache_file)) {
-					// The file is corrupted, so we remove it from
-					// cache.
-					if (cache_file.isFile()) {
-						cache_file.delete();
+					// Another loader may have downloaded it while we waited.
+					if (ImageValidator.checkImageValidity(cache_file)) return decodeImage(Uri.fromFile(cache_file));
+					final File part_file = new File(mCacheDir, cache_file.getName() + PARTIAL_FILE_SUFFIX);
+					if (!download(url, part_file)) return null;
+					if (!ImageValidator.checkImageValidity(part_file) || !part_file.renameTo(cache_file)) {
+						// The file is corrupted, so we remove it.
+						part_file.delete();
+						throw new IOException("Invalid image");
 					}
-					throw new IOException("Invalid image");
+				} finally {
+					unlockFile(cache_file.getName());
 				}
-				return decodeImage(cache_file);
+				return decodeImage(Uri.fromFile(cache_file));
 			} catch (final Exception e) {
 				mHandler.post(new DownloadErrorRunnable(mListener, e));
 				return new Result(null, null, e);
@@ -105,11 +134,6 @@ public abstract class AbstractImageLoader extends AsyncTaskLoader<AbstractImageL
 		return new Result(null, null, null);
 	}
 
-	protected Result decodeImage(final File file) throws IOException {
-		if (ImageValidator.checkImageValidity(file)) return decodeImage(Uri.fromFile(file));
-		throw new InvalidImageException();
-	}
-
 	protected abstract Result decodeImage(FileDescriptor fd) throws IOException;
 
 	protected Result decodeImage(final Uri uri) throws IOException {
@@ -121,15 +145,71 @@ public abstract class AbstractImageLoader extends AsyncTaskLoader<AbstractImageL
 		forceLoad();
 	}
 
-	private void dump(final InputStream is, final OutputStream os) throws IOException {
-		final byte buffer[] = new byte[1024];
-		int rc = is.read(buffer, 0, buffer.length);
-		long downloaded = 0;
-		while (rc > 0) {
+	/**
+	 * @return false if server returned nothing.
+	 */
+	private boolean download(final String url, final File part_file) throws IOException, TwitterException {
+		final long start = part_file.isFile() ? part_file.length() : 0;
+		final Map<String, String> headers = new HashMap<String, String>(mRequestHeaders);
+		if (start > 0) {
+			headers.put("Range", "bytes=" + start + "-");
+		}
+		final HttpResponse resp;
+		try {
+			resp = getRedirectedHttpResponse(mClient, url, headers);
+		} catch (final TwitterException e) {
+			if (start > 0 && e.getStatusCode() == REQUESTED_RANGE_NOT_SATISFIABLE) {
+				// Partial file doesn't match the image anymore.
+				part_file.delete();
+				return download(url, part_file);
+			}
+			throw e;
+		}
+		if (resp == null) return false;
+		final boolean resume = start > 0 && resp.getStatusCode() == PARTIAL_CONTENT;
+		if (resume && !isContentRangeFrom(resp, start)) {
+			resp.disconnect();
+			part_file.delete();
+			return download(url, part_file);
+		}
+		final long offset = resume ? start : 0;
+		final long length = resp.getContentLength();
+		final long total = length > 0 ? offset + length : length;
+		mHandler.post(new DownloadStartRunnable(mListener, total));
+		final InputStream is = resp.asStream();
+		final OutputStream os = new FileOutputStream(part_file, resume);
+		try {
+			dump(is, os, offset, total);
+			mHandler.post(new DownloadFinishRunnable(mListener));
+		} finally {
+			GalleryUtils.closeSilently(is);
+			GalleryUtils.closeSilently(os);
+		}
+		return true;
+	}
+
+	/**
+	 * Progress is posted at most every {@link #PROGRESS_UPDATE_INTERVAL} ms,
+	 * or every {@link #PROGRESS_UPDATE_STEP_PERCENT} percent of total length.
+	 */
+	private void dump(final InputStream is, final OutputStream os, final long offset, final long total)
+			throws IOException {
+		final byte[] buffer = sBuffer.get();
+		long downloaded = offset, last_update_size = -1, last_update_time = 0;
+		int rc;
+		while ((rc = is.read(buffer, 0, buffer.length)) != -1) {
+			os.write(buffer, 0, rc);
 			downloaded += rc;
+			final long now = SystemClock.uptimeMillis();
+			if (now - last_update_time >= PROGRESS_UPDATE_INTERVAL || total > 0
+					&& (downloaded - last_update_size) * 100 >= total * PROGRESS_UPDATE_STEP_PERCENT) {
+				mHandler.post(new ProgressUpdateRunnable(mListener, downloaded));
+				last_update_time = now;
+				last_update_size = downloaded;
+			}
+		}
+		if (downloaded != last_update_size) {
 			mHandler.post(new ProgressUpdateRunnable(mListener, downloaded));
-			os.write(buffer, 0, rc);
-			rc = is.read(buffer, 0, buffer.length);
 		}
 	}
 
@@ -141,6 +221,27 @@ public abstract class AbstractImageLoader extends AsyncTaskLoader<AbstractImageL
 		}
 	}
 
+	private static void lockFile(final String name) throws InterruptedException {
+		synchronized (sDownloadingFiles) {
+			while (sDownloadingFiles.contains(name)) {
+				sDownloadingFiles.wait();
+			}
+			sDownloadingFiles.add(name);
+		}
+	}
+
+	private static void unlockFile(final String name) {
+		synchronized (sDownloadingFiles) {
+			sDownloadingFiles.remove(name);
+			sDownloadingFiles.notifyAll();
+		}
+	}
+
+	private static boolean isContentRangeFrom(final HttpResponse resp, final long start) {
+		final String range = resp.getResponseHeader("Content-Range");
+		return range != null && range.trim().startsWith("bytes " + start + "-");
+	}
+
 	public static interface DownloadListener {
 		void onDownloadError(Throwable t);
 
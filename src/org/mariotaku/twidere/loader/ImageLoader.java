@@ -1,42 +1,35 @@
 package org.mariotaku.twidere.loader;
 
 import java.io.FileDescriptor;
-import java.io.FileInputStream;
 
 import org.mariotaku.twidere.util.BitmapDecodeHelper;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.util.DisplayMetrics;
 
 public class ImageLoader extends AbstractImageLoader {
 
+	private final int mMaxSize;
+
 	public ImageLoader(final Context context, final DownloadListener listener, final Uri uri) {
 		super(context, listener, uri);
+		final DisplayMetrics dm = context.getResources().getDisplayMetrics();
+		mMaxSize = Math.max(dm.widthPixels, dm.heightPixels);
 	}
 
 	@Override
 	protected Result decodeImage(final FileDescriptor fd) {
-		final BitmapFactory.Options o = new BitmapFactory.Options();
-		o.inJustDecodeBounds = true;
-		BitmapFactory.decodeFileDescriptor(fd, null, o);
-		if (o.outHeight <= 0) return null;
-		final BitmapFactory.Options o1 = new BitmapFactory.Options();
-		Bitmap bitmap = null;
-		while (bitmap == null) {
+		int max_size = mMaxSize;
+		while (max_size > 0) {
 			try {
-				final BitmapFactory.Options o2 = new BitmapFactory.Options();
-				o2.inSampleSize = o1.inSampleSize;
-				bitmap = BitmapDecodeHelper.decode(new FileInputStream(fd), o2);
+				final Bitmap bitmap = BitmapDecodeHelper.decode(fd, max_size, max_size);
+				if (bitmap == null) break;
+				return new Result(bitmap, mImageFile, null);
 			} catch (final OutOfMemoryError e) {
-				o1.inSampleSize++;
-				continue;
-			}
-			if (bitmap == null) {
-				break;
+				max_size /= 2;
 			}
-			return new Result(bitmap, mImageFile, null);
 		}
 		return new Result(null, null, null);
 	}
@@ -20,7 +20,6 @@
 package org.mariotaku.twidere.loader;
 
 import static org.mariotaku.twidere.util.Utils.getInlineImagePreviewDisplayOptionInt;
-import static org.mariotaku.twidere.util.Utils.isFiltered;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -31,6 +30,7 @@ import org.mariotaku.twidere.R;
 import org.mariotaku.twidere.app.TwidereApplication;
 import org.mariotaku.twidere.model.ParcelableStatus;
 import org.mariotaku.twidere.util.CacheUsersStatusesTask;
+import org.mariotaku.twidere.util.FilterEngine;
 import org.mariotaku.twidere.util.SynchronizedStateSavedList;
 import org.mariotaku.twidere.util.TwitterWrapper.StatusListResponse;
 
@@ -40,7 +40,6 @@ import twitter4j.TwitterException;
 import android.app.Activity;
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
 public abstract class Twitter4JStatusLoader extends ParcelableStatusesLoader {
@@ -48,7 +47,7 @@ public abstract class Twitter4JStatusLoader extends ParcelableStatusesLoader {
 	private final long mMaxId, mSinceId;
 	private final boolean mHiResProfileImage;
 	private final boolean mLargeInlineImagePreview;
-	private final SQLiteDatabase mDatabase;
+	private final FilterEngine mFilterEngine;
 
 	public Twitter4JStatusLoader(final Context context, final long account_id, final long max_id, final long since_id,
 			final List<ParcelableStatus> data, final String class_name, final boolean is_home_tab) {
@@ -57,7 +56,7 @@ public abstract class Twitter4JStatusLoader extends ParcelableStatusesLoader {
 		mSinceId = since_id;
 		mHiResProfileImage = context.getResources().getBoolean(R.bool.hires_profile_image);
 		mLargeInlineImagePreview = getInlineImagePreviewDisplayOptionInt(context) == INLINE_IMAGE_PREVIEW_DISPLAY_OPTION_CODE_LARGE;
-		mDatabase = TwidereApplication.getInstance(context).getSQLiteDatabase();
+		mFilterEngine = TwidereApplication.getInstance(context).getFilterEngine();
 	}
 
 	public abstract List<Status> getStatuses(Paging paging) throws TwitterException;
@@ -100,7 +99,7 @@ public abstract class Twitter4JStatusLoader extends ParcelableStatusesLoader {
 		try {
 			final List<ParcelableStatus> statuses_to_remove = new ArrayList<ParcelableStatus>();
 			for (final ParcelableStatus status : data) {
-				if (isFiltered(mDatabase, status) && !status.is_gap) {
+				if (mFilterEngine.isFiltered(status) && !status.is_gap) {
 					statuses_to_remove.add(status);
 				}
 			}
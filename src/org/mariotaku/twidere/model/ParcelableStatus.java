@@ -34,6 +34,7 @@ import java.util.Date;
 
 import org.mariotaku.twidere.Constants;
 import org.mariotaku.twidere.provider.TweetStore.Statuses;
+import org.mariotaku.twidere.util.StatusSpanTable;
 
 import twitter4j.Status;
 import twitter4j.User;
@@ -118,7 +119,7 @@ public class ParcelableStatus implements Constants, Parcelable, Serializable, Co
 		source = values.getAsString(Statuses.SOURCE);
 		retweet_count = getAsInteger(values, Statuses.RETWEET_COUNT, 0);
 		text_unescaped = toPlainText(text_html);
-		final ImageSpec preview = getPreviewImage(text_html, INLINE_IMAGE_PREVIEW_DISPLAY_OPTION_CODE_LARGE);
+		final ImageSpec preview = getStatusPreviewImage(text_html, values.getAsString(Statuses.TEXT_SPANS));
 		has_media = preview != null;
 		image_preview_url = preview != null ? preview.preview_image_link : null;
 		image_orig_url = preview != null ? preview.orig_link : null;
@@ -145,7 +146,8 @@ public class ParcelableStatus implements Constants, Parcelable, Serializable, Co
 		retweeted_by_screen_name = indices.retweeted_by_screen_name != -1 ? cursor
 				.getString(indices.retweeted_by_screen_name) : null;
 		text_html = indices.text_html != -1 ? cursor.getString(indices.text_html) : null;
-		final ImageSpec preview = getPreviewImage(text_html, INLINE_IMAGE_PREVIEW_DISPLAY_OPTION_CODE_LARGE);
+		final ImageSpec preview = getStatusPreviewImage(text_html,
+				indices.text_spans != -1 ? cursor.getString(indices.text_spans) : null);
 		has_media = preview != null;
 		image_preview_url = preview != null ? preview.preview_image_link : null;
 		image_orig_url = preview != null ? preview.orig_link : null;
@@ -331,6 +333,12 @@ public class ParcelableStatus implements Constants, Parcelable, Serializable, Co
 		out.writeInt(is_following ? 1 : 0);
 	}
 
+	private static ImageSpec getStatusPreviewImage(final String text_html, final String text_spans) {
+		final StatusSpanTable table = StatusSpanTable.parse(text_spans);
+		if (table != null) return table.getPreviewImage(INLINE_IMAGE_PREVIEW_DISPLAY_OPTION_CODE_LARGE);
+		return getPreviewImage(text_html, INLINE_IMAGE_PREVIEW_DISPLAY_OPTION_CODE_LARGE);
+	}
+
 	private static long getTime(final Date date) {
 		return date != null ? date.getTime() : 0;
 	}
@@ -24,6 +24,7 @@ import static android.os.Environment.getExternalStorageDirectory;
 import java.io.File;
 import java.io.FileFilter;
 
+import org.mariotaku.twidere.app.TwidereApplication;
 import org.mariotaku.twidere.util.EnvironmentAccessor;
 
 import android.content.Context;
@@ -64,6 +65,8 @@ public class ClearCachePreference extends AsyncTaskPreference {
 				deleteRecursive(file);
 			}
 		}
+		// Reset journal of image cache, since we deleted files behind it.
+		TwidereApplication.getInstance(context).getImageDiscCache().clear();
 	}
 
 	private static void deleteRecursive(final File f) {
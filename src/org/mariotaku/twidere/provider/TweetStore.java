@@ -169,6 +169,13 @@ public final class TweetStore implements Constants {
 
 		public static final Uri CONTENT_URI = Uri.withAppendedPath(Uri.parse(PROTOCOL_CONTENT + AUTHORITY),
 				CONTENT_PATH);
+
+		/**
+		 * Only one copy of a status is cached, regardless of account.
+		 */
+		public static final String[] UNIQUE_INDEX_NAMES = new String[] { "unique_status_id" };
+
+		public static final String[] UNIQUE_INDEX_COLUMNS = new String[] { STATUS_ID };
 	}
 
 	public static interface CachedTrends extends CachedValues {
@@ -251,6 +258,13 @@ public final class TweetStore implements Constants {
 				TYPE_TEXT, TYPE_TEXT, TYPE_TEXT, TYPE_TEXT, TYPE_TEXT, TYPE_TEXT, TYPE_BOOLEAN, TYPE_BOOLEAN, TYPE_BOOLEAN, 
 				TYPE_INT, TYPE_INT, TYPE_INT, TYPE_INT, TYPE_TEXT, TYPE_TEXT, TYPE_TEXT };
 
+		/**
+		 * {@link #USER_ID} is unique so it's already indexed by SQLite.
+		 */
+		public static final String[] INDEX_NAMES = new String[] { "screen_name" };
+
+		public static final String[] INDEX_COLUMNS = new String[] { SCREEN_NAME };
+
 	}
 
 	public static interface CachedValues extends BaseColumns {
@@ -291,6 +305,13 @@ public final class TweetStore implements Constants {
 
 		public static final String DEFAULT_SORT_ORDER = MESSAGE_ID + " DESC";
 
+		/**
+		 * Messages are inserted or replaced by these keys.
+		 */
+		public static final String[] UNIQUE_INDEX_NAMES = new String[] { "unique_account_id_message_id" };
+
+		public static final String[] UNIQUE_INDEX_COLUMNS = new String[] { ACCOUNT_ID + ", " + MESSAGE_ID };
+
 		public static interface Conversation extends DirectMessages {
 
 			public static final String DEFAULT_SORT_ORDER = MESSAGE_TIMESTAMP + " ASC";
@@ -433,6 +454,10 @@ public final class TweetStore implements Constants {
 			public static final Uri CONTENT_URI = Uri.withAppendedPath(Uri.parse(PROTOCOL_CONTENT + AUTHORITY),
 					CONTENT_PATH);
 
+			public static final String[] INDEX_NAMES = new String[] { "sender_id_message_id" };
+
+			public static final String[] INDEX_COLUMNS = new String[] { SENDER_ID + ", " + MESSAGE_ID };
+
 		}
 
 		public static interface Outbox extends DirectMessages {
@@ -442,6 +467,10 @@ public final class TweetStore implements Constants {
 			public static final Uri CONTENT_URI = Uri.withAppendedPath(Uri.parse(PROTOCOL_CONTENT + AUTHORITY),
 					CONTENT_PATH);
 
+			public static final String[] INDEX_NAMES = new String[] { "recipient_id_message_id" };
+
+			public static final String[] INDEX_COLUMNS = new String[] { RECIPIENT_ID + ", " + MESSAGE_ID };
+
 		}
 
 		public static final class QueryBuilder {
@@ -575,6 +604,13 @@ public final class TweetStore implements Constants {
 		 */
 		public static final String TEXT_PLAIN = "text_plain";
 
+		/**
+		 * Rendered text, link entities and preview image link of the status,
+		 * see {@link org.mariotaku.twidere.util.StatusSpanTable}.<br>
+		 * Type: TEXT
+		 */
+		public static final String TEXT_SPANS = "text_spans";
+
 		/**
 		 * User name of the status.<br>
 		 * Type: TEXT
@@ -626,6 +662,13 @@ public final class TweetStore implements Constants {
 		 */
 		public static final String IS_GAP = "is_gap";
 
+		/**
+		 * Set to 1 if the status matches any of filter rules, computed when
+		 * the status is inserted and when filters change.<br>
+		 * Type: INTEGER (boolean)
+		 */
+		public static final String IS_FILTERED = "is_filtered";
+
 		public static final String LOCATION = "location";
 
 		/**
@@ -672,12 +715,26 @@ public final class TweetStore implements Constants {
 				TEXT_HTML, TEXT_PLAIN, NAME, SCREEN_NAME, PROFILE_IMAGE_URL, IN_REPLY_TO_STATUS_ID,
 				IN_REPLY_TO_SCREEN_NAME, SOURCE, LOCATION, RETWEET_COUNT, RETWEET_ID, RETWEETED_BY_ID,
 				RETWEETED_BY_NAME, RETWEETED_BY_SCREEN_NAME, MY_RETWEET_ID, IS_RETWEET, IS_FAVORITE, IS_PROTECTED,
-				IS_VERIFIED, IS_FOLLOWING, IS_GAP, IS_POSSIBLY_SENSITIVE };
+				IS_VERIFIED, IS_FOLLOWING, IS_GAP, IS_POSSIBLY_SENSITIVE, IS_FILTERED, TEXT_SPANS };
 
 		public static final String[] TYPES = new String[] { TYPE_PRIMARY_KEY, TYPE_INT, TYPE_INT, TYPE_INT, TYPE_INT,
 				TYPE_TEXT, TYPE_TEXT, TYPE_TEXT, TYPE_TEXT, TYPE_TEXT, TYPE_INT, TYPE_TEXT, TYPE_TEXT, TYPE_TEXT,
 				TYPE_INT, TYPE_INT, TYPE_INT, TYPE_TEXT, TYPE_TEXT, TYPE_INT, TYPE_BOOLEAN, TYPE_BOOLEAN, TYPE_BOOLEAN,
-				TYPE_BOOLEAN, TYPE_BOOLEAN, TYPE_BOOLEAN, TYPE_BOOLEAN };
+				TYPE_BOOLEAN, TYPE_BOOLEAN, TYPE_BOOLEAN, TYPE_BOOLEAN, TYPE_BOOLEAN, TYPE_TEXT };
+
+		/**
+		 * Index names, will be prefixed with table name when created.
+		 */
+		public static final String[] INDEX_NAMES = new String[] { "account_id_retweet_id" };
+
+		public static final String[] INDEX_COLUMNS = new String[] { ACCOUNT_ID + ", " + RETWEET_ID };
+
+		/**
+		 * Statuses are inserted or replaced by these keys.
+		 */
+		public static final String[] UNIQUE_INDEX_NAMES = new String[] { "unique_account_id_status_id" };
+
+		public static final String[] UNIQUE_INDEX_COLUMNS = new String[] { ACCOUNT_ID + ", " + STATUS_ID };
 
 	}
 
@@ -24,11 +24,9 @@ import static org.mariotaku.twidere.util.Utils.clearAccountColor;
 import static org.mariotaku.twidere.util.Utils.clearAccountName;
 import static org.mariotaku.twidere.util.Utils.getAccountName;
 import static org.mariotaku.twidere.util.Utils.getAccountScreenName;
-import static org.mariotaku.twidere.util.Utils.getAllStatusesCount;
 import static org.mariotaku.twidere.util.Utils.getBiggerTwitterProfileImage;
 import static org.mariotaku.twidere.util.Utils.getTableId;
 import static org.mariotaku.twidere.util.Utils.getTableNameById;
-import static org.mariotaku.twidere.util.Utils.isFiltered;
 import static org.mariotaku.twidere.util.Utils.isNotificationsSilent;
 import static org.mariotaku.twidere.util.Utils.isOnWifi;
 import static org.mariotaku.twidere.util.Utils.notifyForUpdatedUri;
@@ -38,7 +36,10 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import org.mariotaku.twidere.Constants;
 import org.mariotaku.twidere.R;
@@ -55,9 +56,12 @@ import org.mariotaku.twidere.provider.TweetStore.DirectMessages.ConversationsEnt
 import org.mariotaku.twidere.provider.TweetStore.Mentions;
 import org.mariotaku.twidere.provider.TweetStore.Statuses;
 import org.mariotaku.twidere.util.ArrayUtils;
+import org.mariotaku.twidere.util.FilterEngine;
 import org.mariotaku.twidere.util.ImagePreloader;
+import org.mariotaku.twidere.util.ListUtils;
 import org.mariotaku.twidere.util.NoDuplicatesArrayList;
 import org.mariotaku.twidere.util.PermissionsManager;
+import org.mariotaku.twidere.util.TwitterInstanceCache;
 import org.mariotaku.twidere.util.Utils;
 
 import android.app.Notification;
@@ -95,6 +99,8 @@ public final class TwidereDataProvider extends ContentProvider implements Consta
 	private NotificationManager mNotificationManager;
 	private SharedPreferences mPreferences;
 	private ImagePreloader mImagePreloader;
+	private FilterEngine mFilterEngine;
+	private TwitterInstanceCache mTwitterInstanceCache;
 
 	private int mNewStatusesCount;
 	private final List<ParcelableStatus> mNewMentions = new ArrayList<ParcelableStatus>();
@@ -133,36 +139,35 @@ public final class TwidereDataProvider extends ContentProvider implements Consta
 			}
 			int result = 0;
 			if (table != null && values != null) {
-				final int old_count;
-				switch (table_id) {
-					case TABLE_ID_STATUSES: {
-						old_count = getAllStatusesCount(mContext, Statuses.CONTENT_URI);
-						break;
-					}
-					case TABLE_ID_MENTIONS: {
-						old_count = getAllStatusesCount(mContext, Mentions.CONTENT_URI);
-						break;
-					}
-					default:
-						old_count = 0;
-				}
+				int new_items_count = 0;
 				mDatabase.beginTransaction();
-				for (final ContentValues contentValues : values) {
-					mDatabase.insert(table, null, contentValues);
-					result++;
+				try {
+					final Map<Long, Set<Long>> stored_ids = getStoredStatusIds(table_id, table, values);
+					deleteRetweetsOf(table_id, table, values);
+					for (final ContentValues contentValues : values) {
+						if (insertOrReplace(table_id, table, contentValues) < 0) {
+							continue;
+						}
+						result++;
+						if (!isStatusIdIn(stored_ids, contentValues) && isNewItemVisible(contentValues)) {
+							new_items_count++;
+						}
+					}
+					mDatabase.setTransactionSuccessful();
+				} finally {
+					mDatabase.endTransaction();
 				}
-				mDatabase.setTransactionSuccessful();
-				mDatabase.endTransaction();
 				if (!"false".equals(uri.getQueryParameter(QUERY_PARAM_NOTIFY))) {
 					switch (table_id) {
 						case TABLE_ID_STATUSES: {
-							mNewStatusesCount += getAllStatusesCount(mContext, Statuses.CONTENT_URI) - old_count;
+							mNewStatusesCount += new_items_count;
 							break;
 						}
 					}
 				}
 			}
 			if (result > 0) {
+				onFiltersChanged(table_id, Statuses.IS_FILTERED + " IS NOT 1");
 				onDatabaseUpdated(uri);
 			}
 			onNewItemsInserted(uri, values);
@@ -192,6 +197,7 @@ public final class TwidereDataProvider extends ContentProvider implements Consta
 			if (table == null) return 0;
 			final int result = mDatabase.delete(table, selection, selectionArgs);
 			if (result > 0) {
+				onFiltersChanged(table_id, Statuses.IS_FILTERED + " = 1");
 				onDatabaseUpdated(uri);
 			}
 			return result;
@@ -218,11 +224,18 @@ public final class TwidereDataProvider extends ContentProvider implements Consta
 					return null;
 			}
 			if (table == null) return null;
-			final long row_id = mDatabase.insert(table, null, values);
+			final Map<Long, Set<Long>> stored_ids = getStoredStatusIds(table_id, table, values);
+			deleteRetweetsOf(table_id, table, values);
+			final long row_id = insertOrReplace(table_id, table, values);
+			if (row_id >= 0) {
+				onFiltersChanged(table_id, Statuses.IS_FILTERED + " IS NOT 1");
+			}
 			if (!"false".equals(uri.getQueryParameter(QUERY_PARAM_NOTIFY))) {
-				switch (getTableId(uri)) {
+				switch (table_id) {
 					case TABLE_ID_STATUSES: {
-						mNewStatusesCount++;
+						if (row_id >= 0 && !isStatusIdIn(stored_ids, values) && isNewItemVisible(values)) {
+							mNewStatusesCount++;
+						}
 						break;
 					}
 					default:
@@ -245,6 +258,8 @@ public final class TwidereDataProvider extends ContentProvider implements Consta
 		mPreferences = mContext.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
 		mPermissionsManager = new PermissionsManager(mContext);
 		mImagePreloader = new ImagePreloader(mContext);
+		mFilterEngine = app.getFilterEngine();
+		mTwitterInstanceCache = app.getTwitterInstanceCache();
 		final IntentFilter filter = new IntentFilter();
 		filter.addAction(BROADCAST_HOME_ACTIVITY_ONSTART);
 		filter.addAction(BROADCAST_HOME_ACTIVITY_ONSTOP);
@@ -322,6 +337,7 @@ public final class TwidereDataProvider extends ContentProvider implements Consta
 				result = mDatabase.update(table, values, selection, selectionArgs);
 			}
 			if (result > 0) {
+				onFiltersChanged(table_id, null);
 				onDatabaseUpdated(uri);
 			}
 			return result;
@@ -501,7 +517,7 @@ public final class TwidereDataProvider extends ContentProvider implements Consta
 		// Add statuses that not filtered to list for future use.
 		for (final ContentValues value : values) {
 			final ParcelableStatus status = new ParcelableStatus(value);
-			if (!isFiltered(mDatabase, status)) {
+			if (!mFilterEngine.isFiltered(status)) {
 				mNewMentions.add(status);
 				mNewMentionScreenNames.add(status.screen_name);
 				mNewMentionAccounts.add(status.account_id);
@@ -540,8 +556,8 @@ public final class TwidereDataProvider extends ContentProvider implements Consta
 					: status.name);
 		}
 		final String profile_image_url_string = status.profile_image_url;
-		final File profile_image_file = mImagePreloader.getCachedImageFile(DIR_NAME_IMAGE_CACHE,
-				display_hires_profile_image ? getBiggerTwitterProfileImage(profile_image_url_string)
+		final File profile_image_file = mImagePreloader
+				.getCachedImageFile(display_hires_profile_image ? getBiggerTwitterProfileImage(profile_image_url_string)
 						: profile_image_url_string);
 		final int w = res.getDimensionPixelSize(R.dimen.notification_large_icon_width);
 		final int h = res.getDimensionPixelSize(R.dimen.notification_large_icon_height);
@@ -649,8 +665,8 @@ public final class TwidereDataProvider extends ContentProvider implements Consta
 		}
 		final String text_plain = message.text_plain;
 		final String profile_image_url_string = message.sender_profile_image_url;
-		final File profile_image_file = mImagePreloader.getCachedImageFile(DIR_NAME_IMAGE_CACHE,
-				display_hires_profile_image ? getBiggerTwitterProfileImage(profile_image_url_string)
+		final File profile_image_file = mImagePreloader
+				.getCachedImageFile(display_hires_profile_image ? getBiggerTwitterProfileImage(profile_image_url_string)
 						: profile_image_url_string);
 		final int w = res.getDimensionPixelSize(R.dimen.notification_large_icon_width);
 		final int h = res.getDimensionPixelSize(R.dimen.notification_large_icon_height);
@@ -695,8 +711,185 @@ public final class TwidereDataProvider extends ContentProvider implements Consta
 		}
 	}
 
+	/**
+	 * Recomputes {@link Statuses#IS_FILTERED} of stored statuses after a
+	 * filter table changed. Adding filters can only hide statuses currently
+	 * visible, and removing filters can only reveal statuses currently hidden,
+	 * so callers pass a selection to limit the rows need to be checked.
+	 */
+	private void onFiltersChanged(final int table_id, final String selection) {
+		switch (table_id) {
+			case TABLE_ID_FILTERED_USERS:
+			case TABLE_ID_FILTERED_KEYWORDS:
+			case TABLE_ID_FILTERED_SOURCES:
+			case TABLE_ID_FILTERED_LINKS: {
+				break;
+			}
+			default:
+				return;
+		}
+		mFilterEngine.invalidate();
+		updateFilteredFlags(TABLE_STATUSES, selection);
+		updateFilteredFlags(TABLE_MENTIONS, selection);
+	}
+
+	/**
+	 * Removes stored retweets of statuses going to be inserted, with one
+	 * statement per account.
+	 */
+	private void deleteRetweetsOf(final int table_id, final String table, final ContentValues... values) {
+		switch (table_id) {
+			case TABLE_ID_STATUSES:
+			case TABLE_ID_MENTIONS: {
+				break;
+			}
+			default:
+				return;
+		}
+		final Map<Long, List<Long>> ids = groupStatusIdsByAccount(values);
+		for (final Map.Entry<Long, List<Long>> entry : ids.entrySet()) {
+			final String where = Statuses.ACCOUNT_ID + " = " + entry.getKey() + " AND " + Statuses.RETWEET_ID
+					+ " IN (" + ListUtils.toString(entry.getValue(), ',', false) + ")";
+			mDatabase.delete(table, where, null);
+		}
+	}
+
+	/**
+	 * @return IDs of statuses going to be inserted which are stored already,
+	 *         by account, queried with one statement per account.
+	 */
+	private Map<Long, Set<Long>> getStoredStatusIds(final int table_id, final String table,
+			final ContentValues... values) {
+		final Map<Long, Set<Long>> stored_ids = new HashMap<Long, Set<Long>>();
+		if (table_id != TABLE_ID_STATUSES) return stored_ids;
+		final Map<Long, List<Long>> ids = groupStatusIdsByAccount(values);
+		final String[] cols = new String[] { Statuses.STATUS_ID };
+		for (final Map.Entry<Long, List<Long>> entry : ids.entrySet()) {
+			final String where = Statuses.ACCOUNT_ID + " = " + entry.getKey() + " AND " + Statuses.STATUS_ID
+					+ " IN (" + ListUtils.toString(entry.getValue(), ',', false) + ")";
+			final Cursor cur = mDatabase.query(table, cols, where, null, null, null, null);
+			if (cur == null) {
+				continue;
+			}
+			final Set<Long> account_stored_ids = new HashSet<Long>();
+			try {
+				cur.moveToFirst();
+				while (!cur.isAfterLast()) {
+					account_stored_ids.add(cur.getLong(0));
+					cur.moveToNext();
+				}
+			} finally {
+				cur.close();
+			}
+			stored_ids.put(entry.getKey(), account_stored_ids);
+		}
+		return stored_ids;
+	}
+
+	/**
+	 * Inserts values, rows conflicting with unique keys of the table are
+	 * replaced by the same statement, instead of being deleted by callers
+	 * before insertion.
+	 */
+	private long insertOrReplace(final int table_id, final String table, final ContentValues values) {
+		switch (table_id) {
+			case TABLE_ID_STATUSES:
+			case TABLE_ID_MENTIONS: {
+				putFilteredFlag(table_id, values);
+				return mDatabase.replace(table, null, values);
+			}
+			case TABLE_ID_DIRECT_MESSAGES_INBOX:
+			case TABLE_ID_DIRECT_MESSAGES_OUTBOX:
+			case TABLE_ID_CACHED_USERS:
+			case TABLE_ID_CACHED_STATUSES: {
+				return mDatabase.replace(table, null, values);
+			}
+		}
+		return mDatabase.insert(table, null, values);
+	}
+
+	private static Map<Long, List<Long>> groupStatusIdsByAccount(final ContentValues... values) {
+		final Map<Long, List<Long>> ids = new HashMap<Long, List<Long>>();
+		if (values == null) return ids;
+		for (final ContentValues item : values) {
+			if (item == null) {
+				continue;
+			}
+			final Long account_id = item.getAsLong(Statuses.ACCOUNT_ID);
+			final Long status_id = item.getAsLong(Statuses.STATUS_ID);
+			if (account_id == null || status_id == null) {
+				continue;
+			}
+			List<Long> account_ids = ids.get(account_id);
+			if (account_ids == null) {
+				account_ids = new ArrayList<Long>();
+				ids.put(account_id, account_ids);
+			}
+			account_ids.add(status_id);
+		}
+		return ids;
+	}
+
+	private static boolean isStatusIdIn(final Map<Long, Set<Long>> ids, final ContentValues values) {
+		if (values == null) return false;
+		final Long account_id = values.getAsLong(Statuses.ACCOUNT_ID);
+		final Long status_id = values.getAsLong(Statuses.STATUS_ID);
+		if (account_id == null || status_id == null) return false;
+		final Set<Long> account_ids = ids.get(account_id);
+		return account_ids != null && account_ids.contains(status_id);
+	}
+
+	private static boolean isNewItemVisible(final ContentValues values) {
+		final Integer is_filtered = values.getAsInteger(Statuses.IS_FILTERED);
+		final Integer is_gap = values.getAsInteger(Statuses.IS_GAP);
+		return (is_filtered == null || is_filtered != 1) && (is_gap == null || is_gap != 1);
+	}
+
+	private void putFilteredFlag(final int table_id, final ContentValues values) {
+		if (values == null) return;
+		switch (table_id) {
+			case TABLE_ID_STATUSES:
+			case TABLE_ID_MENTIONS: {
+				final boolean filtered = mFilterEngine.isFiltered(values.getAsString(Statuses.TEXT_PLAIN),
+						values.getAsString(Statuses.TEXT_HTML), values.getAsString(Statuses.SCREEN_NAME),
+						values.getAsString(Statuses.SOURCE));
+				values.put(Statuses.IS_FILTERED, filtered ? 1 : 0);
+				break;
+			}
+		}
+	}
+
+	private void updateFilteredFlags(final String table, final String selection) {
+		final String[] cols = new String[] { Statuses._ID, Statuses.TEXT_PLAIN, Statuses.TEXT_HTML,
+				Statuses.SCREEN_NAME, Statuses.SOURCE, Statuses.IS_FILTERED };
+		final Cursor cur = mDatabase.query(table, cols, selection, null, null, null, null);
+		if (cur == null) return;
+		final ContentValues values = new ContentValues();
+		mDatabase.beginTransaction();
+		try {
+			cur.moveToFirst();
+			while (!cur.isAfterLast()) {
+				final boolean filtered = mFilterEngine.isFiltered(cur.getString(1), cur.getString(2),
+						cur.getString(3), cur.getString(4));
+				if (cur.isNull(5) || (cur.getInt(5) == 1) != filtered) {
+					values.put(Statuses.IS_FILTERED, filtered ? 1 : 0);
+					mDatabase.update(table, values, Statuses._ID + " = " + cur.getLong(0), null);
+				}
+				cur.moveToNext();
+			}
+			mDatabase.setTransactionSuccessful();
+		} finally {
+			mDatabase.endTransaction();
+			cur.close();
+		}
+	}
+
 	private void onDatabaseUpdated(final Uri uri) {
 		if (uri == null) return;
+		if (getTableId(uri) == TABLE_ID_ACCOUNTS) {
+			// Always drop cached instances, even if notification is disabled.
+			mTwitterInstanceCache.invalidate();
+		}
 		if ("false".equals(uri.getQueryParameter(QUERY_PARAM_NOTIFY))) return;
 		final Context context = getContext();
 		switch (getTableId(uri)) {
@@ -787,22 +980,22 @@ public final class TwidereDataProvider extends ContentProvider implements Consta
 			if (mPreferences.getBoolean(PREFERENCE_KEY_PRELOAD_PROFILE_IMAGES, false)) {
 				final String profile_image_url = v.getAsString(Statuses.PROFILE_IMAGE_URL);
 				if (profile_image_url != null) {
-					mImagePreloader.preloadImage(DIR_NAME_IMAGE_CACHE, profile_image_url);
+					mImagePreloader.preloadImage(profile_image_url);
 				}
 				final String sender_profile_image_url = v.getAsString(DirectMessages.SENDER_PROFILE_IMAGE_URL);
 				if (sender_profile_image_url != null) {
-					mImagePreloader.preloadImage(DIR_NAME_IMAGE_CACHE, sender_profile_image_url);
+					mImagePreloader.preloadImage(sender_profile_image_url);
 				}
 				final String recipient_profile_image_url = v.getAsString(DirectMessages.RECIPIENT_PROFILE_IMAGE_URL);
 				if (recipient_profile_image_url != null) {
-					mImagePreloader.preloadImage(DIR_NAME_IMAGE_CACHE, recipient_profile_image_url);
+					mImagePreloader.preloadImage(recipient_profile_image_url);
 				}
 			}
 			if (mPreferences.getBoolean(PREFERENCE_KEY_PRELOAD_PREVIEW_IMAGES, false)) {
 				final String text_html = v.getAsString(Statuses.TEXT_HTML);
 				for (final ImageSpec spec : Utils.getImagesInStatus(text_html)) {
 					if (spec.preview_image_link != null) {
-						mImagePreloader.preloadImage(DIR_NAME_IMAGE_CACHE, spec.preview_image_link);
+						mImagePreloader.preloadImage(spec.preview_image_link, ImagePreloader.PRIORITY_LOW);
 					}
 				}
 			}
@@ -24,7 +24,6 @@ import static org.mariotaku.twidere.provider.TweetStore.STATUSES_URIS;
 import static org.mariotaku.twidere.util.Utils.appendQueryParameters;
 import static org.mariotaku.twidere.util.Utils.getAccountScreenName;
 import static org.mariotaku.twidere.util.Utils.getActivatedAccountIds;
-import static org.mariotaku.twidere.util.Utils.getAllStatusesIds;
 import static org.mariotaku.twidere.util.Utils.getImagePathFromUri;
 import static org.mariotaku.twidere.util.Utils.getImageUploadStatus;
 import static org.mariotaku.twidere.util.Utils.getNewestMessageIdsFromDatabase;
@@ -40,6 +39,12 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.mariotaku.twidere.R;
 import org.mariotaku.twidere.app.TwidereApplication;
@@ -77,6 +82,7 @@ import android.media.RingtoneManager;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.NotificationCompat;
+import android.util.Log;
 import android.widget.Toast;
 
 import com.twitter.Extractor;
@@ -94,6 +100,7 @@ public class AsyncTwitterWrapper extends TwitterWrapper {
 	private final NotificationManager mNotificationManager;
 	private final ContentResolver mResolver;
 	private final Resources mResources;
+	private final ExecutorService mNetworkExecutor;
 
 	private final boolean large_profile_image;
 
@@ -109,6 +116,9 @@ public class AsyncTwitterWrapper extends TwitterWrapper {
 		mResolver = context.getContentResolver();
 		mResources = context.getResources();
 		large_profile_image = context.getResources().getBoolean(R.bool.hires_profile_image);
+		final int max_requests = mPreferences.getInt(PREFERENCE_KEY_MAX_CONCURRENT_REQUESTS,
+				PREFERENCE_DEFAULT_MAX_CONCURRENT_REQUESTS);
+		mNetworkExecutor = Executors.newFixedThreadPool(Math.max(1, max_requests));
 	}
 
 	public int addUserListMember(final long account_id, final int list_id, final long user_id, final String screen_name) {
@@ -192,6 +202,45 @@ public class AsyncTwitterWrapper extends TwitterWrapper {
 		return mAsyncTaskManager.add(task, true);
 	}
 
+	/**
+	 * Runs requests of accounts concurrently on network executor, so
+	 * refreshing multiple accounts costs as long as the slowest account.
+	 * Pending requests are cancelled if the task is cancelled.
+	 *
+	 * @return Non-null results, in the same order of requests.
+	 */
+	public <T> List<T> executeAccountRequests(final AsyncTask<?, ?, ?> task, final List<Callable<T>> requests) {
+		final List<Future<T>> futures = new ArrayList<Future<T>>();
+		for (final Callable<T> request : requests) {
+			futures.add(mNetworkExecutor.submit(request));
+		}
+		final List<T> result = new ArrayList<T>();
+		try {
+			for (final Future<T> future : futures) {
+				if (task.isCancelled()) {
+					break;
+				}
+				try {
+					final T item = future.get();
+					if (item != null) {
+						result.add(item);
+					}
+				} catch (final ExecutionException e) {
+					Log.w(LOGTAG, e);
+				} catch (final CancellationException e) {
+					// Ignore.
+				}
+			}
+		} catch (final InterruptedException e) {
+			// Task cancelled.
+		} finally {
+			for (final Future<T> future : futures) {
+				future.cancel(true);
+			}
+		}
+		return result;
+	}
+
 	public int getHomeTimeline(final long[] account_ids, final long[] max_ids, final long[] since_ids) {
 		mAsyncTaskManager.cancel(mGetHomeTimelineTaskId);
 		final GetHomeTimelineTask task = new GetHomeTimelineTask(account_ids, max_ids, since_ids);
@@ -1231,41 +1280,42 @@ public class AsyncTwitterWrapper extends TwitterWrapper {
 		@Override
 		protected List<TwitterListResponse<DirectMessage>> doInBackground(final Void... params) {
 
-			final List<TwitterListResponse<DirectMessage>> result = new ArrayList<TwitterListResponse<DirectMessage>>();
-
-			if (account_ids == null) return result;
+			if (account_ids == null) return new ArrayList<TwitterListResponse<DirectMessage>>();
 
-			int idx = 0;
 			final int load_item_limit = mPreferences.getInt(PREFERENCE_KEY_LOAD_ITEM_LIMIT,
 					PREFERENCE_DEFAULT_LOAD_ITEM_LIMIT);
-			for (final long account_id : account_ids) {
-				final Twitter twitter = getTwitterInstance(mContext, account_id, true);
-				if (twitter != null) {
-					try {
-						final Paging paging = new Paging();
-						paging.setCount(load_item_limit);
-						long max_id = -1, since_id = -1;
-						if (isMaxIdsValid() && max_ids[idx] > 0) {
-							max_id = max_ids[idx];
-							paging.setMaxId(max_id);
-						}
-						if (isSinceIdsValid() && since_ids[idx] > 0) {
-							since_id = since_ids[idx];
-							paging.setSinceId(since_id);
-						}
-						final ResponseList<DirectMessage> statuses = getDirectMessages(twitter, paging);
-
-						if (statuses != null) {
-							result.add(new TwitterListResponse<DirectMessage>(account_id, max_id, since_id,
-									load_item_limit, statuses, null));
+			final List<Callable<TwitterListResponse<DirectMessage>>> requests = new ArrayList<Callable<TwitterListResponse<DirectMessage>>>();
+			final int length = account_ids.length;
+			for (int i = 0; i < length; i++) {
+				final long account_id = account_ids[i];
+				final long max_id = isMaxIdsValid() && max_ids[i] > 0 ? max_ids[i] : -1;
+				final long since_id = isSinceIdsValid() && since_ids[i] > 0 ? since_ids[i] : -1;
+				requests.add(new Callable<TwitterListResponse<DirectMessage>>() {
+
+					@Override
+					public TwitterListResponse<DirectMessage> call() {
+						final Twitter twitter = getTwitterInstance(mContext, account_id, true);
+						if (twitter == null) return null;
+						try {
+							final Paging paging = new Paging();
+							paging.setCount(load_item_limit);
+							if (max_id > 0) {
+								paging.setMaxId(max_id);
+							}
+							if (since_id > 0) {
+								paging.setSinceId(since_id);
+							}
+							final ResponseList<DirectMessage> statuses = getDirectMessages(twitter, paging);
+							if (statuses == null) return null;
+							return new TwitterListResponse<DirectMessage>(account_id, max_id, since_id,
+									load_item_limit, statuses, null);
+						} catch (final TwitterException e) {
+							return new TwitterListResponse<DirectMessage>(account_id, -1, -1, load_item_limit, null, e);
 						}
-					} catch (final TwitterException e) {
-						result.add(new TwitterListResponse<DirectMessage>(account_id, -1, -1, load_item_limit, null, e));
 					}
-				}
-				idx++;
+				});
 			}
-			return result;
+			return executeAccountRequests(this, requests);
 
 		}
 
@@ -1451,40 +1501,41 @@ public class AsyncTwitterWrapper extends TwitterWrapper {
 		@Override
 		protected List<StatusListResponse> doInBackground(final Void... params) {
 
-			final List<StatusListResponse> result = new ArrayList<StatusListResponse>();
+			if (account_ids == null) return new ArrayList<StatusListResponse>();
 
-			if (account_ids == null) return result;
-
-			int idx = 0;
 			final int load_item_limit = mPreferences.getInt(PREFERENCE_KEY_LOAD_ITEM_LIMIT,
 					PREFERENCE_DEFAULT_LOAD_ITEM_LIMIT);
-			for (final long account_id : account_ids) {
-				final Twitter twitter = getTwitter(account_id);
-				if (twitter != null) {
-					try {
-						final Paging paging = new Paging();
-						paging.setCount(load_item_limit);
-						long max_id = -1, since_id = -1;
-						if (isMaxIdsValid() && max_ids[idx] > 0) {
-							max_id = max_ids[idx];
-							paging.setMaxId(max_id);
-						}
-						if (isSinceIdsValid() && since_ids[idx] > 0) {
-							since_id = since_ids[idx];
-							paging.setSinceId(since_id);
-						}
-						final ResponseList<twitter4j.Status> statuses = getStatuses(twitter, paging);
-						if (statuses != null) {
-							result.add(new StatusListResponse(account_id, max_id, since_id, load_item_limit, statuses,
-									null));
+			final List<Callable<StatusListResponse>> requests = new ArrayList<Callable<StatusListResponse>>();
+			final int length = account_ids.length;
+			for (int i = 0; i < length; i++) {
+				final long account_id = account_ids[i];
+				final long max_id = isMaxIdsValid() && max_ids[i] > 0 ? max_ids[i] : -1;
+				final long since_id = isSinceIdsValid() && since_ids[i] > 0 ? since_ids[i] : -1;
+				requests.add(new Callable<StatusListResponse>() {
+
+					@Override
+					public StatusListResponse call() {
+						final Twitter twitter = getTwitter(account_id);
+						if (twitter == null) return null;
+						try {
+							final Paging paging = new Paging();
+							paging.setCount(load_item_limit);
+							if (max_id > 0) {
+								paging.setMaxId(max_id);
+							}
+							if (since_id > 0) {
+								paging.setSinceId(since_id);
+							}
+							final ResponseList<twitter4j.Status> statuses = getStatuses(twitter, paging);
+							if (statuses == null) return null;
+							return new StatusListResponse(account_id, max_id, since_id, load_item_limit, statuses, null);
+						} catch (final TwitterException e) {
+							return new StatusListResponse(account_id, -1, -1, load_item_limit, null, e);
 						}
-					} catch (final TwitterException e) {
-						result.add(new StatusListResponse(account_id, -1, -1, load_item_limit, null, e));
 					}
-				}
-				idx++;
+				});
 			}
-			return result;
+			return executeAccountRequests(this, requests);
 		}
 
 		@Override
@@ -1766,30 +1817,17 @@ public class AsyncTwitterWrapper extends TwitterWrapper {
 				final List<DirectMessage> messages = response.list;
 				if (messages != null) {
 					final List<ContentValues> values_list = new ArrayList<ContentValues>();
-					final List<Long> message_ids = new ArrayList<Long>();
 
 					for (final DirectMessage message : messages) {
 						if (message == null || message.getId() <= 0) {
 							continue;
 						}
-						message_ids.add(message.getId());
 						values_list.add(makeDirectMessageContentValues(message, account_id, isOutgoing(),
 								large_profile_image));
 					}
 
-					// Delete all rows conflicting before new data inserted.
-					{
-						final StringBuilder where = new StringBuilder();
-						where.append(DirectMessages.ACCOUNT_ID + " = " + account_id);
-						where.append(" AND ");
-						where.append(DirectMessages.MESSAGE_ID + " IN ( " + ListUtils.toString(message_ids, ',', true)
-								+ " ) ");
-						final Uri delete_uri = appendQueryParameters(uri, new NameValuePairImpl(QUERY_PARAM_NOTIFY,
-								false));
-						mResolver.delete(delete_uri, where.toString(), null);
-					}
-
-					// Insert previously fetched items.
+					// Insert previously fetched items, rows conflicting will be
+					// replaced.
 					final Uri insert_uri = appendQueryParameters(uri, new NameValuePairImpl(QUERY_PARAM_NOTIFY, false));
 					mResolver.bulkInsert(insert_uri, values_list.toArray(new ContentValues[values_list.size()]));
 
@@ -1961,31 +1999,19 @@ public class AsyncTwitterWrapper extends TwitterWrapper {
 
 				}
 
-				// Delete all rows conflicting before new data inserted.
+				// Rows conflicting with new data will be replaced by provider
+				// while inserting.
 
 				final ArrayList<Long> account_newly_inserted = new ArrayList<Long>();
 				account_newly_inserted.addAll(status_ids);
 				account_newly_inserted.removeAll(ids_in_db);
 				newly_inserted_ids.addAll(account_newly_inserted);
-				final StringBuilder delete_where = new StringBuilder();
-				final String ids_string = ListUtils.toString(status_ids, ',', true);
-				delete_where.append(Statuses.ACCOUNT_ID + " = " + account_id);
-				delete_where.append(" AND ");
-				delete_where.append("(");
-				delete_where.append(Statuses.STATUS_ID + " IN ( " + ids_string + " ) ");
-				delete_where.append(" OR ");
-				delete_where.append(Statuses.RETWEET_ID + " IN ( " + ids_string + " ) ");
-				delete_where.append(")");
-				final Uri delete_uri = appendQueryParameters(uri, new NameValuePairImpl(QUERY_PARAM_NOTIFY, false));
-				final int rows_deleted = mResolver.delete(delete_uri, delete_where.toString(), null);
 				// UCD
 				final String UCD_new_status_ids = ListUtils.toString(account_newly_inserted, ',', true);
 				ProfilingUtil.profile(mContext, account_id, "Download tweets, " + UCD_new_status_ids);
 				all_statuses.addAll(values_list);
 				// Insert previously fetched items.
-				final Uri insert_query = appendQueryParameters(uri, new NameValuePairImpl(QUERY_PARAM_NEW_ITEMS_COUNT,
-						newly_inserted_ids.size() - rows_deleted), new NameValuePairImpl(QUERY_PARAM_NOTIFY, false));
-				mResolver.bulkInsert(insert_query, values_list.toArray(new ContentValues[values_list.size()]));
+				mResolver.bulkInsert(uri, values_list.toArray(new ContentValues[values_list.size()]));
 
 				// Insert a gap.
 				// TODO make sure it will not have bugs.
@@ -2007,7 +2033,6 @@ public class AsyncTwitterWrapper extends TwitterWrapper {
 			}
 			final Bundle bundle = new Bundle();
 			bundle.putBoolean(INTENT_KEY_SUCCEED, succeed);
-			getAllStatusesIds(mContext, uri);
 			if (should_set_min_id && newly_inserted_ids.size() > 0) {
 				bundle.putLong(INTENT_KEY_MIN_ID, Collections.min(newly_inserted_ids));
 			}
@@ -19,48 +19,145 @@
 
 package org.mariotaku.twidere.util;
 
-import java.io.InputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.Paint;
 
+/**
+ * Decodes images no larger than needed. Bounds are read first to pick
+ * sample size, then rotation from EXIF and remaining scaling are applied in
+ * one draw, so a full size copy of the image is never made.
+ * 
+ * @author mariotaku
+ */
 public class BitmapDecodeHelper {
 
-	public static Bitmap decode(final InputStream is, final BitmapFactory.Options opts) {
-		if (is == null) return null;
-		final int orientation = Exif.getOrientation(is);
-		final Bitmap bm = BitmapFactory.decodeStream(is, null, opts);
-		final Matrix m = new Matrix();
-		switch (orientation) {
-			case 270:
-			case 90:
-				m.postRotate(orientation);
-				return Bitmap.createBitmap(bm, 0, 0, bm.getWidth(), bm.getHeight(), m, true);
-			case 180:
-				m.postRotate(orientation);
-				m.postScale(bm.getWidth(), bm.getHeight());
-				return Bitmap.createBitmap(bm, 0, 0, bm.getWidth(), bm.getHeight(), m, true);
+	private static final int TEMP_STORAGE_SIZE = 16 * 1024;
+	private static final int MAX_POOLED_TEMP_STORAGES = 4;
+
+	private static final List<byte[]> sTempStoragePool = new ArrayList<byte[]>();
+
+	/**
+	 * Decodes image to fit in given size, zero or negative means no limit.
+	 */
+	public static Bitmap decode(final FileDescriptor fd, final int max_width, final int max_height) {
+		if (fd == null) return null;
+		final int orientation = getOrientation(fd);
+		final BitmapFactory.Options o = new BitmapFactory.Options();
+		o.inJustDecodeBounds = true;
+		BitmapFactory.decodeFileDescriptor(fd, null, o);
+		final int width = o.outWidth, height = o.outHeight;
+		if (width <= 0 || height <= 0) return null;
+		final BitmapFactory.Options opts = new BitmapFactory.Options();
+		opts.inSampleSize = computeSampleSize(width, height, orientation, max_width, max_height);
+		final byte[] temp_storage = obtainTempStorage();
+		opts.inTempStorage = temp_storage;
+		final Bitmap bitmap;
+		try {
+			bitmap = BitmapFactory.decodeFileDescriptor(fd, null, opts);
+		} finally {
+			releaseTempStorage(temp_storage);
 		}
-		return bm;
+		return transform(bitmap, orientation, max_width, max_height);
 	}
 
-	public static Bitmap decode(final String path, final BitmapFactory.Options opts) {
-		if (path == null || opts == null) return null;
-		final Bitmap bm = BitmapFactory.decodeFile(path, opts);
-		final Matrix m = new Matrix();
-		final int orientation = Exif.getOrientation(path);
-		switch (orientation) {
-			case 270:
-			case 90:
-				m.postRotate(orientation);
-				return Bitmap.createBitmap(bm, 0, 0, bm.getWidth(), bm.getHeight(), m, true);
-			case 180:
-				m.postRotate(orientation);
-				m.postScale(bm.getWidth(), bm.getHeight());
-				return Bitmap.createBitmap(bm, 0, 0, bm.getWidth(), bm.getHeight(), m, true);
+	/**
+	 * Decodes image to fit in given size, zero or negative means no limit.
+	 */
+	public static Bitmap decode(final String path, final int max_width, final int max_height) {
+		if (path == null) return null;
+		FileInputStream is = null;
+		try {
+			is = new FileInputStream(path);
+			return decode(is.getFD(), max_width, max_height);
+		} catch (final IOException e) {
+			return null;
+		} finally {
+			Utils.closeSilently(is);
+		}
+	}
+
+	/**
+	 * Returns largest power of 2 sample size, which keeps decoded image not
+	 * smaller than the size it will be scaled to.
+	 */
+	static int computeSampleSize(final int width, final int height, final int orientation, final int max_width,
+			final int max_height) {
+		final float scale = getScale(width, height, orientation, max_width, max_height);
+		int sample_size = 1;
+		while (sample_size * 2 * scale <= 1) {
+			sample_size *= 2;
+		}
+		return sample_size;
+	}
+
+	private static int getOrientation(final FileDescriptor fd) {
+		// Reading EXIF moves file position, decoders read from it.
+		final FileChannel channel = new FileInputStream(fd).getChannel();
+		try {
+			final long position = channel.position();
+			final int orientation = Exif.getOrientation(fd);
+			channel.position(position);
+			return orientation;
+		} catch (final IOException e) {
+			return 0;
 		}
-		return bm;
+	}
+
+	private static float getScale(final int width, final int height, final int orientation, final int max_width,
+			final int max_height) {
+		final boolean swap = orientation == 90 || orientation == 270;
+		final int rotated_width = swap ? height : width, rotated_height = swap ? width : height;
+		final float scale_x = max_width > 0 ? (float) max_width / rotated_width : 1;
+		final float scale_y = max_height > 0 ? (float) max_height / rotated_height : 1;
+		return Math.min(1, Math.min(scale_x, scale_y));
+	}
+
+	private static byte[] obtainTempStorage() {
+		synchronized (sTempStoragePool) {
+			final int size = sTempStoragePool.size();
+			if (size > 0) return sTempStoragePool.remove(size - 1);
+		}
+		return new byte[TEMP_STORAGE_SIZE];
+	}
+
+	private static void releaseTempStorage(final byte[] temp_storage) {
+		synchronized (sTempStoragePool) {
+			if (sTempStoragePool.size() < MAX_POOLED_TEMP_STORAGES) {
+				sTempStoragePool.add(temp_storage);
+			}
+		}
+	}
+
+	private static Bitmap transform(final Bitmap bitmap, final int orientation, final int max_width,
+			final int max_height) {
+		if (bitmap == null) return null;
+		final int width = bitmap.getWidth(), height = bitmap.getHeight();
+		final float scale = getScale(width, height, orientation, max_width, max_height);
+		if (orientation % 360 == 0 && scale >= 1) return bitmap;
+		final boolean swap = orientation == 90 || orientation == 270;
+		final int target_width = Math.max(1, Math.round((swap ? height : width) * scale));
+		final int target_height = Math.max(1, Math.round((swap ? width : height) * scale));
+		final Bitmap.Config config = bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+		final Bitmap target = Bitmap.createBitmap(target_width, target_height, config);
+		final Matrix m = new Matrix();
+		m.postTranslate(-width / 2f, -height / 2f);
+		m.postRotate(orientation);
+		m.postScale(scale, scale);
+		m.postTranslate(target_width / 2f, target_height / 2f);
+		final Canvas canvas = new Canvas(target);
+		canvas.drawBitmap(bitmap, m, new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG));
+		bitmap.recycle();
+		return target;
 	}
 
 }
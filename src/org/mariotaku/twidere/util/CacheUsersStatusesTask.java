@@ -91,12 +91,9 @@ public class CacheUsersStatusesTask extends AsyncTask<Void, Void, Void> {
 			hashtag_value.put(CachedHashtags.NAME, hashtag);
 			hashtag_values.add(hashtag_value);
 		}
-		resolver.delete(CachedUsers.CONTENT_URI,
-				CachedUsers.USER_ID + " IN (" + ListUtils.toString(user_ids, ',', true) + " )", null);
+		// Provider replaces rows with same user ID or status ID.
 		resolver.bulkInsert(CachedUsers.CONTENT_URI,
 				cached_users_values.toArray(new ContentValues[cached_users_values.size()]));
-		resolver.delete(CachedStatuses.CONTENT_URI,
-				CachedStatuses.STATUS_ID + " IN (" + ListUtils.toString(status_ids, ',', true) + " )", null);
 		resolver.bulkInsert(CachedStatuses.CONTENT_URI,
 				cached_statuses_values.toArray(new ContentValues[cached_statuses_values.size()]));
 		resolver.delete(CachedHashtags.CONTENT_URI,
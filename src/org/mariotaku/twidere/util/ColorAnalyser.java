@@ -20,14 +20,13 @@
 package org.mariotaku.twidere.util;
 
 import static android.graphics.Color.WHITE;
-import static android.graphics.Color.argb;
 import static android.graphics.Color.blue;
-import static android.graphics.Color.colorToHSV;
 import static android.graphics.Color.green;
 import static android.graphics.Color.red;
+import static android.graphics.Color.rgb;
 
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import android.graphics.Bitmap;
 import android.graphics.Color;
@@ -44,6 +43,23 @@ import android.graphics.Color;
  */
 public final class ColorAnalyser {
 
+	private static final int MAX_CACHE_SIZE = 64;
+
+	// Colors are quantized to 4 bits per channel.
+	private static final int QUANTIZE_SHIFT = 4;
+	private static final int CHANNEL_BITS = 8 - QUANTIZE_SHIFT;
+	private static final int HISTOGRAM_SIZE = 1 << CHANNEL_BITS * 3;
+
+	private static final Map<String, Integer> sCache = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = -3547478296316412528L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, Integer> eldest) {
+			return size() > MAX_CACHE_SIZE;
+		}
+	};
+
 	/**
 	 * 
 	 * Get the main color from a {@link Bitmap}.<br>
@@ -83,25 +99,74 @@ public final class ColorAnalyser {
 
 		if (bitmap == null) return def;
 
-		final HashMap<Float, Integer> colors = new HashMap<Float, Integer>();
-
 		final Bitmap resized = Bitmap.createScaledBitmap(bitmap, width, height, false);
 
 		final int resized_height = resized.getHeight(), resized_width = resized.getWidth();
+		final int[] pixels = new int[resized_width * resized_height];
+		resized.getPixels(pixels, 0, resized_width, 0, 0, resized_width, resized_height);
+		// createScaledBitmap() returns the same bitmap if size is unchanged.
+		if (resized != bitmap) {
+			resized.recycle();
+		}
 
-		for (int y = 0; y < resized_height; y++) {
-			for (int x = 0; x < resized_width; x++) {
-				final int temp_color = resized.getPixel(x, y);
-				final int color = argb(0xFF, red(temp_color), green(temp_color), blue(temp_color));
-				final float[] hsv = new float[3];
-				colorToHSV(color, hsv);
-				final float score = (hsv[1] * hsv[1] + 0.001f) * (hsv[2] * hsv[2]);
-				colors.put(score, color);
+		// Vivid and bright colors have higher score, the color with highest
+		// total score wins.
+		final float[] scores = new float[HISTOGRAM_SIZE];
+		final int[] counts = new int[HISTOGRAM_SIZE];
+		final int[] red_sums = new int[HISTOGRAM_SIZE];
+		final int[] green_sums = new int[HISTOGRAM_SIZE];
+		final int[] blue_sums = new int[HISTOGRAM_SIZE];
+		for (final int pixel : pixels) {
+			final int r = red(pixel), g = green(pixel), b = blue(pixel);
+			// Same saturation and value as Color.colorToHSV(), hue isn't used.
+			final int max = Math.max(r, Math.max(g, b)), min = Math.min(r, Math.min(g, b));
+			final float saturation = max == 0 ? 0 : (float) (max - min) / max;
+			final float value = max / 255f;
+			final int index = (r >> QUANTIZE_SHIFT) << CHANNEL_BITS * 2 | (g >> QUANTIZE_SHIFT) << CHANNEL_BITS
+					| b >> QUANTIZE_SHIFT;
+			scores[index] += (saturation * saturation + 0.001f) * (value * value);
+			counts[index]++;
+			red_sums[index] += r;
+			green_sums[index] += g;
+			blue_sums[index] += b;
+		}
+
+		int best = -1;
+		for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+			if (counts[i] == 0) {
+				continue;
+			}
+			if (best < 0 || scores[i] > scores[best] || scores[i] == scores[best] && counts[i] > counts[best]) {
+				best = i;
 			}
 		}
+		if (best < 0) return def;
+		final int count = counts[best];
+		return rgb(red_sums[best] / count, green_sums[best] / count, blue_sums[best] / count);
+	}
+
+	/**
+	 * Same as {@link #analyse(Bitmap)}, result is cached by image URL.
+	 */
+	public static int analyse(final String url, final Bitmap bitmap) {
+		final Integer cached = getCachedColor(url);
+		if (cached != null) return cached;
+		final int color = analyse(bitmap);
+		if (url != null && bitmap != null) {
+			synchronized (sCache) {
+				sCache.put(url, color);
+			}
+		}
+		return color;
+	}
 
-		resized.recycle();
-		if (colors.size() == 0) return def;
-		return colors.get(Collections.max(colors.keySet()));
+	/**
+	 * @return Color analysed from image of this URL before, or null.
+	 */
+	public static Integer getCachedColor(final String url) {
+		if (url == null) return null;
+		synchronized (sCache) {
+			return sCache.get(url);
+		}
 	}
 }
@@ -19,6 +19,7 @@
 
 package org.mariotaku.twidere.util;
 
+import static org.mariotaku.twidere.util.DatabaseUpgradeHelper.createIndices;
 import static org.mariotaku.twidere.util.DatabaseUpgradeHelper.safeUpgrade;
 
 import java.util.HashMap;
@@ -42,6 +43,8 @@ import android.database.sqlite.SQLiteOpenHelper;
 
 public final class DatabaseHelper extends SQLiteOpenHelper implements Constants {
 
+	private static final int VERSION_IS_FILTERED_ADDED = 42;
+
 	public DatabaseHelper(final Context context, final String name, final int version) {
 		super(context, name, null, version);
 	}
@@ -66,6 +69,7 @@ public final class DatabaseHelper extends SQLiteOpenHelper implements Constants
 				DirectMessages.Outbox.TYPES, true));
 		db.execSQL(createTable(TABLE_TRENDS_LOCAL, CachedTrends.Local.COLUMNS, CachedTrends.Local.TYPES, true));
 		db.execSQL(createTable(TABLE_TABS, Tabs.COLUMNS, Tabs.TYPES, true));
+		createAllIndices(db);
 		db.setTransactionSuccessful();
 		db.endTransaction();
 	}
@@ -78,6 +82,29 @@ public final class DatabaseHelper extends SQLiteOpenHelper implements Constants
 	@Override
 	public void onUpgrade(final SQLiteDatabase db, final int oldVersion, final int newVersion) {
 		handleVersionChange(db);
+		if (oldVersion < VERSION_IS_FILTERED_ADDED) {
+			db.execSQL(updateUnknownFilteredFlags(TABLE_STATUSES));
+			db.execSQL(updateUnknownFilteredFlags(TABLE_MENTIONS));
+		}
+	}
+
+	private void createAllIndices(final SQLiteDatabase db) {
+		createIndices(db, TABLE_STATUSES, Statuses.INDEX_NAMES, Statuses.INDEX_COLUMNS);
+		createIndices(db, TABLE_STATUSES, Statuses.UNIQUE_INDEX_NAMES, Statuses.UNIQUE_INDEX_COLUMNS, true);
+		createIndices(db, TABLE_MENTIONS, Mentions.INDEX_NAMES, Mentions.INDEX_COLUMNS);
+		createIndices(db, TABLE_MENTIONS, Mentions.UNIQUE_INDEX_NAMES, Mentions.UNIQUE_INDEX_COLUMNS, true);
+		createIndices(db, TABLE_CACHED_STATUSES, CachedStatuses.INDEX_NAMES, CachedStatuses.INDEX_COLUMNS);
+		createIndices(db, TABLE_CACHED_STATUSES, CachedStatuses.UNIQUE_INDEX_NAMES,
+				CachedStatuses.UNIQUE_INDEX_COLUMNS, true);
+		createIndices(db, TABLE_CACHED_USERS, CachedUsers.INDEX_NAMES, CachedUsers.INDEX_COLUMNS);
+		createIndices(db, TABLE_DIRECT_MESSAGES_INBOX, DirectMessages.Inbox.INDEX_NAMES,
+				DirectMessages.Inbox.INDEX_COLUMNS);
+		createIndices(db, TABLE_DIRECT_MESSAGES_INBOX, DirectMessages.Inbox.UNIQUE_INDEX_NAMES,
+				DirectMessages.Inbox.UNIQUE_INDEX_COLUMNS, true);
+		createIndices(db, TABLE_DIRECT_MESSAGES_OUTBOX, DirectMessages.Outbox.INDEX_NAMES,
+				DirectMessages.Outbox.INDEX_COLUMNS);
+		createIndices(db, TABLE_DIRECT_MESSAGES_OUTBOX, DirectMessages.Outbox.UNIQUE_INDEX_NAMES,
+				DirectMessages.Outbox.UNIQUE_INDEX_COLUMNS, true);
 	}
 
 	private String createTable(final String tableName, final String[] columns, final String[] types,
@@ -100,6 +127,27 @@ public final class DatabaseHelper extends SQLiteOpenHelper implements Constants
 		return stringBuilder.append(");").toString();
 	}
 
+	/**
+	 * Rows stored before {@link Statuses#IS_FILTERED} was added have it NULL,
+	 * so it's computed once here, in SQL with same rules as
+	 * {@link FilterEngine}, which can't be used while database is opening.
+	 */
+	private String updateUnknownFilteredFlags(final String table) {
+		final String text = Filters.TEXT;
+		final StringBuilder builder = new StringBuilder();
+		builder.append("UPDATE " + table + " SET " + Statuses.IS_FILTERED + " = CASE WHEN ");
+		builder.append(Statuses.SCREEN_NAME + " IN (SELECT " + text + " FROM " + TABLE_FILTERED_USERS + ")");
+		builder.append(" OR EXISTS (SELECT 1 FROM " + TABLE_FILTERED_KEYWORDS + " WHERE " + Statuses.TEXT_PLAIN
+				+ " LIKE '%'||" + text + "||'%')");
+		builder.append(" OR EXISTS (SELECT 1 FROM " + TABLE_FILTERED_LINKS + " WHERE " + Statuses.TEXT_HTML
+				+ " LIKE '%<a href=\"%'||" + text + "||'%\">%' OR " + Statuses.TEXT_HTML + " LIKE '%>%'||" + text
+				+ "||'%</a>%')");
+		builder.append(" OR EXISTS (SELECT 1 FROM " + TABLE_FILTERED_SOURCES + " WHERE " + Statuses.SOURCE
+				+ " LIKE '%>'||" + text + "||'</a>%')");
+		builder.append(" THEN 1 ELSE 0 END WHERE " + Statuses.IS_FILTERED + " IS NULL");
+		return builder.toString();
+	}
+
 	private void handleVersionChange(final SQLiteDatabase db) {
 		final HashMap<String, String> account_db_table_alias = new HashMap<String, String>();
 		account_db_table_alias.put(Accounts.SCREEN_NAME, "username");
@@ -123,6 +171,7 @@ public final class DatabaseHelper extends SQLiteOpenHelper implements Constants
 				true, null);
 		safeUpgrade(db, TABLE_TRENDS_LOCAL, CachedTrends.Local.COLUMNS, CachedTrends.Local.TYPES, true, true, null);
 		safeUpgrade(db, TABLE_TABS, Tabs.COLUMNS, Tabs.TYPES, true, false, null);
+		createAllIndices(db);
 	}
 
 }
@@ -19,31 +19,50 @@
 
 package org.mariotaku.twidere.util;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
-import java.util.Set;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.provider.BaseColumns;
 
 public final class DatabaseUpgradeHelper {
 
-	private static final String TYPE_NULL = "NULL";
-	private static final String TYPE_INT = "INTEGER";
-	private static final String TYPE_FLOAT = "FLOAT";
-	private static final String TYPE_TEXT = "TEXT";
-	private static final String TYPE_BLOB = "BLOB";
+	private static final String TEMP_TABLE_SUFFIX = "_temp_upgrade";
 
-	private static final int FIELD_TYPE_NULL = 0;
-	private static final int FIELD_TYPE_INTEGER = 1;
-	private static final int FIELD_TYPE_FLOAT = 2;
-	private static final int FIELD_TYPE_STRING = 3;
-	private static final int FIELD_TYPE_BLOB = 4;
+	public static void createIndices(final SQLiteDatabase db, final String table, final String[] index_names,
+			final String[] index_columns) {
+		createIndices(db, table, index_names, index_columns, false);
+	}
+
+	/**
+	 * Creates indices of table. Before creating unique indices, rows
+	 * conflicting with them are removed, and the newest row is kept.
+	 */
+	public static void createIndices(final SQLiteDatabase db, final String table, final String[] index_names,
+			final String[] index_columns, final boolean unique) {
+		if (index_names == null || index_columns == null || index_names.length != index_columns.length)
+			throw new IllegalArgumentException("Invalid parameters for creating indices of table " + table
+					+ ", length of names and columns not match.");
+		final int length = index_names.length;
+		for (int i = 0; i < length; i++) {
+			if (unique) {
+				db.execSQL("DELETE FROM " + table + " WHERE " + BaseColumns._ID + " NOT IN (SELECT MAX("
+						+ BaseColumns._ID + ") FROM " + table + " GROUP BY " + index_columns[i] + ");");
+			}
+			db.execSQL((unique ? "CREATE UNIQUE INDEX IF NOT EXISTS " : "CREATE INDEX IF NOT EXISTS ") + table + "_"
+					+ index_names[i] + " ON " + table + " (" + index_columns[i] + ");");
+		}
+	}
 
+	/**
+	 * Upgrades table to new columns. Data is copied into a new table with a
+	 * single <code>INSERT INTO ... SELECT</code> statement, so rows never leave
+	 * SQLite, then the new table is renamed to replace the old one. All of
+	 * these are done in one transaction.
+	 */
 	public static void safeUpgrade(final SQLiteDatabase db, final String table, final String[] new_cols,
 			final String[] new_types, final boolean fast_upgrade, final boolean drop_directly,
 			final HashMap<String, String> column_alias) {
@@ -51,87 +70,76 @@ public final class DatabaseUpgradeHelper {
 		if (new_cols == null || new_types == null || new_cols.length != new_types.length)
 			throw new IllegalArgumentException("Invalid parameters for upgrading table " + table + ", length of columns and types not match.");
 
-		final List<ContentValues> values_list = new ArrayList<ContentValues>();
-
-		// First, create the table if not exists.
-		db.execSQL(createTable(table, new_cols, new_types, true));
-
-		// We need to get all data from old table.
-		final Cursor cur = db.query(table, null, null, null, null, null, null);
-		cur.moveToFirst();
-		final String[] old_cols = cur.getColumnNames();
+		db.beginTransaction();
+		try {
+			// First, create the table if not exists.
+			db.execSQL(createTable(table, new_cols, new_types, true));
 
-		if (fast_upgrade) {
-			final String[] old_types = getBatchTypeString(db, table, old_cols);
+			final Map<String, String> old_cols_types = getColumnTypes(db, table);
 
-			if (!shouldUpgrade(old_cols, old_types, new_cols, new_types)) {
-				if (cur != null) {
-					cur.close();
-				}
+			if (fast_upgrade && !shouldUpgrade(old_cols_types, new_cols, new_types)) {
+				db.setTransactionSuccessful();
 				return;
 			}
-		}
 
-		// If drop_directly set to true, we will not backup any data actually.
-		if (!drop_directly) {
-
-			while (!cur.isAfterLast()) {
-				final ContentValues values = new ContentValues();
-				final int length = new_cols.length;
-				for (int i = 0; i < length; i++) {
-					final String new_col = new_cols[i];
-					final String col_alias = column_alias != null && column_alias.containsKey(new_col)
-							&& ArrayUtils.contains(old_cols, column_alias.get(new_col)) ? column_alias.get(new_col)
-							: new_col;
-					final String new_type = new_types[i];
-					if (BaseColumns._ID.equals(new_col)) {
-						continue;
-					}
-
-					final int idx = cur.getColumnIndex(col_alias);
-
-					if (ArrayUtils.contains(old_cols, col_alias)) {
-						final String old_type = getTypeString(db, table, col_alias);
-						final boolean compatible = isTypeCompatible(old_type, new_type, false);
-						if (compatible && idx > -1) {
-							switch (getTypeInt(new_type)) {
-								case FIELD_TYPE_INTEGER:
-									values.put(new_col, cur.getLong(idx));
-									break;
-								case FIELD_TYPE_FLOAT:
-									values.put(new_col, cur.getFloat(idx));
-									break;
-								case FIELD_TYPE_STRING:
-									values.put(new_col, cur.getString(idx));
-									break;
-								case FIELD_TYPE_BLOB:
-									values.put(new_col, cur.getBlob(idx));
-									break;
-								case FIELD_TYPE_NULL:
-								default:
-									break;
-							}
-						}
-					}
+			final String temp_table = table + TEMP_TABLE_SUFFIX;
+			db.execSQL("DROP TABLE IF EXISTS " + temp_table);
+			db.execSQL(createTable(temp_table, new_cols, new_types, false));
+
+			// If drop_directly set to true, we will not backup any data
+			// actually.
+			if (!drop_directly) {
+				final String copy_sql = buildCopySQL(table, temp_table, old_cols_types, new_cols, new_types,
+						column_alias);
+				if (copy_sql != null) {
+					db.execSQL(copy_sql);
 				}
-				values_list.add(values);
-				cur.moveToNext();
 			}
-		}
-		cur.close();
 
-		// OK, now we got all data can be moved from old table, so we will
-		// delete the old table and create a new one.
-		db.execSQL("DROP TABLE IF EXISTS " + table);
-		db.execSQL(createTable(table, new_cols, new_types, false));
+			// OK, now all data can be moved is in the new table, so we will
+			// delete the old table and put the new one in its place.
+			db.execSQL("DROP TABLE " + table);
+			db.execSQL("ALTER TABLE " + temp_table + " RENAME TO " + table);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
 
-		// Now, insert all data backuped into new table.
-		db.beginTransaction();
-		for (final ContentValues values : values_list) {
-			db.insert(table, null, values);
+	/**
+	 * Column mapping and type compatibility are computed once per table here.
+	 * Rows violating constraints of new table are skipped, like what
+	 * {@link SQLiteDatabase#insert} did before.
+	 */
+	private static String buildCopySQL(final String table, final String temp_table,
+			final Map<String, String> old_cols_types, final String[] new_cols, final String[] new_types,
+			final HashMap<String, String> column_alias) {
+		final StringBuilder insert_cols = new StringBuilder();
+		final StringBuilder select_cols = new StringBuilder();
+		final int length = new_cols.length;
+		for (int i = 0; i < length; i++) {
+			final String new_col = new_cols[i];
+			if (BaseColumns._ID.equals(new_col)) {
+				continue;
+			}
+			final String col_alias = column_alias != null && column_alias.containsKey(new_col)
+					&& old_cols_types.containsKey(column_alias.get(new_col)) ? column_alias.get(new_col) : new_col;
+			if (!old_cols_types.containsKey(col_alias)) {
+				continue;
+			}
+			if (!isTypeCompatible(old_cols_types.get(col_alias), new_types[i], false)) {
+				continue;
+			}
+			if (insert_cols.length() > 0) {
+				insert_cols.append(", ");
+				select_cols.append(", ");
+			}
+			insert_cols.append(new_col);
+			select_cols.append(col_alias);
 		}
-		db.setTransactionSuccessful();
-		db.endTransaction();
+		if (insert_cols.length() == 0) return null;
+		return "INSERT OR IGNORE INTO " + temp_table + " (" + insert_cols + ") SELECT " + select_cols + " FROM "
+				+ table;
 	}
 
 	private static String createTable(final String tableName, final String[] columns, final String[] types,
@@ -154,72 +162,53 @@ public final class DatabaseUpgradeHelper {
 		return stringBuilder.append(");").toString();
 	}
 
-	private static String[] getBatchTypeString(final SQLiteDatabase db, final String table, final String[] columns) {
-
-		if (columns == null || columns.length == 0) return new String[0];
-		final String[] types = new String[columns.length];
-		final StringBuilder builder = new StringBuilder();
-		builder.append("SELECT ");
-		final int columns_length = columns.length;
-		for (int i = 0, len = columns_length; i < len; i++) {
-			builder.append("typeof(" + columns[i] + ")");
-			if (i != columns.length - 1) {
-				builder.append(", ");
-			}
-		}
-		builder.append(" FROM " + table);
-		final Cursor cur = db.rawQuery(builder.toString(), null);
-		if (cur == null) return null;
-
-		if (cur.getCount() > 0) {
+	/**
+	 * @return Declared types of all columns, in column order.
+	 */
+	private static Map<String, String> getColumnTypes(final SQLiteDatabase db, final String table) {
+		final Map<String, String> map = new LinkedHashMap<String, String>();
+		final Cursor cur = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+		if (cur == null) return map;
+		try {
+			final int idx_name = cur.getColumnIndex("name"), idx_type = cur.getColumnIndex("type");
+			final int idx_not_null = cur.getColumnIndex("notnull"), idx_pk = cur.getColumnIndex("pk");
 			cur.moveToFirst();
-			final int types_length = types.length;
-			for (int i = 0; i < types_length; i++) {
-				types[i] = cur.getString(i);
+			while (!cur.isAfterLast()) {
+				map.put(cur.getString(idx_name), getDeclaredType(cur.getString(idx_type), cur.getInt(idx_not_null) != 0,
+						cur.getInt(idx_pk) != 0));
+				cur.moveToNext();
 			}
-		} else {
-			Arrays.fill(types, "NULL");
+		} finally {
+			cur.close();
 		}
-		cur.close();
-		return types;
-
+		return map;
 	}
 
-	private static int getTypeInt(final String type) {
-		final int idx = type.contains("(") ? type.indexOf("(") : type.indexOf(" ");
-		final String type_main = idx > -1 ? type.substring(0, idx) : type;
-		if (TYPE_NULL.equalsIgnoreCase(type_main))
-			return FIELD_TYPE_NULL;
-		else if (TYPE_INT.equalsIgnoreCase(type_main))
-			return FIELD_TYPE_INTEGER;
-		else if (TYPE_FLOAT.equalsIgnoreCase(type_main))
-			return FIELD_TYPE_FLOAT;
-		else if (TYPE_TEXT.equalsIgnoreCase(type_main))
-			return FIELD_TYPE_STRING;
-		else if (TYPE_BLOB.equalsIgnoreCase(type_main)) return FIELD_TYPE_BLOB;
-		throw new IllegalStateException("Unknown field type " + type);
+	/**
+	 * PRAGMA table_info returns only type name, so we add constraints back to
+	 * compare with declared types.
+	 */
+	private static String getDeclaredType(final String type, final boolean not_null, final boolean primary_key) {
+		final StringBuilder builder = new StringBuilder(type);
+		if (primary_key) {
+			builder.append(" PRIMARY KEY");
+		}
+		if (not_null) {
+			builder.append(" NOT NULL");
+		}
+		return builder.toString();
 	}
 
-	private static String getTypeString(final SQLiteDatabase db, final String table, final String column) {
-
-		final String sql = "SELECT typeof(" + column + ") FROM " + table;
-		final Cursor cur = db.rawQuery(sql, null);
-		if (cur == null) return null;
-		cur.moveToFirst();
-		try {
-			return cur.getString(0);
-		} finally {
-			cur.close();
-		}
+	private static String getTypeMain(final String type) {
+		final int idx = type.contains("(") ? type.indexOf("(") : type.indexOf(" ");
+		return idx > -1 ? type.substring(0, idx) : type;
 	}
 
 	private static boolean isTypeCompatible(final String old_type, final String new_type,
 			final boolean treat_null_as_compatible) {
 		if (old_type != null && new_type != null) {
-			final int old_idx = old_type.contains("(") ? old_type.indexOf("(") : old_type.indexOf(" ");
-			final int new_idx = new_type.contains("(") ? new_type.indexOf("(") : new_type.indexOf(" ");
-			final String old_type_main = old_idx > -1 ? old_type.substring(0, old_idx) : old_type;
-			final String new_type_main = new_idx > -1 ? new_type.substring(0, new_idx) : new_type;
+			final String old_type_main = getTypeMain(old_type);
+			final String new_type_main = getTypeMain(new_type);
 			if (treat_null_as_compatible)
 				return "NULL".equalsIgnoreCase(old_type_main) || "NULL".equalsIgnoreCase(new_type_main)
 						|| old_type_main.equalsIgnoreCase(new_type_main);
@@ -228,26 +217,29 @@ public final class DatabaseUpgradeHelper {
 		return false;
 	}
 
-	private static boolean shouldUpgrade(final String[] old_cols, final String[] old_types, final String[] new_cols,
+	/**
+	 * Compares type names, primary key and not null constraints of columns.
+	 */
+	private static boolean shouldUpgrade(final Map<String, String> old_cols_types, final String[] new_cols,
 			final String[] new_types) {
-		if (old_cols == null || old_types == null || new_cols == null || new_types == null)
+		if (old_cols_types == null || new_cols == null || new_types == null)
 			throw new IllegalArgumentException("All arguments cannot be null!");
-		if (old_cols.length != old_types.length || new_cols.length != new_types.length)
+		if (new_cols.length != new_types.length)
 			throw new IllegalArgumentException("Length of columns and types not match!");
-		if (old_cols.length != new_cols.length) return true;
-		if (!ArrayUtils.contentMatch(old_cols, new_cols)) return true;
-		final HashMap<String, String> old_map = new HashMap<String, String>(), new_map = new HashMap<String, String>();
-		// I'm sure the length of four arrays are equal.
-		final int length = old_cols.length;
+		if (old_cols_types.size() != new_cols.length) return true;
+		final int length = new_cols.length;
 		for (int i = 0; i < length; i++) {
-			old_map.put(old_cols[i], old_types[i]);
-			new_map.put(new_cols[i], new_types[i]);
-		}
-		final Set<String> old_keyset = old_map.keySet();
-		for (final String col_name : old_keyset) {
-			if (!isTypeCompatible(old_map.get(col_name), new_map.get(col_name), true)) return true;
+			final String old_type = old_cols_types.get(new_cols[i]);
+			if (old_type == null) return true;
+			if (!isTypeCompatible(old_type, new_types[i], false)) return true;
+			if (hasConstraint(new_types[i], "PRIMARY KEY") != hasConstraint(old_type, "PRIMARY KEY")) return true;
+			if (hasConstraint(new_types[i], "NOT NULL") != hasConstraint(old_type, "NOT NULL")) return true;
 		}
 		return false;
 	}
 
+	private static boolean hasConstraint(final String type, final String constraint) {
+		return type.toUpperCase(Locale.US).contains(constraint);
+	}
+
 }
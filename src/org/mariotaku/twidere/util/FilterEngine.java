@@ -0,0 +1,315 @@
+/*
+ *				Twidere - Twitter client for Android
+ *
+ * Copyright (C) 2012 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.mariotaku.twidere.Constants;
+import org.mariotaku.twidere.model.ParcelableStatus;
+import org.mariotaku.twidere.provider.TweetStore.Filters;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * In-memory status filter. Filter tables are loaded once and compiled into
+ * keyword automatons and hash sets, so checking a status needs no database
+ * access. Compiled rules are reloaded lazily after
+ * {@link Constants#BROADCAST_FILTERS_UPDATED}.
+ *
+ * @author mariotaku
+ */
+public final class FilterEngine implements Constants {
+
+	private static final String ANCHOR_HREF_START = "<a href=\"";
+	private static final String ANCHOR_END = "</a>";
+
+	private final SQLiteDatabase mDatabase;
+
+	private volatile Rules mRules;
+	private volatile boolean mRulesChanged = true;
+
+	private final BroadcastReceiver mFiltersChangedReceiver = new BroadcastReceiver() {
+
+		@Override
+		public void onReceive(final Context context, final Intent intent) {
+			if (BROADCAST_FILTERS_UPDATED.equals(intent.getAction())) {
+				mRulesChanged = true;
+			}
+		}
+
+	};
+
+	public FilterEngine(final Context context, final SQLiteDatabase database) {
+		mDatabase = database;
+		context.getApplicationContext().registerReceiver(mFiltersChangedReceiver,
+				new IntentFilter(BROADCAST_FILTERS_UPDATED));
+	}
+
+	/**
+	 * Marks compiled rules as outdated, they will be reloaded on next check.
+	 */
+	public void invalidate() {
+		mRulesChanged = true;
+	}
+
+	public boolean isFiltered(final ParcelableStatus status) {
+		if (status == null) return false;
+		return isFiltered(status.text_plain, status.text_html, status.screen_name, status.source);
+	}
+
+	public boolean isFiltered(final String text_plain, final String text_html, final String screen_name,
+			final String source) {
+		final Rules rules = getRules();
+		if (rules.isEmpty()) return false;
+		if (screen_name != null && rules.users.contains(screen_name)) return true;
+		if (text_plain != null && rules.keywords.matches(text_plain)) return true;
+		if (text_html != null && !rules.links.isEmpty() && isLinkFiltered(rules.links, text_html)) return true;
+		if (source != null && !rules.sources.isEmpty() && isSourceFiltered(rules.sources, source)) return true;
+		return false;
+	}
+
+	private Rules getRules() {
+		if (mRulesChanged || mRules == null) {
+			synchronized (this) {
+				if (mRulesChanged || mRules == null) {
+					// Clear flag before loading, so changes made while loading
+					// will trigger another reload.
+					mRulesChanged = false;
+					mRules = loadRules(mDatabase);
+				}
+			}
+		}
+		return mRules;
+	}
+
+	/**
+	 * Link filters match text inside {@code href} attributes of anchors, same
+	 * as <code>LIKE '%&lt;a href="%link%"&gt;%'</code>, or text between a
+	 * {@code >} and a later {@code </a>}, same as
+	 * <code>LIKE '%&gt;%link%&lt;/a&gt;%'</code>.
+	 */
+	private static boolean isLinkFiltered(final KeywordMatcher links, final String text_html) {
+		int start = text_html.indexOf(ANCHOR_HREF_START);
+		while (start >= 0) {
+			start += ANCHOR_HREF_START.length();
+			final int end = text_html.indexOf('"', start);
+			if (end < 0) break;
+			if (links.matches(text_html, start, end)) return true;
+			start = text_html.indexOf(ANCHOR_HREF_START, end);
+		}
+		final int text_start = text_html.indexOf('>'), text_end = text_html.lastIndexOf(ANCHOR_END);
+		return text_start >= 0 && text_end > text_start && links.matches(text_html, text_start + 1, text_end);
+	}
+
+	/**
+	 * Source filters match the anchor text of source, same as
+	 * <code>LIKE '%&gt;source&lt;/a&gt;%'</code>.
+	 */
+	private static boolean isSourceFiltered(final Set<String> sources, final String source) {
+		int end = source.indexOf(ANCHOR_END);
+		while (end >= 0) {
+			final int start = source.lastIndexOf('>', end - 1);
+			if (start >= 0 && sources.contains(toLowerCaseAscii(source.substring(start + 1, end)))) return true;
+			end = source.indexOf(ANCHOR_END, end + ANCHOR_END.length());
+		}
+		return false;
+	}
+
+	private static Rules loadRules(final SQLiteDatabase database) {
+		final Set<String> users = new HashSet<String>();
+		final Set<String> sources = new HashSet<String>();
+		final KeywordMatcher.Builder keywords = new KeywordMatcher.Builder();
+		final KeywordMatcher.Builder links = new KeywordMatcher.Builder();
+		if (database != null) {
+			for (final String user : queryFilterTexts(database, TABLE_FILTERED_USERS)) {
+				users.add(user);
+			}
+			for (final String src : queryFilterTexts(database, TABLE_FILTERED_SOURCES)) {
+				sources.add(toLowerCaseAscii(src));
+			}
+			for (final String keyword : queryFilterTexts(database, TABLE_FILTERED_KEYWORDS)) {
+				keywords.add(keyword);
+			}
+			for (final String link : queryFilterTexts(database, TABLE_FILTERED_LINKS)) {
+				links.add(link);
+			}
+		}
+		return new Rules(users, sources, keywords.build(), links.build());
+	}
+
+	private static List<String> queryFilterTexts(final SQLiteDatabase database, final String table) {
+		final List<String> texts = new ArrayList<String>();
+		final Cursor cur = database.query(table, new String[] { Filters.TEXT }, null, null, null, null, null);
+		if (cur == null) return texts;
+		try {
+			cur.moveToFirst();
+			while (!cur.isAfterLast()) {
+				final String text = cur.getString(0);
+				if (text != null && text.length() > 0) {
+					texts.add(text);
+				}
+				cur.moveToNext();
+			}
+		} finally {
+			cur.close();
+		}
+		return texts;
+	}
+
+	/**
+	 * SQLite's LIKE operator is only case insensitive for ASCII characters, so
+	 * we do the same here.
+	 */
+	static char toLowerCaseAscii(final char c) {
+		return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+	}
+
+	static String toLowerCaseAscii(final String string) {
+		final int length = string.length();
+		final char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = toLowerCaseAscii(string.charAt(i));
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Aho-Corasick automaton, finds whether any of the keywords appears in
+	 * text in a single pass.
+	 */
+	static final class KeywordMatcher {
+
+		private static final KeywordMatcher EMPTY = new KeywordMatcher(new Node());
+
+		private final Node mRoot;
+
+		private KeywordMatcher(final Node root) {
+			mRoot = root;
+		}
+
+		public boolean isEmpty() {
+			return mRoot.children.isEmpty();
+		}
+
+		public boolean matches(final String text) {
+			return matches(text, 0, text.length());
+		}
+
+		public boolean matches(final String text, final int start, final int end) {
+			if (isEmpty()) return false;
+			Node node = mRoot;
+			for (int i = start; i < end; i++) {
+				final Character c = toLowerCaseAscii(text.charAt(i));
+				Node next = node.children.get(c);
+				while (next == null && node != mRoot) {
+					node = node.fail;
+					next = node.children.get(c);
+				}
+				node = next != null ? next : mRoot;
+				if (node.output) return true;
+			}
+			return false;
+		}
+
+		static final class Builder {
+
+			private final Node mRoot = new Node();
+
+			public Builder add(final String keyword) {
+				if (keyword == null || keyword.length() == 0) return this;
+				Node node = mRoot;
+				final int length = keyword.length();
+				for (int i = 0; i < length; i++) {
+					final Character c = toLowerCaseAscii(keyword.charAt(i));
+					Node next = node.children.get(c);
+					if (next == null) {
+						next = new Node();
+						node.children.put(c, next);
+					}
+					node = next;
+				}
+				node.output = true;
+				return this;
+			}
+
+			public KeywordMatcher build() {
+				if (mRoot.children.isEmpty()) return EMPTY;
+				final LinkedList<Node> queue = new LinkedList<Node>();
+				for (final Node child : mRoot.children.values()) {
+					child.fail = mRoot;
+					queue.add(child);
+				}
+				while (!queue.isEmpty()) {
+					final Node node = queue.removeFirst();
+					for (final Map.Entry<Character, Node> entry : node.children.entrySet()) {
+						final Character c = entry.getKey();
+						final Node child = entry.getValue();
+						Node fail = node.fail;
+						while (fail != mRoot && !fail.children.containsKey(c)) {
+							fail = fail.fail;
+						}
+						final Node fail_target = fail.children.get(c);
+						child.fail = fail_target != null && fail_target != child ? fail_target : mRoot;
+						// A keyword ending in the suffix means this node
+						// matches too.
+						child.output |= child.fail.output;
+						queue.add(child);
+					}
+				}
+				return new KeywordMatcher(mRoot);
+			}
+		}
+
+		private static final class Node {
+			final Map<Character, Node> children = new HashMap<Character, Node>();
+			Node fail;
+			boolean output;
+		}
+	}
+
+	private static final class Rules {
+
+		final Set<String> users, sources;
+		final KeywordMatcher keywords, links;
+
+		Rules(final Set<String> users, final Set<String> sources, final KeywordMatcher keywords,
+				final KeywordMatcher links) {
+			this.users = users;
+			this.sources = sources;
+			this.keywords = keywords;
+			this.links = links;
+		}
+
+		boolean isEmpty() {
+			return users.isEmpty() && sources.isEmpty() && keywords.isEmpty() && links.isEmpty();
+		}
+	}
+}
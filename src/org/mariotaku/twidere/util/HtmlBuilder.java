@@ -20,13 +20,12 @@
 package org.mariotaku.twidere.util;
 
 import static android.text.TextUtils.isEmpty;
+import static org.mariotaku.twidere.util.HtmlEscapeHelper.appendEscaped;
 import static org.mariotaku.twidere.util.HtmlEscapeHelper.escape;
 import static org.mariotaku.twidere.util.HtmlEscapeHelper.toHtml;
 import static org.mariotaku.twidere.util.HtmlEscapeHelper.unescape;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 
 import android.util.Log;
 
@@ -35,20 +34,22 @@ public class HtmlBuilder {
 	private static final String LOGTAG = "HtmlBuilder";
 
 	private final String orig;
-	private final String[] array;
 	private final int string_length;
 	private final boolean throw_exceptions, source_is_escaped, should_re_escape;
 
+	/**
+	 * Sorted by start, links with same start are kept in the order they were
+	 * added.
+	 */
 	private final ArrayList<LinkSpec> links = new ArrayList<LinkSpec>();
 
 	public HtmlBuilder(final String source, final boolean strict, final boolean is_escaped, final boolean re_escape) {
 		if (source == null) throw new NullPointerException();
 		orig = source;
-		array = ArrayUtils.toStringArray(source);
 		throw_exceptions = strict;
 		source_is_escaped = is_escaped;
 		should_re_escape = re_escape;
-		string_length = array.length;
+		string_length = source.length();
 	}
 
 	public boolean addLink(final String link, final String display, final int start, final int end) {
@@ -69,48 +70,48 @@ public class HtmlBuilder {
 			Log.e(LOGTAG, message);
 			return false;
 		}
-		return links.add(new LinkSpec(link, display, start, end, display_is_html));
+		int idx = links.size();
+		while (idx > 0 && links.get(idx - 1).start > start) {
+			idx--;
+		}
+		links.add(idx, new LinkSpec(link, display, start, end, display_is_html));
+		return true;
 	}
 
 	public String build() {
-		if (links.size() == 0) return escapeSource(ArrayUtils.mergeArrayToString(array));
-		Collections.sort(links);
-		final StringBuilder builder = new StringBuilder();
+		final StringBuilder builder = new StringBuilder(string_length + string_length / 2);
 		final int links_size = links.size();
+		if (links_size == 0) {
+			appendSource(builder, 0, string_length);
+			return builder.toString();
+		}
 		for (int i = 0; i < links_size; i++) {
 			final LinkSpec spec = links.get(i);
-			if (spec == null) {
-				continue;
-			}
 			final int start = spec.start, end = spec.end;
 			if (i == 0) {
-				if (start >= 0 && start <= string_length) {
-					builder.append(escapeSource(ArrayUtils.mergeArrayToString(ArrayUtils.subArray(array, 0,
-							start))));
-				}
-			} else if (i > 0) {
+				appendSource(builder, 0, start);
+			} else {
 				final int last_end = links.get(i - 1).end;
-				if (last_end >= 0 && last_end <= start && start <= string_length) {
-					builder.append(escapeSource(ArrayUtils.mergeArrayToString(ArrayUtils.subArray(array,
-							last_end, start))));
+				if (last_end <= start) {
+					appendSource(builder, last_end, start);
 				}
 			}
-			builder.append("<a href=\"" + spec.link + "\">");
-			if (start >= 0 && start <= end && end <= string_length) {
-				builder.append(!isEmpty(spec.display) ? spec.display_is_html ? spec.display : toHtml(spec.display)
-						: spec.link);
-			}
+			builder.append("<a href=\"").append(spec.link).append("\">");
+			builder.append(!isEmpty(spec.display) ? spec.display_is_html ? spec.display : toHtml(spec.display)
+					: spec.link);
 			builder.append("</a>");
-			if (i == links.size() - 1 && end >= 0 && end <= string_length) {
-				builder.append(escapeSource(ArrayUtils.mergeArrayToString(ArrayUtils.subArray(array, end,
-						string_length))));
+			if (i == links_size - 1) {
+				appendSource(builder, end, string_length);
 			}
 		}
 		return builder.toString();
 	}
 
 	public boolean hasLink(final int start, final int end) {
+		final int max = Math.max(start, end);
 		for (final LinkSpec spec : links) {
+			// Links are sorted, none of the rest can cover start or end.
+			if (spec.start > max) return false;
 			if (start >= spec.start && start <= spec.end || end >= spec.start && end <= spec.end) return true;
 		}
 		return false;
@@ -118,13 +119,31 @@ public class HtmlBuilder {
 
 	@Override
 	public String toString() {
-		return "HtmlBuilder{array=" + Arrays.toString(array) + ", string_length=" + string_length + ", strict="
-				+ throw_exceptions + ", source_is_escaped" + source_is_escaped + ", links=" + links + "}";
+		return "HtmlBuilder{orig=" + orig + ", string_length=" + string_length + ", strict=" + throw_exceptions
+				+ ", source_is_escaped" + source_is_escaped + ", links=" + links + "}";
 	}
 
-	private String escapeSource(final String string) {
-		final String escaped = source_is_escaped ? string : escape(string);
-		return should_re_escape ? escape(unescape(escaped)) : escaped;
+	private void appendSource(final StringBuilder builder, final int start, final int end) {
+		if (!should_re_escape) {
+			if (source_is_escaped) {
+				builder.append(orig, start, end);
+			} else {
+				appendEscaped(builder, orig, start, end);
+			}
+			return;
+		}
+		if (source_is_escaped) {
+			// Unescaping text without any entity changes nothing.
+			final int amp_idx = orig.indexOf('&', start);
+			if (amp_idx < 0 || amp_idx >= end) {
+				appendEscaped(builder, orig, start, end);
+			} else {
+				final String unescaped = unescape(orig.substring(start, end));
+				appendEscaped(builder, unescaped, 0, unescaped.length());
+			}
+			return;
+		}
+		builder.append(escape(unescape(escape(orig.substring(start, end)))));
 	}
 
 	static final class LinkSpec implements Comparable<LinkSpec> {
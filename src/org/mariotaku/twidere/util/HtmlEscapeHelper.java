@@ -1,12 +1,43 @@
 package org.mariotaku.twidere.util;
 
 import org.mariotaku.twidere.util.apache.commons.lang3.StringEscapeUtils;
+import org.mariotaku.twidere.util.apache.commons.lang3.text.translate.EntityArrays;
 
 public class HtmlEscapeHelper {
 
+	/**
+	 * Entities of {@link StringEscapeUtils#ESCAPE_HTML4} indexed by the char
+	 * they escape, all of its keys are single chars.
+	 */
+	private static final String[] ESCAPE_TABLE = createEscapeTable(EntityArrays.BASIC_ESCAPE(),
+			EntityArrays.ISO8859_1_ESCAPE(), EntityArrays.HTML40_EXTENDED_ESCAPE());
+
+	/**
+	 * Appends the same as {@link #escape(String)} of given range, without
+	 * creating substrings.
+	 */
+	public static void appendEscaped(final StringBuilder builder, final CharSequence string, final int start,
+			final int end) {
+		final int table_length = ESCAPE_TABLE.length;
+		int last = start;
+		for (int i = start; i < end; i++) {
+			final char c = string.charAt(i);
+			final String entity = c < table_length ? ESCAPE_TABLE[c] : null;
+			if (entity == null) {
+				continue;
+			}
+			builder.append(string, last, i).append(entity);
+			last = i + 1;
+		}
+		builder.append(string, last, end);
+	}
+
 	public static String escape(final String string) {
 		if (string == null) return null;
-		return StringEscapeUtils.escapeHtml4(string);
+		final int length = string.length();
+		final StringBuilder builder = new StringBuilder(length + 16);
+		appendEscaped(builder, string, 0, length);
+		return builder.toString();
 	}
 
 	public static String toHtml(final String string) {
@@ -24,4 +55,24 @@ public class HtmlEscapeHelper {
 		return StringEscapeUtils.unescapeHtml4(string);
 	}
 
+	private static String[] createEscapeTable(final String[][]... lookups) {
+		char max = 0;
+		for (final String[][] lookup : lookups) {
+			for (final String[] entry : lookup) {
+				max = (char) Math.max(max, entry[0].charAt(0));
+			}
+		}
+		final String[] table = new String[max + 1];
+		for (final String[][] lookup : lookups) {
+			for (final String[] entry : lookup) {
+				final char c = entry[0].charAt(0);
+				// Like AggregateTranslator, the first lookup wins.
+				if (table[c] == null) {
+					table[c] = entry[1];
+				}
+			}
+		}
+		return table;
+	}
+
 }
@@ -19,54 +19,193 @@
 
 package org.mariotaku.twidere.util;
 
-import java.util.Vector;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
 
-public class HtmlLinkExtractor {
+/**
+ * Finds links of anchors in HTML in one pass, without regular expressions.
+ * Accepts the same markup as patterns used before:
+ * {@code (?i)<a([^>]+)>(.+?)</a>} for anchors and
+ * {@code \s*(?i)href\s*=\s*("([^"]*")|'[^']*'|([^'">\s]+))} for links in
+ * attributes, quotes are removed from links.
+ * 
+ * @author mariotaku
+ */
+public final class HtmlLinkExtractor {
 
-	private final Pattern patternTag, patternLink;
-	private Matcher matcherTag, matcherLink;
+	private HtmlLinkExtractor() {
+		throw new AssertionError();
+	}
 
-	private static final String HTML_A_TAG_PATTERN = "(?i)<a([^>]+)>(.+?)</a>";
-	private static final String HTML_A_HREF_TAG_PATTERN = "\\s*(?i)href\\s*=\\s*(\"([^\"]*\")|'[^']*'|([^'\">\\s]+))";
+	public static List<HtmlLink> grabLinks(final String html) {
+		final List<HtmlLink> result = new ArrayList<HtmlLink>();
+		grabLinks(html, new OnLinkFoundListener() {
 
-	public HtmlLinkExtractor() {
-		patternTag = Pattern.compile(HTML_A_TAG_PATTERN);
-		patternLink = Pattern.compile(HTML_A_HREF_TAG_PATTERN);
+			@Override
+			public boolean onLinkFound(final String link, final String text, final int start, final int end) {
+				result.add(new HtmlLink(link, text, start, end));
+				return true;
+			}
+		});
+		return result;
 	}
 
 	/**
-	 * Validate html with regular expression
-	 * 
-	 * @param html html content for validation
-	 * @return Vector links and link text
+	 * @return false if stopped by listener.
 	 */
-	public Vector<HtmlLink> grabLinks(final String html) {
-		final Vector<HtmlLink> result = new Vector<HtmlLink>();
-		matcherTag = patternTag.matcher(html);
-		while (matcherTag.find()) {
-			final String href = matcherTag.group(1); // href
-			final String linkText = matcherTag.group(2); // link text
-			matcherLink = patternLink.matcher(href);
-			while (matcherLink.find()) {
-				final String link = matcherLink.group(1); // link
-				final HtmlLink obj = new HtmlLink(link, linkText);
-				result.add(obj);
+	public static boolean grabLinks(final String html, final OnLinkFoundListener listener) {
+		if (html == null || listener == null) return true;
+		final int length = html.length();
+		int idx = html.indexOf('<');
+		while (idx >= 0 && idx + 1 < length) {
+			final char a = html.charAt(idx + 1);
+			if (a != 'a' && a != 'A') {
+				idx = html.indexOf('<', idx + 1);
+				continue;
+			}
+			final int attrs_start = idx + 2, attrs_end = html.indexOf('>', attrs_start);
+			// No anchor can be closed after this.
+			if (attrs_end < 0) return true;
+			final int text_start = attrs_end + 1;
+			final int text_end = attrs_end > attrs_start ? findTextEnd(html, text_start) : -1;
+			if (text_end < 0) {
+				idx = html.indexOf('<', idx + 1);
+				continue;
+			}
+			final int end = text_end + 4;
+			String text = null;
+			int pos = attrs_start;
+			while ((pos = indexOfHref(html, pos, attrs_end)) >= 0) {
+				final int value_start = skipWhitespaces(html, pos + 4, attrs_end);
+				if (value_start >= attrs_end || html.charAt(value_start) != '=') {
+					pos++;
+					continue;
+				}
+				final int quote_start = skipWhitespaces(html, value_start + 1, attrs_end);
+				final int value_end = getValueEnd(html, quote_start, attrs_end);
+				if (value_end < 0) {
+					pos++;
+					continue;
+				}
+				if (text == null) {
+					text = html.substring(text_start, text_end);
+				}
+				if (!listener.onLinkFound(removeQuotes(html, quote_start, value_end), text, idx, end)) return false;
+				pos = value_end;
 			}
+			idx = html.indexOf('<', end);
 		}
-		return result;
+		return true;
 	}
 
-	static class HtmlLink {
+	/**
+	 * @return Start of first {@code </a>} after at least one char, or -1 if
+	 *         there's a line break before it.
+	 */
+	private static int findTextEnd(final String html, final int text_start) {
+		final int length = html.length();
+		for (int i = text_start; i < length; i++) {
+			final char c = html.charAt(i);
+			if (c == '<' && i > text_start && i + 3 < length && html.charAt(i + 1) == '/'
+					&& (html.charAt(i + 2) == 'a' || html.charAt(i + 2) == 'A') && html.charAt(i + 3) == '>')
+				return i;
+			if (isLineTerminator(c)) return -1;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return End of the value, quotes included, or -1 if there's no valid
+	 *         value.
+	 */
+	private static int getValueEnd(final String html, final int start, final int end) {
+		if (start >= end) return -1;
+		final char c = html.charAt(start);
+		if (isQuote(c)) {
+			final int close = html.indexOf(c, start + 1);
+			return close >= 0 && close < end ? close + 1 : -1;
+		}
+		int i = start;
+		while (i < end) {
+			final char v = html.charAt(i);
+			if (isQuote(v) || v == '>' || isWhitespace(v)) {
+				break;
+			}
+			i++;
+		}
+		return i > start ? i : -1;
+	}
+
+	/**
+	 * Case insensitive for ASCII letters only, like the pattern was.
+	 */
+	private static int indexOfHref(final String html, final int start, final int end) {
+		for (int i = start; i + 4 <= end; i++) {
+			if ((html.charAt(i) | 0x20) == 'h' && (html.charAt(i + 1) | 0x20) == 'r'
+					&& (html.charAt(i + 2) | 0x20) == 'e' && (html.charAt(i + 3) | 0x20) == 'f') return i;
+		}
+		return -1;
+	}
+
+	private static boolean isLineTerminator(final char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	private static boolean isQuote(final char c) {
+		return c == '"' || c == '\'';
+	}
+
+	/**
+	 * Same as {@code \s} in patterns.
+	 */
+	private static boolean isWhitespace(final char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	private static String removeQuotes(final String html, final int start, final int end) {
+		StringBuilder builder = null;
+		int last = start;
+		for (int i = start; i < end; i++) {
+			if (!isQuote(html.charAt(i))) {
+				continue;
+			}
+			if (builder == null) {
+				builder = new StringBuilder(end - start);
+			}
+			builder.append(html, last, i);
+			last = i + 1;
+		}
+		if (builder == null) return html.substring(start, end);
+		return builder.append(html, last, end).toString();
+	}
+
+	private static int skipWhitespaces(final String html, final int start, final int end) {
+		int i = start;
+		while (i < end && isWhitespace(html.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	public static final class HtmlLink {
 
 		private final String link;
 		private final String text;
+		private final int start, end;
 
-		private HtmlLink(final String link, final String text) {
-			this.link = replaceInvalidChar(link);
+		HtmlLink(final String link, final String text, final int start, final int end) {
+			this.link = link;
 			this.text = text;
-		};
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * @return End of the anchor in HTML, exclusive.
+		 */
+		public int getEnd() {
+			return end;
+		}
 
 		public String getLink() {
 			return link;
@@ -76,11 +215,26 @@ public class HtmlLinkExtractor {
 			return text;
 		}
 
-		private static String replaceInvalidChar(String link) {
-			link = link.replaceAll("'", "");
-			link = link.replaceAll("\"", "");
-			return link;
+		/**
+		 * @return Start of the anchor in HTML.
+		 */
+		public int getStart() {
+			return start;
+		}
+
+		@Override
+		public String toString() {
+			return "HtmlLink{link=" + link + ", text=" + text + ", start=" + start + ", end=" + end + "}";
 		}
+	}
+
+	public interface OnLinkFoundListener {
 
+		/**
+		 * @param start Start of the anchor in HTML.
+		 * @param end End of the anchor in HTML, exclusive.
+		 * @return true to continue, false to stop.
+		 */
+		boolean onLinkFound(String link, String text, int start, int end);
 	}
 }
@@ -0,0 +1,628 @@
+/*
+ *				Twidere - Twitter client for Android
+ *
+ * Copyright (C) 2012 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util;
+
+import static org.mariotaku.gallery3d.util.GalleryUtils.closeSilently;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import com.nostra13.universalimageloader.cache.disc.DiscCacheAware;
+import com.nostra13.universalimageloader.cache.disc.naming.FileNameGenerator;
+
+/**
+ * Image disc cache limited by total size. Cached files are named by
+ * {@link FileNameGenerator}, and a journal records when files are written,
+ * read and removed, so least recently used files can be evicted without
+ * listing the cache directory.
+ * <p>
+ * A file handed out by {@link #get(String)} is recorded as dirty by
+ * {@link #markDirty(String)} before it's written, until
+ * {@link #put(String, File)} is called. Dirty files left by a crash are
+ * deleted when the journal is replayed. Journal also keeps size of images
+ * already validated, see {@link #getValidImage(String)}.
+ *
+ * @author mariotaku
+ */
+public class ImageDiscCache implements DiscCacheAware {
+
+	private static final String LOGTAG = "ImageDiscCache";
+
+	public static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+
+	private static final String JOURNAL_FILE = "journal";
+	private static final String JOURNAL_FILE_TEMP = "journal.tmp";
+	private static final String JOURNAL_MAGIC = "twidere.image_disc_cache";
+	private static final String JOURNAL_VERSION = "1";
+	private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+	private static final String CLEAN = "CLEAN";
+	private static final String DIRTY = "DIRTY";
+	private static final String READ = "READ";
+	private static final String REMOVE = "REMOVE";
+
+	private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+	private static final long STALE_TEMP_FILE_AGE = 24 * 60 * 60 * 1000;
+	private static final long STALE_DIRTY_ENTRY_AGE = 10 * 60 * 1000;
+	private static final int DIRTY_ENTRIES_PRUNE_THRESHOLD = 64;
+
+	private final File mCacheDir;
+	private final FileNameGenerator mGenerator;
+	private final long mMaxSize;
+
+	private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(0, 0.75f, true);
+	// Names being written, with the time they were marked.
+	private final Map<String, Long> mDirtyEntries = new HashMap<String, Long>();
+	private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+	private Writer mJournalWriter;
+	// Journal lines written while journal is being rebuilt, not null only
+	// during rebuilding.
+	private List<String> mJournalBacklog;
+	private long mSize;
+	private int mRedundantOpCount;
+	private boolean mInitialized;
+
+	private final Runnable mCleanupRunnable = new Runnable() {
+
+		@Override
+		public void run() {
+			final List<String> evicted;
+			final boolean compaction_required;
+			synchronized (ImageDiscCache.this) {
+				ensureInitialized();
+				pruneDirtyEntries();
+				evicted = evictToSize();
+				compaction_required = isJournalCompactionRequired();
+			}
+			// Files are deleted without holding the lock, so loading images
+			// is not blocked meanwhile.
+			for (final String name : evicted) {
+				new File(mCacheDir, name).delete();
+			}
+			if (compaction_required) {
+				rebuildJournal(true);
+			}
+		}
+	};
+
+	public ImageDiscCache(final File cache_dir, final FileNameGenerator generator) {
+		this(cache_dir, generator, DEFAULT_MAX_SIZE);
+	}
+
+	public ImageDiscCache(final File cache_dir, final FileNameGenerator generator, final long max_size) {
+		mCacheDir = cache_dir;
+		mGenerator = generator;
+		mMaxSize = max_size;
+		// Replay journal off the UI thread.
+		mExecutor.submit(mCleanupRunnable);
+	}
+
+	@Override
+	public synchronized void clear() {
+		ensureInitialized();
+		for (final String name : mEntries.keySet()) {
+			new File(mCacheDir, name).delete();
+			// In case journal is being rebuilt by cleanup.
+			appendJournal(REMOVE, name, false);
+		}
+		mEntries.clear();
+		mDirtyEntries.clear();
+		mSize = 0;
+		rebuildJournal(false);
+	}
+
+	@Override
+	public File get(final String uri) {
+		final String name = mGenerator.generate(uri);
+		final File file = new File(mCacheDir, name);
+		synchronized (this) {
+			ensureInitialized();
+			final File source = getThumbnailSource(uri);
+			if (source != null) {
+				// Drop copy of the original stored before its size was known.
+				final Entry entry = mEntries.remove(name);
+				if (entry != null) {
+					mSize -= entry.length;
+					appendJournal(REMOVE, name, false);
+					deleteLater(file);
+				}
+				return source;
+			}
+			final boolean exists = file.exists();
+			if (mEntries.containsKey(name)) {
+				if (exists) {
+					appendJournal(READ, name, false);
+					return file;
+				}
+				// Deleted by someone else.
+				mSize -= mEntries.remove(name).length;
+				appendJournal(REMOVE, name, false);
+			} else if (exists && !mDirtyEntries.containsKey(name)) {
+				// Written directly into cache directory, start tracking it.
+				addEntry(name, new Entry(file.length(), 0, 0));
+			}
+		}
+		return file;
+	}
+
+	public File getCacheDir() {
+		return mCacheDir;
+	}
+
+	public synchronized long getSize() {
+		ensureInitialized();
+		return mSize;
+	}
+
+	/**
+	 * Creates a temporary file in cache directory, write image to it and call
+	 * {@link #put(String, File)} to move it into cache atomically.
+	 */
+	public File getTempFile(final String uri) throws IOException {
+		if (!mCacheDir.isDirectory()) {
+			mCacheDir.mkdirs();
+		}
+		return File.createTempFile(mGenerator.generate(uri), TEMP_FILE_SUFFIX, mCacheDir);
+	}
+
+	/**
+	 * Returns cached image if it's a valid image. Image is only checked by
+	 * {@link ImageValidator} the first time, result is kept in journal and
+	 * later calls only compare file length.
+	 *
+	 * @return Cached image with its size, or null if not cached or invalid.
+	 */
+	public ImageInfo getValidImage(final String uri) {
+		final String name = mGenerator.generate(uri);
+		final File file = new File(mCacheDir, name);
+		// File.length() returns 0 if file doesn't exist.
+		final long length = file.length();
+		synchronized (this) {
+			ensureInitialized();
+			// Still being written.
+			if (mDirtyEntries.containsKey(name)) return null;
+			final Entry entry = mEntries.get(name);
+			if (entry != null && entry.length == length && entry.isValidated()) {
+				appendJournal(READ, name, false);
+				return new ImageInfo(file, entry.width, entry.height);
+			}
+		}
+		if (length <= 0) return null;
+		final BitmapFactory.Options opts = new BitmapFactory.Options();
+		if (!ImageValidator.checkImageValidity(file.getPath(), opts)) return null;
+		synchronized (this) {
+			if (mDirtyEntries.containsKey(name)) return null;
+			addEntry(name, new Entry(length, opts.outWidth, opts.outHeight));
+		}
+		return new ImageInfo(file, opts.outWidth, opts.outHeight);
+	}
+
+	/**
+	 * Records that file of given URI returned by {@link #get(String)} is
+	 * going to be written, call right before writing it. Until
+	 * {@link #put(String, File)} is called the file is not used, and it's
+	 * deleted if the app crashes meanwhile.
+	 */
+	public synchronized void markDirty(final String uri) {
+		ensureInitialized();
+		final String name = mGenerator.generate(uri);
+		if (mDirtyEntries.size() >= DIRTY_ENTRIES_PRUNE_THRESHOLD) {
+			pruneDirtyEntries();
+		}
+		if (mDirtyEntries.put(name, System.currentTimeMillis()) != null) return;
+		appendJournal(DIRTY, name, true);
+	}
+
+	@Override
+	public void put(final String uri, final File file) {
+		put(uri, file, 0, 0);
+	}
+
+	/**
+	 * Moves file into cache, with image size already known by validating it.
+	 */
+	public void put(final String uri, final File file, final int width, final int height) {
+		final String name = mGenerator.generate(uri);
+		final File target = new File(mCacheDir, name);
+		if (!target.equals(file) && !file.renameTo(target)) {
+			file.delete();
+			return;
+		}
+		final long length = target.length();
+		synchronized (this) {
+			ensureInitialized();
+			mDirtyEntries.remove(name);
+			if (length <= 0) {
+				target.delete();
+				final Entry old_entry = mEntries.remove(name);
+				if (old_entry != null) {
+					mSize -= old_entry.length;
+				}
+				appendJournal(REMOVE, name, true);
+				return;
+			}
+			addEntry(name, new Entry(length, width, height));
+			if (mSize > mMaxSize || isJournalCompactionRequired()) {
+				mExecutor.submit(mCleanupRunnable);
+			}
+		}
+	}
+
+	public synchronized void remove(final String uri) {
+		ensureInitialized();
+		final String name = mGenerator.generate(uri);
+		final Entry entry = mEntries.remove(name);
+		if (entry != null) {
+			mSize -= entry.length;
+		}
+		new File(mCacheDir, name).delete();
+		appendJournal(REMOVE, name, true);
+	}
+
+	private void addEntry(final String name, final Entry entry) {
+		final Entry old_entry = mEntries.put(name, entry);
+		if (old_entry != null) {
+			mSize -= old_entry.length;
+		}
+		mSize += entry.length;
+		appendJournal(CLEAN, entry.toJournalValue(name), true);
+	}
+
+	private void appendJournal(final String op, final String value, final boolean flush) {
+		final String line = op + " " + value + "\n";
+		if (mJournalBacklog != null) {
+			mJournalBacklog.add(line);
+		}
+		if (mJournalWriter == null) return;
+		try {
+			mJournalWriter.write(line);
+			if (flush) {
+				mJournalWriter.flush();
+			}
+			if (!CLEAN.equals(op)) {
+				mRedundantOpCount++;
+			}
+		} catch (final IOException e) {
+			Log.w(LOGTAG, e);
+		}
+	}
+
+	private void ensureInitialized() {
+		if (mInitialized) return;
+		mInitialized = true;
+		if (!mCacheDir.isDirectory()) {
+			mCacheDir.mkdirs();
+		}
+		final File journal = new File(mCacheDir, JOURNAL_FILE);
+		if (journal.isFile() && readJournal(journal)) {
+			try {
+				mJournalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journal, true),
+						"US-ASCII"));
+			} catch (final IOException e) {
+				Log.w(LOGTAG, e);
+			}
+		} else {
+			// No journal yet, cache directory was managed by an unlimited cache.
+			rebuildJournal(true);
+		}
+	}
+
+	// Deletes the file in cleanup thread, after image loader finished reading
+	// it.
+	private void deleteLater(final File file) {
+		mExecutor.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				file.delete();
+			}
+		});
+	}
+
+	/**
+	 * A thumbnail of an image not larger than thumbnail size is the same as
+	 * the original, so cached original is used instead of storing a copy.
+	 *
+	 * @return Cached original image, or null if the URI is not a thumbnail
+	 *         URI, or a thumbnail is needed.
+	 */
+	private File getThumbnailSource(final String uri) {
+		final String source_url = ImageThumbnailUtils.getSourceUrl(uri);
+		final int[] size = ImageThumbnailUtils.getThumbnailSize(uri);
+		if (source_url == null || size == null) return null;
+		final String name = mGenerator.generate(source_url);
+		final Entry entry = mEntries.get(name);
+		if (entry == null || !entry.isValidated()) return null;
+		if (ImageThumbnailUtils.isThumbnailRequired(entry.width, entry.height, size[0], size[1])) return null;
+		final File file = new File(mCacheDir, name);
+		if (!file.exists()) return null;
+		appendJournal(READ, name, false);
+		return file;
+	}
+
+	private boolean isJournalCompactionRequired() {
+		return mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && mRedundantOpCount >= mEntries.size();
+	}
+
+	private boolean readJournal(final File journal) {
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), "US-ASCII"));
+			if (!JOURNAL_MAGIC.equals(reader.readLine()) || !JOURNAL_VERSION.equals(reader.readLine())) return false;
+			int line_count = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line_count++;
+				final String[] segs = line.split(" ");
+				// Last line may be incomplete if we crashed while writing it.
+				if (segs.length < 2) {
+					continue;
+				}
+				final String op = segs[0], name = segs[1];
+				if (CLEAN.equals(op) && (segs.length == 3 || segs.length == 5)) {
+					try {
+						final long length = Long.parseLong(segs[2]);
+						final boolean validated = segs.length == 5;
+						final int width = validated ? Integer.parseInt(segs[3]) : 0;
+						final int height = validated ? Integer.parseInt(segs[4]) : 0;
+						mEntries.put(name, new Entry(length, width, height));
+						mDirtyEntries.remove(name);
+					} catch (final NumberFormatException e) {
+						// Ignore.
+					}
+				} else if (DIRTY.equals(op)) {
+					mDirtyEntries.put(name, 0L);
+				} else if (READ.equals(op)) {
+					mEntries.get(name);
+				} else if (REMOVE.equals(op)) {
+					mEntries.remove(name);
+					mDirtyEntries.remove(name);
+				}
+			}
+			// Files never completed are deleted.
+			for (final String name : mDirtyEntries.keySet()) {
+				mEntries.remove(name);
+				new File(mCacheDir, name).delete();
+			}
+			mDirtyEntries.clear();
+			mSize = 0;
+			for (final Entry entry : mEntries.values()) {
+				mSize += entry.length;
+			}
+			mRedundantOpCount = line_count - mEntries.size();
+			return true;
+		} catch (final IOException e) {
+			Log.w(LOGTAG, e);
+			mEntries.clear();
+			mDirtyEntries.clear();
+			return false;
+		} finally {
+			closeSilently(reader);
+		}
+	}
+
+	/**
+	 * Writes a journal contains only current entries, and replaces old one.
+	 * Lock is only held while taking a snapshot of entries and replacing the
+	 * journal, lines written meanwhile are appended to the new journal.
+	 *
+	 * @param scan_dir Also add files not tracked by journal, and delete stale
+	 *            temporary files.
+	 */
+	private void rebuildJournal(final boolean scan_dir) {
+		synchronized (this) {
+			if (mJournalBacklog != null) return;
+			mJournalBacklog = new ArrayList<String>();
+		}
+		final File journal = new File(mCacheDir, JOURNAL_FILE);
+		final File journal_temp = new File(mCacheDir, JOURNAL_FILE_TEMP);
+		Writer writer = null;
+		try {
+			if (!mCacheDir.isDirectory()) {
+				mCacheDir.mkdirs();
+			}
+			if (scan_dir) {
+				scanCacheDir();
+			}
+			final List<String> lines = new ArrayList<String>();
+			synchronized (this) {
+				for (final Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+					lines.add(CLEAN + " " + entry.getValue().toJournalValue(entry.getKey()) + "\n");
+				}
+				for (final String name : mDirtyEntries.keySet()) {
+					lines.add(DIRTY + " " + name + "\n");
+				}
+				mJournalBacklog.clear();
+			}
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journal_temp), "US-ASCII"));
+			writer.write(JOURNAL_MAGIC + "\n" + JOURNAL_VERSION + "\n");
+			for (final String line : lines) {
+				writer.write(line);
+			}
+			synchronized (this) {
+				for (final String line : mJournalBacklog) {
+					writer.write(line);
+				}
+				writer.close();
+				writer = null;
+				if (!journal_temp.renameTo(journal)) throw new IOException("Unable to rename journal");
+				closeSilently(mJournalWriter);
+				mJournalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journal, true),
+						"US-ASCII"));
+				mRedundantOpCount = mJournalBacklog.size();
+			}
+		} catch (final IOException e) {
+			Log.w(LOGTAG, e);
+		} finally {
+			closeSilently(writer);
+			synchronized (this) {
+				mJournalBacklog = null;
+			}
+		}
+	}
+
+	/**
+	 * Forgets dirty entries never written, e.g. download failed and image
+	 * loader deleted the file.
+	 */
+	private void pruneDirtyEntries() {
+		final long now = System.currentTimeMillis();
+		final Iterator<Map.Entry<String, Long>> it = mDirtyEntries.entrySet().iterator();
+		while (it.hasNext()) {
+			final Map.Entry<String, Long> entry = it.next();
+			if (now - entry.getValue() > STALE_DIRTY_ENTRY_AGE && !new File(mCacheDir, entry.getKey()).exists()) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Adds files not tracked by journal as least recently used ones. Files are
+	 * listed without holding the lock.
+	 */
+	private void scanCacheDir() {
+		final File[] files = mCacheDir.listFiles();
+		if (files == null) return;
+		final long now = System.currentTimeMillis();
+		final List<File> candidates = new ArrayList<File>();
+		for (final File file : files) {
+			final String name = file.getName();
+			if (!file.isFile() || JOURNAL_FILE.equals(name) || JOURNAL_FILE_TEMP.equals(name)) {
+				continue;
+			}
+			if (name.endsWith(TEMP_FILE_SUFFIX)) {
+				if (now - file.lastModified() > STALE_TEMP_FILE_AGE) {
+					file.delete();
+				}
+			} else {
+				candidates.add(file);
+			}
+		}
+		if (candidates.isEmpty()) return;
+		final File[] sorted = candidates.toArray(new File[candidates.size()]);
+		Arrays.sort(sorted, new Comparator<File>() {
+
+			@Override
+			public int compare(final File lhs, final File rhs) {
+				final long diff = lhs.lastModified() - rhs.lastModified();
+				return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+			}
+		});
+		final long[] lengths = new long[sorted.length];
+		for (int i = 0, j = sorted.length; i < j; i++) {
+			lengths[i] = sorted[i].length();
+		}
+		synchronized (this) {
+			final LinkedHashMap<String, Entry> tracked = new LinkedHashMap<String, Entry>(mEntries);
+			mEntries.clear();
+			for (int i = 0, j = sorted.length; i < j; i++) {
+				final String name = sorted[i].getName();
+				if (tracked.containsKey(name) || mDirtyEntries.containsKey(name)) {
+					continue;
+				}
+				mEntries.put(name, new Entry(lengths[i], 0, 0));
+				mSize += lengths[i];
+			}
+			mEntries.putAll(tracked);
+		}
+	}
+
+	/**
+	 * Removes least recently used entries until size fits, files of them
+	 * should be deleted by caller.
+	 *
+	 * @return Names of removed entries.
+	 */
+	private List<String> evictToSize() {
+		final List<String> evicted = new ArrayList<String>();
+		final Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+		while (mSize > mMaxSize && it.hasNext()) {
+			final Map.Entry<String, Entry> eldest = it.next();
+			final String name = eldest.getKey();
+			mSize -= eldest.getValue().length;
+			it.remove();
+			appendJournal(REMOVE, name, false);
+			evicted.add(name);
+		}
+		if (mJournalWriter != null && !evicted.isEmpty()) {
+			try {
+				mJournalWriter.flush();
+			} catch (final IOException e) {
+				Log.w(LOGTAG, e);
+			}
+		}
+		return evicted;
+	}
+
+	public static final class ImageInfo {
+
+		public final File file;
+		public final int width, height;
+
+		ImageInfo(final File file, final int width, final int height) {
+			this.file = file;
+			this.width = width;
+			this.height = height;
+		}
+	}
+
+	private static final class Entry {
+
+		final long length;
+		// Size of image, 0 if not validated yet.
+		final int width, height;
+
+		Entry(final long length, final int width, final int height) {
+			this.length = length;
+			this.width = width;
+			this.height = height;
+		}
+
+		boolean isValidated() {
+			return width > 0 && height > 0;
+		}
+
+		String toJournalValue(final String name) {
+			if (isValidated()) return name + " " + length + " " + width + " " + height;
+			return name + " " + length;
+		}
+	}
+}
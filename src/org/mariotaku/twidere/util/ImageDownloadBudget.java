@@ -0,0 +1,89 @@
+/*
+ *				Twidere - Twitter client for Android
+ *
+ * Copyright (C) 2012 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Limits concurrent image downloads shared by on-screen image loading and
+ * {@link ImagePreloader}. Foreground downloads never wait, background
+ * downloads only use slots not used by foreground ones.
+ *
+ * @author mariotaku
+ */
+public class ImageDownloadBudget {
+
+	private final int mMaxDownloads, mMaxBackgroundDownloads;
+
+	private int mForegroundCount, mBackgroundCount;
+
+	public ImageDownloadBudget(final int max_downloads, final int max_background_downloads) {
+		mMaxDownloads = max_downloads;
+		mMaxBackgroundDownloads = max_background_downloads;
+	}
+
+	public synchronized void acquireBackground() throws InterruptedException {
+		while (mForegroundCount + mBackgroundCount >= mMaxDownloads || mBackgroundCount >= mMaxBackgroundDownloads) {
+			wait();
+		}
+		mBackgroundCount++;
+	}
+
+	public synchronized void acquireForeground() {
+		mForegroundCount++;
+	}
+
+	public synchronized void releaseBackground() {
+		mBackgroundCount--;
+		notifyAll();
+	}
+
+	public synchronized void releaseForeground() {
+		mForegroundCount--;
+		notifyAll();
+	}
+
+	/**
+	 * Wraps stream of a foreground download, slot will be released when the
+	 * stream is closed.
+	 */
+	public InputStream wrapForegroundStream(final InputStream is) {
+		return new FilterInputStream(is) {
+
+			private boolean mReleased;
+
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					synchronized (this) {
+						if (!mReleased) {
+							mReleased = true;
+							releaseForeground();
+						}
+					}
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ *				Twidere - Twitter client for Android
+ *
+ * Copyright (C) 2012 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util;
+
+import static org.mariotaku.twidere.util.TwidereLinkify.AVAILABLE_IMAGE_SHUFFIX;
+import static org.mariotaku.twidere.util.TwidereLinkify.SINA_WEIBO_IMAGES_AVAILABLE_SIZES;
+import static org.mariotaku.twidere.util.Utils.getImglyImage;
+import static org.mariotaku.twidere.util.Utils.getImgurImage;
+import static org.mariotaku.twidere.util.Utils.getInstagramImage;
+import static org.mariotaku.twidere.util.Utils.getLockerzAndPlixiImage;
+import static org.mariotaku.twidere.util.Utils.getMobyPictureImage;
+import static org.mariotaku.twidere.util.Utils.getPhotozouImage;
+import static org.mariotaku.twidere.util.Utils.getSinaWeiboImage;
+import static org.mariotaku.twidere.util.Utils.getTwitgooImage;
+import static org.mariotaku.twidere.util.Utils.getTwitpicImage;
+import static org.mariotaku.twidere.util.Utils.getTwitterImage;
+import static org.mariotaku.twidere.util.Utils.getYfrogImage;
+import static org.mariotaku.twidere.util.Utils.matcherGroup;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.mariotaku.twidere.model.ImageSpec;
+
+/**
+ * Finds image of a link to an image hosting service. The host of the link
+ * is looked up in a table, so only path rule of that host is matched,
+ * instead of trying patterns of every service in turn. This is the only
+ * place image hosts are defined. Links are accepted with optional http or
+ * https scheme, no port, and path matching the rule entirely.
+ *
+ * @author mariotaku
+ */
+public final class ImageHostResolver {
+
+	private static final Map<String, Rule> sHostRules = new ConcurrentHashMap<String, Rule>();
+	private static final Map<String, Rule> sSubdomainRules = new ConcurrentHashMap<String, Rule>();
+
+	static {
+		final Rule twitter = new Rule("(\\/media)?\\/([\\d\\w\\-_]+)\\." + AVAILABLE_IMAGE_SHUFFIX) {
+			@Override
+			public ImageSpec getImage(final String link, final Matcher path, final boolean large_image_preview) {
+				return getTwitterImage(link, large_image_preview);
+			}
+		};
+		registerHost("p.twimg.com", twitter);
+		registerHost("pbs.twimg.com", twitter);
+		registerHost("twitpic.com", new Rule("\\/([\\d\\w]+)\\/?") {
+			@Override
+			public ImageSpec getImage(final String link, final Matcher path, final boolean large_image_preview) {
+				return getTwitpicImage(matcherGroup(path, 1), link, large_image_preview);
+			}
+		});
+		final Rule instagram = new Rule("\\/p\\/([_\\-\\d\\w]+)\\/?") {
+			@Override
+			public ImageSpec getImage(final String link, final Matcher path, final boolean large_image_preview) {
+				return getInstagramImage(matcherGroup(path, 1), link, large_image_preview);
+			}
+		};
+		registerHost("instagr.am", instagram);
+		registerHost("instagram.com", instagram);
+		final Rule imgur = new Rule("\\/([\\d\\w]+)((?-i)s|(?-i)l)?(\\." + AVAILABLE_IMAGE_SHUFFIX + ")?") {
+			@Override
+			public ImageSpec getImage(final String link, final Matcher path, final boolean large_image_preview) {
+				return getImgurImage(matcherGroup(path, 1), link, large_image_preview);
+			}
+		};
+		registerHost("imgur.com", imgur);
+		registerHost("i.imgur.com", imgur);
+		registerHost("img.ly", new Rule("\\/([\\w\\d]+)\\/?") {
+			@Override
+			public ImageSpec getImage(final String link, final Matcher path, final boolean large_image_preview) {
+				return getImglyImage(matcherGroup(path, 1), link, large_image_preview);
+			}
+		});
+		registerHost("yfrog.com", new Rule("\\/([\\w\\d]+)\\/?") {
+			@Override
+			public ImageSpec getImage(final String link, final Matcher path, final boolean large_image_preview) {
+				return getYfrogImage(matcherGroup(path, 1), link, large_image_preview);
+			}
+		});
+		registerHost("plixi.com", new Rule("\\/p\\/(\\w+)\\/?") {
+			@Override
+			public ImageSpec getImage(final String link, final Matcher path, final boolean large_image_preview) {
+				return getLockerzAndPlixiImage(link, large_image_preview);
+			}
+		});
+		registerHost("lockerz.com", new Rule("\\/s\\/(\\w+)\\/?") {
+			@Override
+			public ImageSpec getImage(final String link, final Matcher path, final boolean large_image_preview) {
+				return getLockerzAndPlixiImage(link, large_image_preview);
+			}
+		});
+		final Rule sina_weibo = new Rule("\\/" + SINA_WEIBO_IMAGES_AVAILABLE_SIZES + "\\/(([\\d\\w]+)\\."
+				+ AVAILABLE_IMAGE_SHUFFIX + ")") {
+			@Override
+			public ImageSpec getImage(final String link, final Matcher path, final boolean large_image_preview) {
+				return getSinaWeiboImage(link, large_image_preview);
+			}
+		};
+		registerSubdomains("sinaimg.cn", sina_weibo);
+		registerSubdomains("sina.cn", sina_weibo);
+		registerHost("twitgoo.com", new Rule("\\/([\\d\\w]+)\\/?") {
+			@Override
+			public ImageSpec getImage(final String link, final Matcher path, final boolean large_image_preview) {
+				return getTwitgooImage(matcherGroup(path, 1), link, large_image_preview);
+			}
+		});
+		registerHost("moby.to", new Rule("\\/([\\d\\w]+)\\/?") {
+			@Override
+			public ImageSpec getImage(final String link, final Matcher path, final boolean large_image_preview) {
+				return getMobyPictureImage(matcherGroup(path, 1), link, large_image_preview);
+			}
+		});
+		registerHost("photozou.jp", new Rule("\\/photo\\/show\\/([\\d]+)\\/([\\d]+)\\/?") {
+			@Override
+			public ImageSpec getImage(final String link, final Matcher path, final boolean large_image_preview) {
+				return getPhotozouImage(matcherGroup(path, 2), link, large_image_preview);
+			}
+		});
+	}
+
+	private ImageHostResolver() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * @return Image of the link, or null if the link is not a supported
+	 *         image page or image.
+	 */
+	public static ImageSpec getImage(final String link, final boolean large_image_preview) {
+		if (link == null) return null;
+		final int host_start = getHostStart(link);
+		final int host_end = link.indexOf('/', host_start);
+		if (host_end <= host_start) return null;
+		final Rule rule = getRule(toLowerCaseAscii(link, host_start, host_end));
+		if (rule == null) return null;
+		final Matcher path = rule.mPathPattern.matcher(link);
+		path.region(host_end, link.length());
+		if (!path.matches()) return null;
+		return rule.getImage(link, path, large_image_preview);
+	}
+
+	/**
+	 * @return true if host of the link has a rule, path of the link is not
+	 *         checked.
+	 */
+	public static boolean hasRule(final String link) {
+		if (link == null) return false;
+		final int host_start = getHostStart(link);
+		final int host_end = link.indexOf('/', host_start);
+		if (host_end <= host_start) return false;
+		return getRule(toLowerCaseAscii(link, host_start, host_end)) != null;
+	}
+
+	/**
+	 * Registers rule for links of given host, replaces existing rule of the
+	 * host.
+	 */
+	public static void registerHost(final String host, final Rule rule) {
+		if (host == null || rule == null) throw new NullPointerException();
+		sHostRules.put(toLowerCaseAscii(host, 0, host.length()), rule);
+	}
+
+	/**
+	 * Registers rule for links of every host one level under given domain,
+	 * e.g. {@code ww1.sinaimg.cn} for {@code sinaimg.cn}. Rules registered
+	 * with {@link #registerHost(String, Rule)} take precedence.
+	 */
+	public static void registerSubdomains(final String domain, final Rule rule) {
+		if (domain == null || rule == null) throw new NullPointerException();
+		sSubdomainRules.put(toLowerCaseAscii(domain, 0, domain.length()), rule);
+	}
+
+	private static int getHostStart(final String link) {
+		if (link.regionMatches(true, 0, "http://", 0, 7)) return 7;
+		if (link.regionMatches(true, 0, "https://", 0, 8)) return 8;
+		return 0;
+	}
+
+	private static Rule getRule(final String host) {
+		final Rule rule = sHostRules.get(host);
+		if (rule != null) return rule;
+		final int dot = host.indexOf('.');
+		if (dot <= 0) return null;
+		for (int i = 0; i < dot; i++) {
+			if (!isWordChar(host.charAt(i))) return null;
+		}
+		return sSubdomainRules.get(host.substring(dot + 1));
+	}
+
+	private static boolean isWordChar(final char c) {
+		return c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '_';
+	}
+
+	/**
+	 * Only ASCII letters are folded, like case insensitive patterns do.
+	 */
+	private static String toLowerCaseAscii(final String string, final int start, final int end) {
+		final char[] chars = new char[end - start];
+		for (int i = start; i < end; i++) {
+			final char c = string.charAt(i);
+			chars[i - start] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Path rule of an image host. Path pattern is case insensitive and must
+	 * match the whole path, starting from the slash after host.
+	 */
+	public static abstract class Rule {
+
+		private final Pattern mPathPattern;
+
+		protected Rule(final String path_regex) {
+			mPathPattern = Pattern.compile(path_regex, Pattern.CASE_INSENSITIVE);
+		}
+
+		/**
+		 * @param link Whole link.
+		 * @param path Matcher of path pattern, already matched.
+		 */
+		public abstract ImageSpec getImage(String link, Matcher path, boolean large_image_preview);
+	}
+}
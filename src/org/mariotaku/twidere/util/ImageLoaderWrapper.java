@@ -26,6 +26,7 @@ import org.mariotaku.twidere.R;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.view.ViewGroup;
 import android.widget.GridView;
 import android.widget.ImageView;
 import android.widget.ListView;
@@ -48,9 +49,11 @@ public class ImageLoaderWrapper implements Constants {
 
 	private final ImageLoader mImageLoader;
 	private final DisplayImageOptions mProfileImageDisplayOptions, mImageDisplayOptions;
+	private final int mScreenWidth;
 
 	public ImageLoaderWrapper(final Context context, final ImageLoader loader) {
 		mImageLoader = loader;
+		mScreenWidth = context.getResources().getDisplayMetrics().widthPixels;
 		final DisplayImageOptions.Builder profile_opts_builder = new DisplayImageOptions.Builder();
 		profile_opts_builder.cacheInMemory();
 		profile_opts_builder.cacheOnDisc();
@@ -73,7 +76,19 @@ public class ImageLoaderWrapper implements Constants {
 	}
 
 	public void displayPreviewImage(final ImageView view, final String url) {
-		mImageLoader.displayImage(url, view, mImageDisplayOptions);
+		final ViewGroup.LayoutParams lp = view != null ? view.getLayoutParams() : null;
+		displayPreviewImage(view, url, lp != null && lp.width > 0 ? lp.width : 0);
+	}
+
+	/**
+	 * Displays preview scaled to given width, height follows aspect ratio of
+	 * the image.
+	 * 
+	 * @param width Width in pixels, zero or negative for screen width.
+	 */
+	public void displayPreviewImage(final ImageView view, final String url, final int width) {
+		final String uri = ImageThumbnailUtils.getThumbnailUri(url, width > 0 ? width : mScreenWidth, 0);
+		mImageLoader.displayImage(uri, view, mImageDisplayOptions);
 	}
 
 	public void displayProfileBanner(final ImageView view, final String base_url, final int width) {
@@ -82,10 +97,20 @@ public class ImageLoaderWrapper implements Constants {
 	}
 	
 	public void displayProfileImage(final ImageView view, final String url) {
-		mImageLoader.displayImage(url, view, mProfileImageDisplayOptions);
+		mImageLoader.displayImage(getThumbnailUri(view, url), view, mProfileImageDisplayOptions);
 	}
 
 	public void reloadConnectivitySettings() {
 	}
 
+	/**
+	 * Views with fixed size (like profile images in list rows) get a thumbnail
+	 * at exactly that size instead of the original image.
+	 */
+	private static String getThumbnailUri(final ImageView view, final String url) {
+		final ViewGroup.LayoutParams lp = view != null ? view.getLayoutParams() : null;
+		if (lp == null || lp.width <= 0 || lp.height <= 0) return url;
+		return ImageThumbnailUtils.getThumbnailUri(url, lp.width, lp.height);
+	}
+
 }
@@ -1,149 +1,217 @@
 package org.mariotaku.twidere.util;
 
-import java.lang.ref.Reference;
-import java.lang.ref.SoftReference;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import android.graphics.Bitmap;
-import android.os.Handler;
-import android.util.Log;
 
 import com.nostra13.universalimageloader.cache.memory.MemoryCacheAware;
 
+/**
+ * Bitmap memory cache limited by size in bytes. Profile images and other
+ * images are kept in separate LRU pools, so large previews won't evict all
+ * profile images shown in lists.
+ *
+ * @author mariotaku
+ */
 public class ImageMemoryCache implements MemoryCacheAware<String, Bitmap> {
 
-	private static final String LOGTAG = ImageMemoryCache.class.getSimpleName();
-	private static final int MEMORY_PURGE_DELAY = 30 * 1000;
+	public static final float DEFAULT_MEMORY_FRACTION = 0.2f;
 
-	private final Map<String, SoftReference<Bitmap>> mSoftCache;
-	private final LinkedHashMap<String, Bitmap> mHardCache;
-	private final Handler mHandler;
-	private final MemoryPurger mPurger;
+	private static final float PROFILE_IMAGES_POOL_FRACTION = 0.3f;
+	private static final String PROFILE_IMAGES_PATH = "/profile_images/";
 
-	public ImageMemoryCache(final int max_capacity) {
-		mSoftCache = new HashMap<String, SoftReference<Bitmap>>(max_capacity / 2);
-		mHardCache = new HardBitmapCache(mSoftCache, max_capacity / 2);
-		mHandler = new Handler();
-		mPurger = new MemoryPurger(this);
+	private final Pool mProfileImagesPool, mImagesPool;
+
+	private OnEvictedListener mOnEvictedListener;
+	private long mHitCount, mMissCount, mEvictionCount;
+
+	public ImageMemoryCache() {
+		this(DEFAULT_MEMORY_FRACTION);
+	}
+
+	/**
+	 * @param memory_fraction Fraction of {@link Runtime#maxMemory()} to use.
+	 */
+	public ImageMemoryCache(final float memory_fraction) {
+		this((long) (Runtime.getRuntime().maxMemory() * memory_fraction));
+	}
+
+	public ImageMemoryCache(final long max_bytes) {
+		final long profile_images_bytes = (long) (max_bytes * PROFILE_IMAGES_POOL_FRACTION);
+		mProfileImagesPool = new Pool(profile_images_bytes);
+		mImagesPool = new Pool(max_bytes - profile_images_bytes);
 	}
 
 	@Override
 	public void clear() {
-		try {
-			mHardCache.clear();
-			mSoftCache.clear();
-			System.gc();
-		} catch (final Exception e) {
-			Log.e(LOGTAG, "Unknown exception", e);
+		synchronized (this) {
+			mProfileImagesPool.clear();
+			mImagesPool.clear();
 		}
 	}
 
 	@Override
 	public Bitmap get(final String key) {
 		if (key == null) return null;
-		resetMemoryPurger();
-		try {
-			synchronized (mHardCache) {
-				final Bitmap bitmap = mHardCache.get(key);
-				if (bitmap != null && key != null) {
-					// Put bitmap on top of cache so it's purged last.
-					mHardCache.remove(key);
-					mHardCache.put(key, bitmap);
-					return bitmap;
-				}
-			}
-			final Reference<Bitmap> bitmapRef = mSoftCache.get(key);
-			if (bitmapRef != null) {
-				final Bitmap bitmap = bitmapRef.get();
-				if (bitmap != null)
-					return bitmap;
-				else {
-					// Must have been collected by the Garbage Collector
-					// so we remove the bucket from the cache.
-					mSoftCache.remove(key);
-				}
+		synchronized (this) {
+			final Bitmap bitmap = getPool(key).map.get(key);
+			if (bitmap != null) {
+				mHitCount++;
+			} else {
+				mMissCount++;
 			}
-		} catch (final Exception e) {
-			Log.e(LOGTAG, "Unknown exception", e);
+			return bitmap;
 		}
-		// Could not locate the bitmap in any of the caches, so we return
-		// null.
-		return null;
+	}
+
+	public synchronized long getEvictionCount() {
+		return mEvictionCount;
+	}
 
+	public synchronized long getHitCount() {
+		return mHitCount;
+	}
+
+	public long getMaxSize() {
+		return mProfileImagesPool.max_size + mImagesPool.max_size;
+	}
+
+	public synchronized long getMissCount() {
+		return mMissCount;
+	}
+
+	public synchronized long getSize() {
+		return mProfileImagesPool.size + mImagesPool.size;
 	}
 
 	@Override
 	public Collection<String> keys() {
-		return mHardCache.keySet();
+		synchronized (this) {
+			final List<String> keys = new ArrayList<String>(mProfileImagesPool.map.size() + mImagesPool.map.size());
+			keys.addAll(mProfileImagesPool.map.keySet());
+			keys.addAll(mImagesPool.map.keySet());
+			return keys;
+		}
 	}
 
 	@Override
 	public boolean put(final String key, final Bitmap bitmap) {
 		if (key == null || bitmap == null) return false;
-		resetMemoryPurger();
-		try {
-			return mHardCache.put(key, bitmap) != null;
-		} catch (final Exception e) {
-			Log.e(LOGTAG, "Unknown exception", e);
+		final List<Map.Entry<String, Bitmap>> evicted;
+		synchronized (this) {
+			final Pool pool = getPool(key);
+			final long size = getBitmapSize(bitmap);
+			// Don't let one large image evict everything.
+			if (size > pool.max_size) return false;
+			final Bitmap previous = pool.map.put(key, bitmap);
+			if (previous != null) {
+				pool.size -= getBitmapSize(previous);
+			}
+			pool.size += size;
+			evicted = pool.trim();
+			mEvictionCount += evicted.size();
+		}
+		if (mOnEvictedListener != null) {
+			for (final Map.Entry<String, Bitmap> entry : evicted) {
+				mOnEvictedListener.onEvicted(entry.getKey(), entry.getValue());
+			}
 		}
-		return false;
+		return true;
 	}
 
 	@Override
 	public void remove(final String key) {
-		final Bitmap bitmap = mHardCache.remove(key);
-		if (bitmap != null) {
-			bitmap.recycle();
-		}
-		final SoftReference<Bitmap> ref = mSoftCache.remove(key);
-		if (ref.get() != null) {
-			ref.get().recycle();
+		if (key == null) return;
+		synchronized (this) {
+			final Pool pool = getPool(key);
+			final Bitmap bitmap = pool.map.remove(key);
+			if (bitmap != null) {
+				pool.size -= getBitmapSize(bitmap);
+			}
 		}
 	}
 
-	private void resetMemoryPurger() {
-		mHandler.removeCallbacks(mPurger);
-		mHandler.postDelayed(mPurger, MEMORY_PURGE_DELAY);
+	public void setOnEvictedListener(final OnEvictedListener listener) {
+		mOnEvictedListener = listener;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ImageMemoryCache{size=" + getSize() + ", max_size=" + getMaxSize() + ", hits=" + mHitCount
+				+ ", misses=" + mMissCount + ", evictions=" + mEvictionCount + "}";
+	}
+
+	private Pool getPool(final String key) {
+		return key.contains(PROFILE_IMAGES_PATH) ? mProfileImagesPool : mImagesPool;
+	}
+
+	private static long getBitmapSize(final Bitmap bitmap) {
+		return (long) bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+	/**
+	 * Called outside of the cache lock when a bitmap is evicted to free space.
+	 */
+	public interface OnEvictedListener {
+		void onEvicted(String key, Bitmap bitmap);
 	}
 
-	private static final class MemoryPurger implements Runnable {
+	private static final class Pool {
 
-		final ImageMemoryCache cache;
+		final LinkedHashMap<String, Bitmap> map = new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+		final long max_size;
+		long size;
 
-		MemoryPurger(final ImageMemoryCache cache) {
-			this.cache = cache;
+		Pool(final long max_size) {
+			this.max_size = max_size;
 		}
 
-		@Override
-		public void run() {
-			cache.clear();
+		void clear() {
+			map.clear();
+			size = 0;
 		}
 
+		List<Map.Entry<String, Bitmap>> trim() {
+			final List<Map.Entry<String, Bitmap>> evicted = new ArrayList<Map.Entry<String, Bitmap>>();
+			final Iterator<Map.Entry<String, Bitmap>> it = map.entrySet().iterator();
+			while (size > max_size && it.hasNext()) {
+				final Map.Entry<String, Bitmap> eldest = it.next();
+				size -= getBitmapSize(eldest.getValue());
+				evicted.add(new Entry(eldest.getKey(), eldest.getValue()));
+				it.remove();
+			}
+			return evicted;
+		}
 	}
 
-	static class HardBitmapCache extends LinkedHashMap<String, Bitmap> {
+	private static final class Entry implements Map.Entry<String, Bitmap> {
+
+		private final String key;
+		private final Bitmap value;
 
-		private static final long serialVersionUID = 1347795807259717646L;
-		private final Map<String, SoftReference<Bitmap>> soft_cache;
-		private final int capacity;
+		Entry(final String key, final Bitmap value) {
+			this.key = key;
+			this.value = value;
+		}
 
-		HardBitmapCache(final Map<String, SoftReference<Bitmap>> soft_cache, final int capacity) {
-			super(capacity);
-			this.soft_cache = soft_cache;
-			this.capacity = capacity;
+		@Override
+		public String getKey() {
+			return key;
+		}
+
+		@Override
+		public Bitmap getValue() {
+			return value;
 		}
 
 		@Override
-		protected boolean removeEldestEntry(final LinkedHashMap.Entry<String, Bitmap> eldest) {
-			// Moves the last used item in the hard cache to the soft cache.
-			if (size() > capacity) {
-				soft_cache.put(eldest.getKey(), new SoftReference<Bitmap>(eldest.getValue()));
-				return true;
-			} else
-				return false;
+		public Bitmap setValue(final Bitmap object) {
+			throw new UnsupportedOperationException();
 		}
 	}
-}
\ No newline at end of file
+}
@@ -19,36 +19,46 @@
 
 package org.mariotaku.twidere.util;
 
-import static org.mariotaku.twidere.util.Utils.copyStream;
-import static org.mariotaku.twidere.util.Utils.getBestCacheDir;
+import static org.mariotaku.gallery3d.util.GalleryUtils.closeSilently;
 import static org.mariotaku.twidere.util.Utils.getImageLoaderHttpClient;
 import static org.mariotaku.twidere.util.Utils.getRedirectedHttpResponse;
+import static org.mariotaku.twidere.util.Utils.isOnWifi;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.mariotaku.twidere.Constants;
+import org.mariotaku.twidere.app.TwidereApplication;
 
 import twitter4j.http.HttpClientWrapper;
 import twitter4j.http.HttpResponse;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.graphics.BitmapFactory;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
 import android.util.Log;
-import android.widget.GridView;
-import android.widget.ListView;
-import com.nostra13.universalimageloader.cache.disc.naming.FileNameGenerator;
 
 /**
- * Lazy image loader for {@link ListView} and {@link GridView} etc.</br> </br>
- * Inspired by <a href="https://github.com/thest1/LazyList">LazyList</a>, this
- * class has extra features like image loading/caching image to
- * /mnt/sdcard/Android/data/[package name]/cache features.</br> </br> Requires
- * Android 2.2, you can modify {@link Context#getExternalCacheDir()} to other to
- * support Android 2.1 and below.
+ * Downloads images into disc cache in background before they are displayed.
+ * </br> </br> Requests are queued by priority, a URL is downloaded only once
+ * even if requested again while queued or downloading. Preloading shares
+ * {@link ImageDownloadBudget} with image loader, so it never competes with
+ * images on screen, and it stops while on metered network or battery is low.
  * 
  * @author mariotaku
  * 
@@ -57,118 +67,276 @@ public class ImagePreloader implements Constants {
 
 	private static final String LOGTAG = ImagePreloader.class.getSimpleName();
 
+	/**
+	 * Images not shown in lists, like image previews.
+	 */
+	public static final int PRIORITY_LOW = 0;
+	/**
+	 * Images shown in lists, like profile images.
+	 */
+	public static final int PRIORITY_NORMAL = 1;
+	/**
+	 * Images needed right now, like notification icons. Downloaded on metered
+	 * network too, and never dropped when queue is full.
+	 */
+	public static final int PRIORITY_HIGH = 2;
+
+	private static final int THREAD_POOL_SIZE = 2;
+	private static final int MAX_QUEUE_SIZE = 256;
+	private static final int LOW_BATTERY_PERCENT = 15;
+	private static final int BUFFER_SIZE = 8192;
+
 	private final Context mContext;
-	private final ExecutorService mExecutor;
-	private final FileNameGenerator mGenerator;
+	private final SharedPreferences mPreferences;
+	private final ThreadPoolExecutor mExecutor;
+	private final BlockingQueue<Runnable> mQueue;
+	private final ImageDiscCache mDiscCache;
+	private final ImageDownloadBudget mDownloadBudget;
+	private final Map<String, PreloadTask> mTasks = new HashMap<String, PreloadTask>();
 	private HttpClientWrapper mClient;
 
+	private long mSequence;
+	private volatile boolean mBatteryLow, mConnected = true, mOnWifi;
+
+	private final BroadcastReceiver mStateReceiver = new BroadcastReceiver() {
+
+		@Override
+		public void onReceive(final Context context, final Intent intent) {
+			final String action = intent.getAction();
+			if (ConnectivityManager.CONNECTIVITY_ACTION.equals(action)) {
+				updateNetworkState();
+			} else if (Intent.ACTION_BATTERY_LOW.equals(action)) {
+				mBatteryLow = true;
+			} else if (Intent.ACTION_BATTERY_OKAY.equals(action)) {
+				mBatteryLow = false;
+			}
+			cancelDisallowed();
+		}
+
+	};
+
 	public ImagePreloader(final Context context) {
-		mContext = context;
-		mExecutor = Executors.newFixedThreadPool(32, new LowestPriorityThreadFactory());
-		mGenerator = new URLFileNameGenerator();
+		mContext = context.getApplicationContext();
+		mPreferences = context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
+		mQueue = new PriorityBlockingQueue<Runnable>();
+		mExecutor = new ThreadPoolExecutor(THREAD_POOL_SIZE, THREAD_POOL_SIZE, 0, TimeUnit.MILLISECONDS, mQueue,
+				new LowestPriorityThreadFactory());
+		final TwidereApplication app = TwidereApplication.getInstance(context);
+		mDiscCache = app.getImageDiscCache();
+		mDownloadBudget = app.getImageDownloadBudget();
 		reloadConnectivitySettings();
+		updateNetworkState();
+		updateBatteryState();
+		final IntentFilter filter = new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION);
+		filter.addAction(Intent.ACTION_BATTERY_LOW);
+		filter.addAction(Intent.ACTION_BATTERY_OKAY);
+		mContext.registerReceiver(mStateReceiver, filter);
 	}
 
 	/**
-	 * Cancels any downloads, shuts down the executor pool, and then purges the
-	 * caches.
+	 * Cancels all queued and running downloads.
 	 */
 	public void cancel() {
-
-		// We could also terminate it immediately,
-		// but that may lead to synchronization issues.
-		if (!mExecutor.isShutdown()) {
-			mExecutor.shutdown();
+		synchronized (mTasks) {
+			for (final PreloadTask task : mTasks.values()) {
+				task.cancelled = true;
+			}
+			mTasks.clear();
+			mQueue.clear();
 		}
+	}
 
+	/**
+	 * Cancels download of the URL if it's queued or running.
+	 */
+	public void cancel(final String url) {
+		if (url == null) return;
+		synchronized (mTasks) {
+			final PreloadTask task = mTasks.remove(url);
+			if (task == null) return;
+			task.cancelled = true;
+			mQueue.remove(task);
+		}
 	}
 
-	public File getCachedImageFile(final String cache_dir_name, final String url) {
-		if (cache_dir_name == null || url == null) return null;
-		final File cache_dir = getBestCacheDir(mContext, cache_dir_name);
-		if (cache_dir == null) return null;
-		final File cache = new File(cache_dir, mGenerator.generate(url));
-		if (ImageValidator.checkImageValidity(cache))
-			return cache;
+	public File getCachedImageFile(final String url) {
+		if (url == null) return null;
+		final ImageDiscCache.ImageInfo cache = mDiscCache.getValidImage(url);
+		if (cache != null)
+			return cache.file;
 		else {
-			preloadImage(cache_dir_name, url);
+			preloadImage(url, PRIORITY_HIGH);
 		}
 		return null;
 	}
 
-	public void preloadImage(final String cache_dir_name, final String url) {
-		final ImageToLoad p = new ImageToLoad(cache_dir_name, url);
-		mExecutor.submit(new ImageLoader(p));
+	public void preloadImage(final String url) {
+		preloadImage(url, PRIORITY_NORMAL);
+	}
+
+	public void preloadImage(final String url, final int priority) {
+		if (url == null || !isPreloadAllowed(priority)) return;
+		synchronized (mTasks) {
+			final PreloadTask existing = mTasks.get(url);
+			if (existing != null) {
+				// Already running, or queued with a higher priority.
+				if (existing.priority >= priority || !mQueue.remove(existing)) return;
+			} else if (priority < PRIORITY_HIGH && mQueue.size() >= MAX_QUEUE_SIZE) {
+				if (DEBUG) {
+					Log.d(LOGTAG, "Preload queue is full, dropping " + url);
+				}
+				return;
+			}
+			final PreloadTask task = new PreloadTask(url, priority, mSequence++);
+			mTasks.put(url, task);
+			mExecutor.execute(task);
+		}
 	}
 
 	public void reloadConnectivitySettings() {
 		mClient = getImageLoaderHttpClient(mContext);
 	}
 
-	class ImageLoader implements Runnable {
-		private final ImageToLoad imagetoload;
-
-		public ImageLoader(final ImageToLoad imagetoload) {
-			this.imagetoload = imagetoload;
+	private void download(final PreloadTask task) throws Exception {
+		final HttpResponse resp = getRedirectedHttpResponse(mClient, task.url);
+		if (resp == null || resp.getStatusCode() != 200) return;
+		// Write to a temporary file, so a partial download never appears in
+		// cache.
+		final File temp_file = mDiscCache.getTempFile(task.url);
+		final InputStream is = resp.asStream();
+		final OutputStream os = new FileOutputStream(temp_file);
+		boolean completed = false;
+		try {
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			int count;
+			while (!task.cancelled && (count = is.read(buffer)) != -1) {
+				os.write(buffer, 0, count);
+			}
+			os.flush();
+			completed = !task.cancelled;
+		} finally {
+			closeSilently(is);
+			closeSilently(os);
+		}
+		final BitmapFactory.Options opts = new BitmapFactory.Options();
+		if (completed && ImageValidator.checkImageValidity(temp_file.getPath(), opts)) {
+			mDiscCache.put(task.url, temp_file, opts.outWidth, opts.outHeight);
+		} else {
+			// Cancelled or the file is corrupted, so we drop it.
+			temp_file.delete();
 		}
+	}
 
-		@Override
-		public void run() {
-			if (imagetoload == null || imagetoload.cache_dir_name == null || imagetoload.url == null) return;
-			final File cache_dir = getBestCacheDir(mContext, imagetoload.cache_dir_name);
-			if (cache_dir == null) return;
-			if (!cache_dir.isDirectory()) {
-				cache_dir.mkdir();
-			}
-			final File cache_file = new File(cache_dir, mGenerator.generate(imagetoload.url));
-			// from SD cache
-			if (DEBUG) {
-				Log.d(LOGTAG, "Preload image " + imagetoload.url + " to " + cache_file);
+	/**
+	 * Cancels queued and running downloads whose priority is no longer
+	 * allowed, e.g. only normal and low priority ones after switching to
+	 * metered network.
+	 */
+	private void cancelDisallowed() {
+		if (isPreloadAllowed(PRIORITY_LOW)) return;
+		synchronized (mTasks) {
+			final Iterator<PreloadTask> it = mTasks.values().iterator();
+			while (it.hasNext()) {
+				final PreloadTask task = it.next();
+				if (isPreloadAllowed(task.priority)) {
+					continue;
+				}
+				task.cancelled = true;
+				mQueue.remove(task);
+				it.remove();
 			}
-			if (ImageValidator.checkImageValidity(cache_file)) return;
+		}
+	}
 
-			// from web
-			try {
-				final HttpResponse resp = getRedirectedHttpResponse(mClient, imagetoload.url);
-
-				if (resp != null && resp.getStatusCode() == 200) {
-					final InputStream is = resp.asStream();
-					final OutputStream os = new FileOutputStream(cache_file);
-					copyStream(is, os);
-					os.flush();
-					os.close();
-					if (!ImageValidator.checkImageValidity(cache_file)) {
-						// The file is corrupted, so we remove it from cache.
-						if (cache_file.isFile() && cache_file.length() == 0) {
-							cache_file.delete();
-						}
-					}
-				}
-			} catch (final Exception e) {
-				Log.w(LOGTAG, e);
+	private void finishTask(final PreloadTask task) {
+		synchronized (mTasks) {
+			if (mTasks.get(task.url) == task) {
+				mTasks.remove(task.url);
 			}
 		}
 	}
 
-	static class ImageToLoad {
-		public final String url;
-		public final String cache_dir_name;
+	private boolean isPreloadAllowed(final int priority) {
+		if (mBatteryLow || !mConnected) return false;
+		if (priority >= PRIORITY_HIGH || mOnWifi) return true;
+		// Mobile networks are treated as metered.
+		return !mPreferences.getBoolean(PREFERENCE_KEY_PRELOAD_WIFI_ONLY, true);
+	}
+
+	private void updateBatteryState() {
+		final Intent intent = mContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+		if (intent == null) return;
+		final int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+		final int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+		final boolean plugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+		mBatteryLow = !plugged && level >= 0 && scale > 0 && level * 100 / scale <= LOW_BATTERY_PERCENT;
+	}
 
-		public ImageToLoad(final String cache_dir_name, final String url) {
-			this.url = url;
-			this.cache_dir_name = cache_dir_name;
-		}
+	private void updateNetworkState() {
+		final ConnectivityManager conn = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+		final NetworkInfo info = conn.getActiveNetworkInfo();
+		mConnected = info != null && info.isConnected();
+		mOnWifi = isOnWifi(mContext);
 	}
 
 	static class LowestPriorityThreadFactory implements ThreadFactory {
 
 		@Override
 		public Thread newThread(final Runnable r) {
-			final Thread t = new Thread(r);
+			final Thread t = new Thread(r, "ImagePreloader");
 			t.setPriority(Thread.MIN_PRIORITY);
 			return t;
 		}
 
 	}
 
+	/**
+	 * Higher priority first, then in order of request, so images of newer
+	 * items which appear on top of lists are loaded first.
+	 */
+	final class PreloadTask implements Runnable, Comparable<PreloadTask> {
+
+		final String url;
+		final int priority;
+		final long sequence;
+		volatile boolean cancelled;
+
+		PreloadTask(final String url, final int priority, final long sequence) {
+			this.url = url;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(final PreloadTask another) {
+			if (priority != another.priority) return another.priority - priority;
+			return sequence < another.sequence ? -1 : sequence == another.sequence ? 0 : 1;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (cancelled || !isPreloadAllowed(priority)) return;
+				if (DEBUG) {
+					Log.d(LOGTAG, "Preload image " + url);
+				}
+				if (mDiscCache.getValidImage(url) != null) return;
+				mDownloadBudget.acquireBackground();
+				try {
+					if (!cancelled) {
+						download(this);
+					}
+				} finally {
+					mDownloadBudget.releaseBackground();
+				}
+			} catch (final InterruptedException e) {
+				// Ignore.
+			} catch (final Exception e) {
+				Log.w(LOGTAG, e);
+			} finally {
+				finishTask(this);
+			}
+		}
+	}
+
 }
@@ -0,0 +1,125 @@
+/*
+ *				Twidere - Twitter client for Android
+ *
+ * Copyright (C) 2012 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+
+import android.graphics.Bitmap;
+
+/**
+ * Downscaled copies of cached images at the size they are displayed. A
+ * thumbnail is addressed by a derived URI (original URL with size appended
+ * as fragment), so it's cached on disc and in memory under its own key, and
+ * original image is only downloaded once for all sizes.
+ *
+ * @author mariotaku
+ */
+public final class ImageThumbnailUtils {
+
+	private static final String THUMBNAIL_FRAGMENT = "#twidere_thumbnail=";
+
+	private static final int JPEG_QUALITY = 90;
+
+	private ImageThumbnailUtils() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Creates thumbnail covering given size, encoded as PNG if the image has
+	 * alpha channel, JPEG otherwise. Zero width or height means that side is
+	 * not constrained.
+	 *
+	 * @return Encoded thumbnail, or null if the original image is not larger
+	 *         than given size or can't be decoded.
+	 */
+	public static InputStream createThumbnail(final File file, final int image_width, final int image_height,
+			final int width, final int height) {
+		if (file == null || !isThumbnailRequired(image_width, image_height, width, height)) return null;
+		final float scale = getScale(image_width, image_height, width, height);
+		final int target_width = Math.max(1, Math.round(image_width * scale));
+		final int target_height = Math.max(1, Math.round(image_height * scale));
+		final Bitmap bitmap = BitmapDecodeHelper.decode(file.getPath(), target_width, target_height);
+		if (bitmap == null) return null;
+		try {
+			final ByteArrayOutputStream os = new ByteArrayOutputStream();
+			final Bitmap.CompressFormat format = bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG
+					: Bitmap.CompressFormat.JPEG;
+			if (!bitmap.compress(format, JPEG_QUALITY, os)) return null;
+			return new ByteArrayInputStream(os.toByteArray());
+		} finally {
+			bitmap.recycle();
+		}
+	}
+
+	/**
+	 * @return URL of original image, or null if the URI is not a thumbnail
+	 *         URI.
+	 */
+	public static String getSourceUrl(final String uri) {
+		if (uri == null) return null;
+		final int idx = uri.lastIndexOf(THUMBNAIL_FRAGMENT);
+		return idx > 0 ? uri.substring(0, idx) : null;
+	}
+
+	/**
+	 * @return Width and height of a thumbnail URI, or null if the URI is not
+	 *         a thumbnail URI.
+	 */
+	public static int[] getThumbnailSize(final String uri) {
+		if (uri == null) return null;
+		final int idx = uri.lastIndexOf(THUMBNAIL_FRAGMENT);
+		if (idx <= 0) return null;
+		final String size = uri.substring(idx + THUMBNAIL_FRAGMENT.length());
+		final int x_idx = size.indexOf('x');
+		if (x_idx <= 0) return null;
+		try {
+			final int width = Integer.parseInt(size.substring(0, x_idx));
+			final int height = Integer.parseInt(size.substring(x_idx + 1));
+			if (width < 0 || height < 0 || width == 0 && height == 0) return null;
+			return new int[] { width, height };
+		} catch (final NumberFormatException e) {
+			return null;
+		}
+	}
+
+	public static String getThumbnailUri(final String url, final int width, final int height) {
+		if (url == null || width < 0 || height < 0 || width == 0 && height == 0 || url.contains("#")) return url;
+		return url + THUMBNAIL_FRAGMENT + width + "x" + height;
+	}
+
+	/**
+	 * @return false if the image is not larger than given size, then the
+	 *         original image is used as its thumbnail.
+	 */
+	public static boolean isThumbnailRequired(final int image_width, final int image_height, final int width,
+			final int height) {
+		if (image_width <= 0 || image_height <= 0) return false;
+		final float scale = getScale(image_width, image_height, width, height);
+		return scale > 0 && scale < 1;
+	}
+
+	private static float getScale(final int image_width, final int image_height, final int width, final int height) {
+		return Math.max((float) width / image_width, (float) height / image_height);
+	}
+
+}
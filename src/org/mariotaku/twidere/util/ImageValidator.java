@@ -27,7 +27,14 @@ public class ImageValidator {
 	}
 
 	public static boolean checkImageValidity(final String file) {
-		final BitmapFactory.Options opts = new BitmapFactory.Options();
+		return checkImageValidity(file, new BitmapFactory.Options());
+	}
+
+	/**
+	 * Same as {@link #checkImageValidity(String)}, and image size will be set
+	 * to {@code outWidth} and {@code outHeight} of {@code opts}.
+	 */
+	public static boolean checkImageValidity(final String file, final BitmapFactory.Options opts) {
 		opts.inJustDecodeBounds = true;
 		BitmapFactory.decodeFile(file, opts);
 		final String type = opts.outMimeType;
@@ -48,8 +55,9 @@ public class ImageValidator {
 
 	private static boolean checkHeadTailValidity(final String file, final byte[] head, final byte[] tail) {
 		if (file == null) return false;
+		RandomAccessFile raf = null;
 		try {
-			final RandomAccessFile raf = new RandomAccessFile(file, "r");
+			raf = new RandomAccessFile(file, "r");
 			final long length = raf.length();
 			// The file has 0-length, so it can't be a PNG file.
 			if (length == 0) return false;
@@ -64,6 +72,13 @@ public class ImageValidator {
 			if (raf.read(buffer) != buffer.length || !Arrays.equals(buffer, tail)) return false;
 		} catch (final IOException e) {
 			return false;
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (final IOException e) {
+				}
+			}
 		}
 		return true;
 	}
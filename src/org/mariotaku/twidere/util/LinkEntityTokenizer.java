@@ -0,0 +1,330 @@
+/*
+ *				Twidere - Twitter client for Android
+ *
+ * Copyright (C) 2012 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util;
+
+import static org.mariotaku.twidere.util.TwidereLinkify.LINK_TYPE_CASHTAG;
+import static org.mariotaku.twidere.util.TwidereLinkify.LINK_TYPE_HASHTAG;
+import static org.mariotaku.twidere.util.TwidereLinkify.LINK_TYPE_LINK;
+import static org.mariotaku.twidere.util.TwidereLinkify.LINK_TYPE_LINK_WITH_IMAGE_EXTENSION;
+import static org.mariotaku.twidere.util.TwidereLinkify.LINK_TYPE_LIST;
+import static org.mariotaku.twidere.util.TwidereLinkify.LINK_TYPE_MENTION;
+import static org.mariotaku.twidere.util.TwidereLinkify.PATTERN_IMAGES;
+import static org.mariotaku.twidere.util.Utils.getAllAvailableImage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+
+import org.mariotaku.twidere.model.ImageSpec;
+
+import android.text.Spanned;
+import android.text.style.URLSpan;
+
+import com.twitter.Regex;
+
+/**
+ * Finds mentions, lists, hashtags, cashtags and links of a text in one scan
+ * from left to right. Existing {@link URLSpan}s are kept as links, text
+ * between them is scanned for links with twitter-text's URL pattern, and
+ * other entities are only matched at their leading character ('@', '#' or
+ * '$'). When entities overlap the one starting first wins, like
+ * {@link com.twitter.Extractor#extractEntitiesWithIndices(String)}.
+ *
+ * @author mariotaku
+ */
+public final class LinkEntityTokenizer {
+
+	private static final int MAX_USERNAME_LENGTH = 20;
+	private static final int MAX_LIST_NAME_LENGTH = 25;
+
+	private final String mText;
+	private final int mLength;
+	private final List<Entity> mEntities = new ArrayList<Entity>();
+	private final Matcher mUrlMatcher, mHashtagMatcher, mCashtagMatcher;
+	private final Matcher mInvalidMentionEndMatcher, mInvalidHashtagEndMatcher;
+
+	private LinkEntityTokenizer(final String text) {
+		mText = text;
+		mLength = text.length();
+		// URL without a dot or colon is not possible.
+		final boolean may_have_url = text.indexOf('.') >= 0 || text.indexOf(':') >= 0;
+		mUrlMatcher = may_have_url ? Regex.VALID_URL.matcher(text) : null;
+		mHashtagMatcher = Regex.VALID_HASHTAG.matcher(text);
+		mCashtagMatcher = Regex.VALID_CASHTAG.matcher(text);
+		mInvalidMentionEndMatcher = Regex.INVALID_MENTION_MATCH_END.matcher(text);
+		mInvalidHashtagEndMatcher = Regex.INVALID_HASHTAG_MATCH_END.matcher(text);
+		// Preceding character is matched outside of the region.
+		if (mUrlMatcher != null) {
+			mUrlMatcher.useTransparentBounds(true);
+			mUrlMatcher.useAnchoringBounds(false);
+		}
+		mHashtagMatcher.useTransparentBounds(true);
+		mHashtagMatcher.useAnchoringBounds(false);
+		mCashtagMatcher.useTransparentBounds(true);
+		mCashtagMatcher.useAnchoringBounds(false);
+	}
+
+	private Entity findLink(final int start, final int end) {
+		if (mUrlMatcher == null || start >= end) return null;
+		mUrlMatcher.region(start, end);
+		while (mUrlMatcher.find()) {
+			if (mUrlMatcher.group(Regex.VALID_URL_GROUP_PROTOCOL) == null
+					&& Regex.INVALID_URL_WITHOUT_PROTOCOL_MATCH_BEGIN.matcher(
+							mUrlMatcher.group(Regex.VALID_URL_GROUP_BEFORE)).matches()) {
+				continue;
+			}
+			String url = mUrlMatcher.group(Regex.VALID_URL_GROUP_URL);
+			final int url_start = mUrlMatcher.start(Regex.VALID_URL_GROUP_URL);
+			int url_end = mUrlMatcher.end(Regex.VALID_URL_GROUP_URL);
+			final Matcher tco_matcher = Regex.VALID_TCO_URL.matcher(url);
+			if (tco_matcher.find()) {
+				// No additional path characters for t.co links.
+				url = tco_matcher.group();
+				url_end = url_start + url.length();
+			}
+			return createLinkEntity(url, url_start, url_end);
+		}
+		return null;
+	}
+
+	/**
+	 * @return End of cashtag starting at given index, or -1 if not matched.
+	 */
+	private int matchCashtag(final int start, final int end) {
+		mCashtagMatcher.region(start > 0 ? start - 1 : 0, end);
+		if (!mCashtagMatcher.lookingAt()
+				|| mCashtagMatcher.start(Regex.VALID_CASHTAG_GROUP_CASHTAG_FULL) != start) return -1;
+		final int cashtag_end = mCashtagMatcher.end(Regex.VALID_CASHTAG_GROUP_CASHTAG_FULL);
+		mEntities.add(new Entity(start, cashtag_end, LINK_TYPE_CASHTAG,
+				mCashtagMatcher.group(Regex.VALID_CASHTAG_GROUP_TAG), null));
+		return cashtag_end;
+	}
+
+	/**
+	 * @return End of hashtag starting at given index, or -1 if not matched.
+	 *         Text matched but not linked is skipped too.
+	 */
+	private int matchHashtag(final int start, final int end) {
+		mHashtagMatcher.region(start > 0 ? start - 1 : 0, end);
+		if (!mHashtagMatcher.lookingAt()
+				|| mHashtagMatcher.start(Regex.VALID_HASHTAG_GROUP_HASHTAG_FULL) != start) return -1;
+		final int hashtag_end = mHashtagMatcher.end(Regex.VALID_HASHTAG_GROUP_HASHTAG_FULL);
+		mInvalidHashtagEndMatcher.region(hashtag_end, mLength);
+		// Skipped as a whole like Extractor does.
+		if (mInvalidHashtagEndMatcher.lookingAt()) return hashtag_end;
+		mEntities.add(new Entity(start, hashtag_end, LINK_TYPE_HASHTAG,
+				mHashtagMatcher.group(Regex.VALID_HASHTAG_GROUP_HASHTAG_FULL), null));
+		return hashtag_end;
+	}
+
+	/**
+	 * Same as {@link Regex#VALID_MENTION_OR_LIST}, written out since all
+	 * characters it accepts are ASCII.
+	 *
+	 * @return End of mention or list starting at given index, or -1 if not
+	 *         matched. Text matched but not linked is skipped too.
+	 */
+	private int matchMentionOrList(final int start, final int end) {
+		if (start > 0) {
+			// Only class of preceding character matters, even if it's the end
+			// of another entity.
+			final boolean valid_preceding = isValidMentionPreceding(mText.charAt(start - 1)) || start >= 2
+					&& mText.regionMatches(true, start - 2, "RT", 0, 2);
+			if (!valid_preceding) return -1;
+		}
+		int idx = start;
+		while (idx < end && isAtSign(mText.charAt(idx))) {
+			idx++;
+		}
+		final int username_start = idx;
+		while (idx < end && idx - username_start < MAX_USERNAME_LENGTH && isUsernameChar(mText.charAt(idx))) {
+			idx++;
+		}
+		final int username_end = idx;
+		if (username_end == username_start) return -1;
+		int list_start = -1, list_end = -1;
+		if (idx + 1 < end && mText.charAt(idx) == '/' && isAsciiLetter(mText.charAt(idx + 1))) {
+			list_start = idx + 1;
+			idx += 2;
+			while (idx < end && idx - list_start < MAX_LIST_NAME_LENGTH && isListNameChar(mText.charAt(idx))) {
+				idx++;
+			}
+			list_end = idx;
+		}
+		mInvalidMentionEndMatcher.region(idx, mLength);
+		// Skipped as a whole like Extractor does.
+		if (mInvalidMentionEndMatcher.lookingAt()) return idx;
+		final String username = mText.substring(username_start, username_end);
+		mEntities.add(new Entity(start, username_end, LINK_TYPE_MENTION, username, null));
+		if (list_start >= 0) {
+			final String list = username + "/" + mText.substring(list_start, list_end);
+			mEntities.add(new Entity(list_start, list_end, LINK_TYPE_LIST, list, null));
+		}
+		return idx;
+	}
+
+	/**
+	 * @return End of text consumed from given index, or -1 if nothing matched.
+	 */
+	private int matchToken(final int start, final int end) {
+		final char c = mText.charAt(start);
+		switch (c) {
+			case '@':
+			case '\uff20':
+				return matchMentionOrList(start, end);
+			case '#':
+			case '\uff03':
+				return matchHashtag(start, end);
+			case '$':
+				return matchCashtag(start, end);
+		}
+		return -1;
+	}
+
+	/**
+	 * Scans text between two existing links.
+	 */
+	private void scan(final int start, final int end) {
+		Entity link = findLink(start, end);
+		int idx = start;
+		while (idx < end) {
+			if (link != null && link.start < idx) {
+				// Overlapped by an entity found earlier.
+				link = findLink(idx, end);
+			}
+			if (link != null && link.start == idx) {
+				mEntities.add(link);
+				idx = link.end;
+				link = findLink(idx, end);
+				continue;
+			}
+			final int token_end = matchToken(idx, end);
+			if (token_end > idx) {
+				idx = token_end;
+			} else {
+				idx++;
+			}
+		}
+	}
+
+	private List<Entity> tokenizeSpanned(final Spanned text) {
+		final URLSpan[] spans = getSortedSpans(text);
+		int idx = 0;
+		for (final URLSpan span : spans) {
+			final int start = text.getSpanStart(span), end = text.getSpanEnd(span);
+			if (start < idx || end > mLength || start > end) {
+				continue;
+			}
+			scan(idx, start);
+			mEntities.add(createLinkEntity(span.getURL(), start, end));
+			idx = end;
+		}
+		scan(idx, mLength);
+		return mEntities;
+	}
+
+	/**
+	 * @return Entities sorted by start index, existing {@link URLSpan}s
+	 *         included.
+	 */
+	public static List<Entity> tokenize(final CharSequence text) {
+		if (text == null) return new ArrayList<Entity>();
+		final String string = text.toString();
+		final LinkEntityTokenizer tokenizer = new LinkEntityTokenizer(string);
+		if (text instanceof Spanned) return tokenizer.tokenizeSpanned((Spanned) text);
+		tokenizer.scan(0, string.length());
+		return tokenizer.mEntities;
+	}
+
+	private static Entity createLinkEntity(final String url, final int start, final int end) {
+		final ImageSpec spec = getAllAvailableImage(url, true);
+		if (spec != null)
+			return new Entity(start, end, LINK_TYPE_LINK_WITH_IMAGE_EXTENSION, spec.full_image_link, spec.orig_link);
+		if (url != null && PATTERN_IMAGES.matcher(url).matches())
+			return new Entity(start, end, LINK_TYPE_LINK_WITH_IMAGE_EXTENSION, url, null);
+		return new Entity(start, end, LINK_TYPE_LINK, url, null);
+	}
+
+	private static URLSpan[] getSortedSpans(final Spanned text) {
+		final URLSpan[] spans = text.getSpans(0, text.length(), URLSpan.class);
+		Arrays.sort(spans, new Comparator<URLSpan>() {
+
+			@Override
+			public int compare(final URLSpan lhs, final URLSpan rhs) {
+				return text.getSpanStart(lhs) - text.getSpanStart(rhs);
+			}
+		});
+		return spans;
+	}
+
+	private static boolean isAsciiLetter(final char c) {
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+	}
+
+	private static boolean isAtSign(final char c) {
+		return c == '@' || c == '\uff20';
+	}
+
+	private static boolean isListNameChar(final char c) {
+		return isUsernameChar(c) || c == '-';
+	}
+
+	private static boolean isUsernameChar(final char c) {
+		return isAsciiLetter(c) || c >= '0' && c <= '9' || c == '_';
+	}
+
+	private static boolean isValidMentionPreceding(final char c) {
+		if (isUsernameChar(c)) return false;
+		switch (c) {
+			case '!':
+			case '#':
+			case '$':
+			case '%':
+			case '&':
+			case '*':
+			case '@':
+			case '\uff20':
+				return false;
+		}
+		return true;
+	}
+
+	public static final class Entity {
+
+		public final int start, end, type;
+		public final String url, orig;
+
+		Entity(final int start, final int end, final int type, final String url, final String orig) {
+			this.start = start;
+			this.end = end;
+			this.type = type;
+			this.url = url;
+			this.orig = orig;
+		}
+
+		@Override
+		public String toString() {
+			return "Entity{start=" + start + ", end=" + end + ", type=" + type + ", url=" + url + ", orig=" + orig
+					+ "}";
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ *				Twidere - Twitter client for Android
+ *
+ * Copyright (C) 2012 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util;
+
+import static org.mariotaku.twidere.util.Utils.getAllAvailableImage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.mariotaku.twidere.Constants;
+import org.mariotaku.twidere.model.ImageSpec;
+import org.mariotaku.twidere.provider.TweetStore.Statuses;
+
+import android.text.Html;
+import android.text.Spanned;
+import android.text.style.URLSpan;
+
+/**
+ * Rendered status text with its link entities and preview image link,
+ * computed from HTML when the status is stored so lists can show it without
+ * parsing HTML or matching patterns again. Stored in
+ * {@link Statuses#TEXT_SPANS}, tables written by other versions are ignored
+ * and rebuilt from HTML.
+ *
+ * @author mariotaku
+ */
+public final class StatusSpanTable implements Constants {
+
+	/**
+	 * Increase when format or entity rules changed.
+	 */
+	public static final int VERSION = 1;
+
+	private static final char SEPARATOR = ';';
+	private static final char STRING_LENGTH_SEPARATOR = ':';
+	private static final char NULL_STRING = '-';
+
+	public final String text;
+	public final String preview_link;
+	final List<LinkEntityTokenizer.Entity> entities;
+
+	private StatusSpanTable(final String text, final String preview_link, final List<LinkEntityTokenizer.Entity> entities) {
+		this.text = text;
+		this.preview_link = preview_link;
+		this.entities = entities;
+	}
+
+	/**
+	 * Same as {@link Utils#getPreviewImage(String, int)} of the HTML this
+	 * table is made from.
+	 */
+	public ImageSpec getPreviewImage(final int display_option) {
+		if (preview_link == null) return null;
+		if (display_option == INLINE_IMAGE_PREVIEW_DISPLAY_OPTION_CODE_NONE) return ImageSpec.getEmpty();
+		return getAllAvailableImage(preview_link, display_option == INLINE_IMAGE_PREVIEW_DISPLAY_OPTION_CODE_LARGE);
+	}
+
+	public String serialize() {
+		final StringBuilder builder = new StringBuilder(text.length() * 2);
+		appendInt(builder, VERSION);
+		appendString(builder, text);
+		appendString(builder, preview_link);
+		appendInt(builder, entities.size());
+		for (final LinkEntityTokenizer.Entity entity : entities) {
+			appendInt(builder, entity.start);
+			appendInt(builder, entity.end);
+			appendInt(builder, entity.type);
+			appendString(builder, entity.url);
+			appendString(builder, entity.orig);
+		}
+		return builder.toString();
+	}
+
+	@Override
+	public String toString() {
+		return "StatusSpanTable{text=" + text + ", preview_link=" + preview_link + ", entities=" + entities + "}";
+	}
+
+	public static StatusSpanTable fromHtml(final String html) {
+		if (html == null) return null;
+		final Spanned spanned = Html.fromHtml(html);
+		// Same link getPreviewImage() finds, the first link of an image.
+		String preview_link = null;
+		for (final URLSpan span : spanned.getSpans(0, spanned.length(), URLSpan.class)) {
+			final String url = span.getURL();
+			if (getAllAvailableImage(url, false) != null) {
+				preview_link = url;
+				break;
+			}
+		}
+		final List<LinkEntityTokenizer.Entity> entities = LinkEntityTokenizer.tokenize(spanned);
+		return new StatusSpanTable(spanned.toString(), preview_link, entities);
+	}
+
+	/**
+	 * @return Table stored in {@link Statuses#TEXT_SPANS}, or null if it's
+	 *         missing, malformed or written by another version.
+	 */
+	public static StatusSpanTable parse(final String table) {
+		if (table == null) return null;
+		final Reader reader = new Reader(table);
+		try {
+			if (reader.readInt() != VERSION) return null;
+			final String text = reader.readString();
+			final String preview_link = reader.readString();
+			final int count = reader.readInt();
+			if (text == null || count < 0) return null;
+			final List<LinkEntityTokenizer.Entity> entities = new ArrayList<LinkEntityTokenizer.Entity>(count);
+			for (int i = 0; i < count; i++) {
+				final int start = reader.readInt(), end = reader.readInt(), type = reader.readInt();
+				final String url = reader.readString(), orig = reader.readString();
+				if (start < 0 || end > text.length() || start > end) return null;
+				entities.add(new LinkEntityTokenizer.Entity(start, end, type, url, orig));
+			}
+			return new StatusSpanTable(text, preview_link, Collections.unmodifiableList(entities));
+		} catch (final NumberFormatException e) {
+			return null;
+		} catch (final IndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+
+	public static String serializeHtml(final String html) {
+		final StatusSpanTable table = fromHtml(html);
+		return table != null ? table.serialize() : null;
+	}
+
+	private static void appendInt(final StringBuilder builder, final int value) {
+		builder.append(value).append(SEPARATOR);
+	}
+
+	private static void appendString(final StringBuilder builder, final String value) {
+		if (value == null) {
+			builder.append(NULL_STRING).append(SEPARATOR);
+			return;
+		}
+		builder.append(value.length()).append(STRING_LENGTH_SEPARATOR).append(value);
+	}
+
+	private static final class Reader {
+
+		private final String table;
+		private int position;
+
+		Reader(final String table) {
+			this.table = table;
+		}
+
+		int readInt() {
+			final int end = table.indexOf(SEPARATOR, position);
+			if (end < 0) throw new IndexOutOfBoundsException();
+			final int value = Integer.parseInt(table.substring(position, end));
+			position = end + 1;
+			return value;
+		}
+
+		String readString() {
+			if (table.charAt(position) == NULL_STRING) {
+				position += 2;
+				return null;
+			}
+			final int length_end = table.indexOf(STRING_LENGTH_SEPARATOR, position);
+			if (length_end < 0) throw new IndexOutOfBoundsException();
+			final int start = length_end + 1, end = start + Integer.parseInt(table.substring(position, length_end));
+			final String value = table.substring(start, end);
+			position = end;
+			return value;
+		}
+	}
+}
@@ -22,8 +22,23 @@ package org.mariotaku.twidere.util;
 import static android.text.TextUtils.isEmpty;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.mariotaku.twidere.Constants;
 import org.xbill.DNS.AAAARecord;
@@ -49,11 +64,25 @@ public class TwidereHostAddressResolver implements Constants, HostAddressResolve
 
 	private static final String DEFAULT_DNS_SERVER_ADDRESS = "8.8.8.8";
 
+	private static final int HOST_CACHE_SIZE = 512;
+	private static final int PROBE_TIMEOUT = 300;
+	private static final int MAX_PROBE_THREADS = 4;
+	// Cached time of mapped hosts, so changes of host mapping will be used.
+	private static final long MAPPED_HOST_TTL = 10 * 60 * 1000;
+	private static final long MIN_RECORD_TTL = 60 * 1000;
+	private static final long MAX_RECORD_TTL = 24 * 60 * 60 * 1000;
+
 	private final SharedPreferences mHostMapping, mPreferences;
-	private final HostCache mHostCache = new HostCache(512);
+	private final HostCache mHostCache = new HostCache(HOST_CACHE_SIZE);
+	private final ConcurrentHashMap<String, FutureTask<String>> mPendingLookups
+			= new ConcurrentHashMap<String, FutureTask<String>>();
+	private final ExecutorService mProbeExecutor = Executors.newFixedThreadPool(MAX_PROBE_THREADS);
 	private final boolean mLocalMappingOnly;
 	private final String mDNSAddress;
 
+	private final AtomicLong mCacheHitCount = new AtomicLong(), mCacheMissCount = new AtomicLong(),
+			mLookupTimeTotal = new AtomicLong();
+
 	private Resolver mDNS;
 
 	public TwidereHostAddressResolver(final Context context) {
@@ -68,21 +97,69 @@ public class TwidereHostAddressResolver implements Constants, HostAddressResolve
 		mLocalMappingOnly = local_only;
 	}
 
+	public long getCacheHitCount() {
+		return mCacheHitCount.get();
+	}
+
+	public long getCacheMissCount() {
+		return mCacheMissCount.get();
+	}
+
+	/**
+	 * @return Average time in milliseconds of lookups not found in cache.
+	 */
+	public long getAverageLookupTime() {
+		final long misses = mCacheMissCount.get();
+		return misses > 0 ? mLookupTimeTotal.get() / misses : 0;
+	}
+
 	@Override
 	public String resolve(final String host) throws IOException {
 		if (host == null || !mPreferences.getBoolean(PREFERENCE_KEY_IGNORE_SSL_ERROR, false)) return null;
 		// First, I'll try to load address cached.
-		if (mHostCache.containsKey(host)) {
+		final String cached = mHostCache.get(host);
+		if (cached != null) {
+			mCacheHitCount.incrementAndGet();
 			if (DEBUG) {
-				Log.d(RESOLVER_LOGTAG, "Got cached address " + mHostCache.get(host) + " for host " + host);
+				Log.d(RESOLVER_LOGTAG, "Got cached address " + cached + " for host " + host);
+			}
+			return cached;
+		}
+		// Threads resolving the same host will wait for the first lookup.
+		final FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+
+			@Override
+			public String call() throws IOException {
+				return lookup(host);
 			}
-			return mHostCache.get(host);
+		});
+		final FutureTask<String> pending = mPendingLookups.putIfAbsent(host, task);
+		if (pending != null) return getLookupResult(pending);
+		mCacheMissCount.incrementAndGet();
+		final long start = System.currentTimeMillis();
+		try {
+			task.run();
+		} finally {
+			mPendingLookups.remove(host);
+			mLookupTimeTotal.addAndGet(System.currentTimeMillis() - start);
+		}
+		return getLookupResult(task);
+	}
+
+	synchronized void init() throws IOException {
+		if (mDNS != null) return;
+		mDNS = mLocalMappingOnly ? null : new SimpleResolver(mDNSAddress);
+		if (mDNS != null) {
+			mDNS.setTCP(true);
 		}
+	}
+
+	private String lookup(final String host) throws IOException {
 		// Then I'll try to load from custom host mapping.
 		// Stupid way to find top domain, but really fast.
 		if (mHostMapping.contains(host)) {
 			final String host_addr = mHostMapping.getString(host, null);
-			mHostCache.put(host, host_addr);
+			mHostCache.put(host, host_addr, MAPPED_HOST_TTL);
 			if (DEBUG) {
 				Log.d(RESOLVER_LOGTAG, "Got mapped address " + host_addr + " for host " + host);
 			}
@@ -95,7 +172,7 @@ public class TwidereHostAddressResolver implements Constants, HostAddressResolve
 					+ host_segments[host_segments_length - 1];
 			if (mHostMapping.contains(top_domain)) {
 				final String host_addr = mHostMapping.getString(top_domain, null);
-				mHostCache.put(top_domain, host_addr);
+				mHostCache.put(host, host_addr, MAPPED_HOST_TTL);
 				if (DEBUG) {
 					Log.d(RESOLVER_LOGTAG, "Got mapped address (top domain) " + host_addr + " for host " + host);
 				}
@@ -119,37 +196,31 @@ public class TwidereHostAddressResolver implements Constants, HostAddressResolve
 			if (response == null) return host;
 			final Record[] records = response.getSectionArray(Section.ANSWER);
 			if (records == null || records.length < 1) throw new IOException("Could not find " + host);
-			String host_addr = null;
-			// Test each IP address resolved.
+			final List<InetAddress> addresses = new ArrayList<InetAddress>();
+			long ttl = MAX_RECORD_TTL;
 			for (final Record record : records) {
 				if (record instanceof ARecord) {
-					final InetAddress ipv4_addr = ((ARecord) record).getAddress();
-					if (ipv4_addr.isReachable(300)) {
-						host_addr = ipv4_addr.getHostAddress();
-					}
+					addresses.add(((ARecord) record).getAddress());
 				} else if (record instanceof AAAARecord) {
-					final InetAddress ipv6_addr = ((AAAARecord) record).getAddress();
-					if (ipv6_addr.isReachable(300)) {
-						host_addr = ipv6_addr.getHostAddress();
-					}
-				}
-				if (mHostCache.put(host, host_addr) != null) {
-					if (DEBUG) {
-						Log.d(RESOLVER_LOGTAG, "Resolved address " + host_addr + " for host " + host);
-					}
-					return host_addr;
+					addresses.add(((AAAARecord) record).getAddress());
+				} else {
+					continue;
 				}
+				ttl = Math.min(ttl, record.getTTL() * 1000);
+			}
+			if (addresses.isEmpty()) {
+				final Record record = records[0];
+				if (record instanceof CNAMERecord) return resolve(((CNAMERecord) record).getTarget().toString());
+				return host;
+			}
+			// Test all IP addresses resolved, use the first reachable one.
+			InetAddress address = findReachableAddress(addresses);
+			if (address == null) {
+				// No address is reachable, but I believe the IP is correct.
+				address = addresses.get(0);
 			}
-			// No address is reachable, but I believe the IP is correct.
-			final Record record = records[0];
-			if (record instanceof ARecord) {
-				final InetAddress ipv4_addr = ((ARecord) record).getAddress();
-				host_addr = ipv4_addr.getHostAddress();
-			} else if (record instanceof AAAARecord) {
-				final InetAddress ipv6_addr = ((AAAARecord) record).getAddress();
-				host_addr = ipv6_addr.getHostAddress();
-			} else if (record instanceof CNAMERecord) return resolve(((CNAMERecord) record).getTarget().toString());
-			mHostCache.put(host, host_addr);
+			final String host_addr = address.getHostAddress();
+			mHostCache.put(host, host_addr, Math.max(MIN_RECORD_TTL, ttl));
 			if (DEBUG) {
 				Log.d(RESOLVER_LOGTAG, "Resolved address " + host_addr + " for host " + host);
 			}
@@ -161,11 +232,43 @@ public class TwidereHostAddressResolver implements Constants, HostAddressResolve
 		return host;
 	}
 
-	void init() throws IOException {
-		if (mDNS != null) return;
-		mDNS = mLocalMappingOnly ? null : new SimpleResolver(mDNSAddress);
-		if (mDNS != null) {
-			mDNS.setTCP(true);
+	private InetAddress findReachableAddress(final List<InetAddress> addresses) throws InterruptedIOException {
+		if (addresses.size() == 1) return addresses.get(0);
+		final CompletionService<InetAddress> service = new ExecutorCompletionService<InetAddress>(mProbeExecutor);
+		final List<Future<InetAddress>> futures = new ArrayList<Future<InetAddress>>();
+		for (final InetAddress address : addresses) {
+			futures.add(service.submit(new Callable<InetAddress>() {
+
+				@Override
+				public InetAddress call() throws IOException {
+					return address.isReachable(PROBE_TIMEOUT) ? address : null;
+				}
+			}));
+		}
+		try {
+			// All probes are started at the same time, so wait a bit longer
+			// than a single probe when the pool is busy.
+			final long deadline = System.currentTimeMillis() + PROBE_TIMEOUT
+					* ((addresses.size() + MAX_PROBE_THREADS - 1) / MAX_PROBE_THREADS) + PROBE_TIMEOUT;
+			for (int i = 0, j = futures.size(); i < j; i++) {
+				final long timeout = deadline - System.currentTimeMillis();
+				if (timeout <= 0) return null;
+				final Future<InetAddress> future = service.poll(timeout, TimeUnit.MILLISECONDS);
+				if (future == null) return null;
+				try {
+					final InetAddress address = future.get();
+					if (address != null) return address;
+				} catch (final ExecutionException e) {
+					// Probe failed, try next one.
+				}
+			}
+			return null;
+		} catch (final InterruptedException e) {
+			throw new InterruptedIOException();
+		} finally {
+			for (final Future<InetAddress> future : futures) {
+				future.cancel(true);
+			}
 		}
 	}
 
@@ -173,18 +276,66 @@ public class TwidereHostAddressResolver implements Constants, HostAddressResolve
 		return !isEmpty(address);
 	}
 
-	private static class HostCache extends LinkedHashMap<String, String> {
+	private static String getLookupResult(final Future<String> future) throws IOException {
+		try {
+			return future.get();
+		} catch (final InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			final IOException ioe = new IOException(String.valueOf(cause));
+			ioe.initCause(cause);
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Bounded LRU cache of resolved addresses, entries expire after TTL of
+	 * DNS records.
+	 */
+	private static class HostCache {
+
+		private final LinkedHashMap<String, HostEntry> mEntries;
+
+		HostCache(final int max_size) {
+			mEntries = new LinkedHashMap<String, HostEntry>(16, 0.75f, true) {
+
+				private static final long serialVersionUID = -9216545511009449147L;
+
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<String, HostEntry> eldest) {
+					return size() > max_size;
+				}
+			};
+		}
 
-		private static final long serialVersionUID = -9216545511009449147L;
+		synchronized String get(final String host) {
+			final HostEntry entry = mEntries.get(host);
+			if (entry == null) return null;
+			if (entry.expires < System.currentTimeMillis()) {
+				mEntries.remove(host);
+				return null;
+			}
+			return entry.address;
+		}
 
-		HostCache(final int initialCapacity) {
-			super(initialCapacity);
+		synchronized void put(final String host, final String address, final long ttl) {
+			if (address == null) return;
+			mEntries.put(host, new HostEntry(address, System.currentTimeMillis() + ttl));
 		}
+	}
+
+	private static class HostEntry {
+
+		final String address;
+		final long expires;
 
-		@Override
-		public String put(final String key, final String value) {
-			if (value == null) return value;
-			return super.put(key, value);
+		HostEntry(final String address, final long expires) {
+			this.address = address;
+			this.expires = expires;
 		}
 	}
 }
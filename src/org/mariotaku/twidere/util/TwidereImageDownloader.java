@@ -1,23 +1,35 @@
 package org.mariotaku.twidere.util;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 
+import org.mariotaku.twidere.app.TwidereApplication;
+
 import twitter4j.TwitterException;
 import twitter4j.http.HttpClientWrapper;
 import twitter4j.http.HttpResponse;
 import android.content.Context;
+import android.graphics.BitmapFactory;
 
 import com.nostra13.universalimageloader.core.download.ImageDownloader;
 
 public class TwidereImageDownloader extends ImageDownloader {
 
 	private final Context context;
+	private final ImageDownloadBudget budget;
+	private final ImageDiscCache disc_cache;
 	private HttpClientWrapper client;
 
 	public TwidereImageDownloader(final Context context) {
 		this.context = context;
+		final TwidereApplication app = TwidereApplication.getInstance(context);
+		budget = app.getImageDownloadBudget();
+		disc_cache = app.getImageDiscCache();
 		initHttpClient();
 	}
 
@@ -27,14 +39,75 @@ public class TwidereImageDownloader extends ImageDownloader {
 
 	@Override
 	protected InputStream getStreamFromNetwork(final URI uri) throws IOException {
+		final String uri_string = uri.toString();
+		// Image loader writes the stream into cache file of this URI.
+		disc_cache.markDirty(uri_string);
+		final String source_url = ImageThumbnailUtils.getSourceUrl(uri_string);
+		if (source_url != null) return getThumbnailStream(source_url, ImageThumbnailUtils.getThumbnailSize(uri_string));
+		return getStreamFromNetwork(uri_string);
+	}
+
+	/**
+	 * Downloads original image into disc cache, so other sizes of this image
+	 * can be made without downloading it again.
+	 */
+	private ImageDiscCache.ImageInfo downloadToDiscCache(final String url) throws IOException {
+		final File temp_file = disc_cache.getTempFile(url);
+		final InputStream is = getStreamFromNetwork(url);
+		try {
+			final OutputStream os = new FileOutputStream(temp_file);
+			try {
+				Utils.copyStream(is, os);
+			} finally {
+				Utils.closeSilently(os);
+			}
+		} catch (final IOException e) {
+			temp_file.delete();
+			throw e;
+		} finally {
+			Utils.closeSilently(is);
+		}
+		final BitmapFactory.Options opts = new BitmapFactory.Options();
+		if (!ImageValidator.checkImageValidity(temp_file.getPath(), opts)) {
+			temp_file.delete();
+			throw new IOException("Invalid image " + url);
+		}
+		disc_cache.put(url, temp_file, opts.outWidth, opts.outHeight);
+		return disc_cache.getValidImage(url);
+	}
+
+	private InputStream getStreamFromNetwork(final String url) throws IOException {
 		final InputStream is;
+		budget.acquireForeground();
 		try {
-			final HttpResponse resp = Utils.getRedirectedHttpResponse(client, uri.toString());
+			final HttpResponse resp = Utils.getRedirectedHttpResponse(client, url);
 			is = resp.asStream();
 		} catch (final TwitterException e) {
+			budget.releaseForeground();
 			throw new IOException(e);
+		} catch (final RuntimeException e) {
+			budget.releaseForeground();
+			throw e;
+		}
+		// Slot is released when image loader closes the stream.
+		return budget.wrapForegroundStream(is);
+	}
+
+	private InputStream getThumbnailStream(final String url, final int[] size) throws IOException {
+		ImageDiscCache.ImageInfo source = disc_cache.getValidImage(url);
+		if (source == null) {
+			source = downloadToDiscCache(url);
+		}
+		if (source == null) throw new IOException("Unable to cache " + url);
+		if (size != null) {
+			final InputStream thumbnail = ImageThumbnailUtils.createThumbnail(source.file, source.width,
+					source.height, size[0], size[1]);
+			if (thumbnail != null) return thumbnail;
 		}
-		return is;
+		// Already small enough, or failed to scale. A copy of the original
+		// is only stored this time, ImageDiscCache returns the original for
+		// this thumbnail afterwards.
+		return new FileInputStream(source.file);
 	}
 
 }
@@ -0,0 +1,137 @@
+/*
+ *				Twidere - Twitter client for Android
+ *
+ * Copyright (C) 2012 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.mariotaku.twidere.Constants;
+import org.mariotaku.twidere.app.TwidereApplication;
+import org.mariotaku.twidere.util.httpclient.HttpClientImpl;
+
+import twitter4j.Twitter;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+
+/**
+ * Keeps built {@link Twitter} instances per account, so accounts table and
+ * preferences are read only once, and HTTP connections can be reused between
+ * requests. Cached instances are dropped when accounts are updated or
+ * connectivity settings change.
+ *
+ * @author mariotaku
+ */
+public final class TwitterInstanceCache implements Constants {
+
+	/**
+	 * Preferences used to build instances.
+	 */
+	private static final Set<String> SETTINGS_KEYS = new HashSet<String>(Arrays.asList(
+			PREFERENCE_KEY_CONNECTION_TIMEOUT, PREFERENCE_KEY_GZIP_COMPRESSING, PREFERENCE_KEY_IGNORE_SSL_ERROR,
+			PREFERENCE_KEY_ENABLE_PROXY, PREFERENCE_KEY_PROXY_HOST, PREFERENCE_KEY_PROXY_PORT,
+			PREFERENCE_KEY_CONSUMER_KEY, PREFERENCE_KEY_CONSUMER_SECRET, PREFERENCE_KEY_MAX_CONNECTIONS_PER_ROUTE,
+			PREFERENCE_KEY_MAX_TOTAL_CONNECTIONS));
+
+	private final Context mContext;
+	private final SharedPreferences mPreferences;
+	private final Map<String, Twitter> mInstances = new HashMap<String, Twitter>();
+
+	private int mGeneration;
+
+	private final BroadcastReceiver mAccountsChangedReceiver = new BroadcastReceiver() {
+
+		@Override
+		public void onReceive(final Context context, final Intent intent) {
+			if (BROADCAST_ACCOUNT_LIST_DATABASE_UPDATED.equals(intent.getAction())) {
+				invalidate();
+			}
+		}
+
+	};
+
+	// Preferences only keep a weak reference to listeners.
+	private final OnSharedPreferenceChangeListener mPreferenceChangeListener = new OnSharedPreferenceChangeListener() {
+
+		@Override
+		public void onSharedPreferenceChanged(final SharedPreferences preferences, final String key) {
+			if (SETTINGS_KEYS.contains(key)) {
+				invalidate();
+			}
+		}
+
+	};
+
+	public TwitterInstanceCache(final Context context) {
+		mContext = context.getApplicationContext();
+		mPreferences = context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
+		mPreferences.registerOnSharedPreferenceChangeListener(mPreferenceChangeListener);
+		// Accounts can also be changed from another process.
+		mContext.registerReceiver(mAccountsChangedReceiver, new IntentFilter(BROADCAST_ACCOUNT_LIST_DATABASE_UPDATED));
+	}
+
+	public Twitter getInstance(final long account_id, final boolean include_entities,
+			final boolean use_apache_httpclient) {
+		final String key = account_id + ":" + include_entities + ":" + use_apache_httpclient;
+		final int generation;
+		synchronized (mInstances) {
+			final Twitter cached = mInstances.get(key);
+			if (cached != null) return cached;
+			generation = mGeneration;
+		}
+		final Twitter twitter = Utils.createTwitterInstance(mContext, account_id, include_entities,
+				use_apache_httpclient);
+		if (twitter == null) return null;
+		synchronized (mInstances) {
+			// Don't cache instance built before an invalidation.
+			if (generation == mGeneration) {
+				mInstances.put(key, twitter);
+			}
+		}
+		return twitter;
+	}
+
+	/**
+	 * Drops all cached instances, next call of
+	 * {@link #getInstance(long, boolean, boolean)} will build new ones.
+	 */
+	public void invalidate() {
+		synchronized (mInstances) {
+			clearLocked();
+		}
+	}
+
+	private void clearLocked() {
+		mInstances.clear();
+		mGeneration++;
+		HttpClientImpl.releaseSharedClients();
+	}
+
+	public static TwitterInstanceCache getInstance(final Context context) {
+		if (context == null) return null;
+		return TwidereApplication.getInstance(context).getTwitterInstanceCache();
+	}
+}
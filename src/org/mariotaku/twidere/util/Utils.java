@@ -25,28 +25,9 @@ import static org.mariotaku.twidere.provider.TweetStore.CACHE_URIS;
 import static org.mariotaku.twidere.provider.TweetStore.DIRECT_MESSAGES_URIS;
 import static org.mariotaku.twidere.provider.TweetStore.STATUSES_URIS;
 import static org.mariotaku.twidere.util.HtmlEscapeHelper.toPlainText;
-import static org.mariotaku.twidere.util.TwidereLinkify.IMGLY_GROUP_ID;
-import static org.mariotaku.twidere.util.TwidereLinkify.IMGUR_GROUP_ID;
-import static org.mariotaku.twidere.util.TwidereLinkify.INSTAGRAM_GROUP_ID;
-import static org.mariotaku.twidere.util.TwidereLinkify.MOBYPICTURE_GROUP_ID;
-import static org.mariotaku.twidere.util.TwidereLinkify.PATTERN_IMGLY;
-import static org.mariotaku.twidere.util.TwidereLinkify.PATTERN_IMGUR;
-import static org.mariotaku.twidere.util.TwidereLinkify.PATTERN_INSTAGRAM;
-import static org.mariotaku.twidere.util.TwidereLinkify.PATTERN_LOCKERZ_AND_PLIXI;
-import static org.mariotaku.twidere.util.TwidereLinkify.PATTERN_MOBYPICTURE;
-import static org.mariotaku.twidere.util.TwidereLinkify.PATTERN_PHOTOZOU;
-import static org.mariotaku.twidere.util.TwidereLinkify.PATTERN_SINA_WEIBO_IMAGES;
-import static org.mariotaku.twidere.util.TwidereLinkify.PATTERN_TWITGOO;
-import static org.mariotaku.twidere.util.TwidereLinkify.PATTERN_TWITPIC;
-import static org.mariotaku.twidere.util.TwidereLinkify.PATTERN_TWITTER_IMAGES;
 import static org.mariotaku.twidere.util.TwidereLinkify.PATTERN_TWITTER_PROFILE_IMAGES;
-import static org.mariotaku.twidere.util.TwidereLinkify.PATTERN_YFROG;
-import static org.mariotaku.twidere.util.TwidereLinkify.PHOTOZOU_GROUP_ID;
 import static org.mariotaku.twidere.util.TwidereLinkify.SINA_WEIBO_IMAGES_AVAILABLE_SIZES;
-import static org.mariotaku.twidere.util.TwidereLinkify.TWITGOO_GROUP_ID;
-import static org.mariotaku.twidere.util.TwidereLinkify.TWITPIC_GROUP_ID;
 import static org.mariotaku.twidere.util.TwidereLinkify.TWITTER_PROFILE_IMAGES_AVAILABLE_SIZES;
-import static org.mariotaku.twidere.util.TwidereLinkify.YFROG_GROUP_ID;
 
 import java.io.Closeable;
 import java.io.File;
@@ -115,10 +96,9 @@ import org.mariotaku.twidere.provider.TweetStore.CachedStatuses;
 import org.mariotaku.twidere.provider.TweetStore.CachedTrends;
 import org.mariotaku.twidere.provider.TweetStore.CachedUsers;
 import org.mariotaku.twidere.provider.TweetStore.DirectMessages;
-import org.mariotaku.twidere.provider.TweetStore.Filters;
 import org.mariotaku.twidere.provider.TweetStore.Statuses;
 import org.mariotaku.twidere.provider.TweetStore.Tabs;
-import org.mariotaku.twidere.util.HtmlLinkExtractor.HtmlLink;
+import org.mariotaku.twidere.util.HtmlLinkExtractor.OnLinkFoundListener;
 import org.mariotaku.twidere.util.httpclient.HttpClientImpl;
 
 import twitter4j.DirectMessage;
@@ -142,8 +122,11 @@ import twitter4j.auth.TwipOModeAuthorization;
 import twitter4j.conf.Configuration;
 import twitter4j.conf.ConfigurationBuilder;
 import twitter4j.http.HostAddressResolver;
+import twitter4j.http.HttpClient;
 import twitter4j.http.HttpClientWrapper;
+import twitter4j.http.HttpRequest;
 import twitter4j.http.HttpResponse;
+import twitter4j.http.RequestMethod;
 import android.app.Activity;
 import android.content.ContentResolver;
 import android.content.ContentValues;
@@ -157,7 +140,6 @@ import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory;
@@ -414,38 +396,13 @@ public final class Utils implements Constants {
 		if (table == null) return null;
 		final StringBuilder builder = new StringBuilder();
 		if (selection != null) {
+			builder.append("(");
 			builder.append(selection);
-			builder.append(" AND ");
+			builder.append(") AND ");
 		}
-		builder.append(Statuses._ID + " NOT IN ( ");
-		builder.append("SELECT DISTINCT " + table + "." + Statuses._ID + " FROM " + table);
-		builder.append(" WHERE " + table + "." + Statuses.SCREEN_NAME + " IN ( SELECT " + TABLE_FILTERED_USERS + "."
-				+ Filters.Users.TEXT + " FROM " + TABLE_FILTERED_USERS + " )");
-		builder.append(" AND " + table + "." + Statuses.IS_GAP + " IS NULL");
-		builder.append(" OR " + table + "." + Statuses.IS_GAP + " == 0");
-		builder.append(" UNION ");
-		builder.append("SELECT DISTINCT " + table + "." + Statuses._ID + " FROM " + table + ", "
-				+ TABLE_FILTERED_SOURCES);
-		builder.append(" WHERE " + table + "." + Statuses.SOURCE + " LIKE '%>'||" + TABLE_FILTERED_SOURCES + "."
-				+ Filters.Sources.TEXT + "||'</a>%'");
-		builder.append(" AND " + table + "." + Statuses.IS_GAP + " IS NULL");
-		builder.append(" OR " + table + "." + Statuses.IS_GAP + " == 0");
-		builder.append(" UNION ");
-		builder.append("SELECT DISTINCT " + table + "." + Statuses._ID + " FROM " + table + ", "
-				+ TABLE_FILTERED_KEYWORDS);
-		builder.append(" WHERE " + table + "." + Statuses.TEXT_PLAIN + " LIKE '%'||" + TABLE_FILTERED_KEYWORDS + "."
-				+ Filters.Keywords.TEXT + "||'%'");
-		builder.append(" AND " + table + "." + Statuses.IS_GAP + " IS NULL");
-		builder.append(" OR " + table + "." + Statuses.IS_GAP + " == 0");
-		builder.append(" UNION ");
-		builder.append("SELECT DISTINCT " + table + "." + Statuses._ID + " FROM " + table + ", " + TABLE_FILTERED_LINKS);
-		builder.append(" WHERE " + table + "." + Statuses.TEXT_HTML + " LIKE '%<a href=\"%'||" + TABLE_FILTERED_LINKS
-				+ "." + Filters.Links.TEXT + "||'%\">%'");
-		builder.append(" OR " + table + "." + Statuses.TEXT_HTML + " LIKE '%>%'||" + TABLE_FILTERED_LINKS + "."
-				+ Filters.Links.TEXT + "||'%</a>%'");
-		builder.append(" AND " + table + "." + Statuses.IS_GAP + " IS NULL");
-		builder.append(" OR " + table + "." + Statuses.IS_GAP + " == 0");
-		builder.append(" )");
+		// Gaps are never filtered, or we will not be able to load more.
+		builder.append("(" + table + "." + Statuses.IS_FILTERED + " IS NOT 1");
+		builder.append(" OR " + table + "." + Statuses.IS_GAP + " = 1)");
 		return builder.toString();
 	}
 
@@ -971,31 +928,7 @@ public final class Utils implements Constants {
 	}
 
 	public static ImageSpec getAllAvailableImage(final String link, final boolean large_image_preview) {
-		if (link == null) return null;
-		Matcher m;
-		m = PATTERN_TWITTER_IMAGES.matcher(link);
-		if (m.matches()) return getTwitterImage(link, large_image_preview);
-		m = PATTERN_TWITPIC.matcher(link);
-		if (m.matches()) return getTwitpicImage(matcherGroup(m, TWITPIC_GROUP_ID), link, large_image_preview);
-		m = PATTERN_INSTAGRAM.matcher(link);
-		if (m.matches()) return getInstagramImage(matcherGroup(m, INSTAGRAM_GROUP_ID), link, large_image_preview);
-		m = PATTERN_IMGUR.matcher(link);
-		if (m.matches()) return getImgurImage(matcherGroup(m, IMGUR_GROUP_ID), link, large_image_preview);
-		m = PATTERN_IMGLY.matcher(link);
-		if (m.matches()) return getImglyImage(matcherGroup(m, IMGLY_GROUP_ID), link, large_image_preview);
-		m = PATTERN_YFROG.matcher(link);
-		if (m.matches()) return getYfrogImage(matcherGroup(m, YFROG_GROUP_ID), link, large_image_preview);
-		m = PATTERN_LOCKERZ_AND_PLIXI.matcher(link);
-		if (m.matches()) return getLockerzAndPlixiImage(link, large_image_preview);
-		m = PATTERN_SINA_WEIBO_IMAGES.matcher(link);
-		if (m.matches()) return getSinaWeiboImage(link, large_image_preview);
-		m = PATTERN_TWITGOO.matcher(link);
-		if (m.matches()) return getTwitgooImage(matcherGroup(m, TWITGOO_GROUP_ID), link, large_image_preview);
-		m = PATTERN_MOBYPICTURE.matcher(link);
-		if (m.matches()) return getMobyPictureImage(matcherGroup(m, MOBYPICTURE_GROUP_ID), link, large_image_preview);
-		m = PATTERN_PHOTOZOU.matcher(link);
-		if (m.matches()) return getPhotozouImage(matcherGroup(m, PHOTOZOU_GROUP_ID), link, large_image_preview);
-		return null;
+		return ImageHostResolver.getImage(link, large_image_preview);
 	}
 
 	public static int getAllStatusesCount(final Context context, final Uri uri) {
@@ -1168,9 +1101,28 @@ public final class Utils implements Constants {
 
 	public static HttpClientWrapper getHttpClient(final int timeout_millis, final boolean ignore_ssl_error,
 			final Proxy proxy, final HostAddressResolver resolver, final String user_agent) {
+		return getHttpClient(timeout_millis, ignore_ssl_error, proxy, resolver, user_agent, 0, 0);
+	}
+
+	public static HttpClientWrapper getHttpClient(final int timeout_millis, final boolean ignore_ssl_error,
+			final Proxy proxy, final HostAddressResolver resolver, final String user_agent,
+			final int max_total_connections, final int max_connections_per_route) {
+		return new HttpClientWrapper(getHttpClientConfiguration(timeout_millis, ignore_ssl_error, proxy, resolver,
+				user_agent, max_total_connections, max_connections_per_route));
+	}
+
+	public static Configuration getHttpClientConfiguration(final int timeout_millis, final boolean ignore_ssl_error,
+			final Proxy proxy, final HostAddressResolver resolver, final String user_agent,
+			final int max_total_connections, final int max_connections_per_route) {
 		final ConfigurationBuilder cb = new ConfigurationBuilder();
 		cb.setHttpConnectionTimeout(timeout_millis);
 		cb.setIgnoreSSLError(ignore_ssl_error);
+		if (max_total_connections > 0) {
+			cb.setHttpMaxTotalConnections(max_total_connections);
+		}
+		if (max_connections_per_route > 0) {
+			cb.setHttpDefaultMaxPerRoute(max_connections_per_route);
+		}
 		if (proxy != null && !Proxy.NO_PROXY.equals(proxy)) {
 			final SocketAddress address = proxy.address();
 			if (address instanceof InetSocketAddress) {
@@ -1182,18 +1134,28 @@ public final class Utils implements Constants {
 		if (user_agent != null) {
 			cb.setUserAgent(user_agent);
 		}
-		// cb.setHttpClientImplementation(HttpClientImpl.class);
-		return new HttpClientWrapper(cb.build());
+		// Share connection pool with Twitter instances.
+		cb.setHttpClientImplementation(HttpClientImpl.class);
+		return cb.build();
 	}
 
 	public static HttpClientWrapper getImageLoaderHttpClient(final Context context) {
+		if (context == null) return null;
+		return new HttpClientWrapper(getImageLoaderHttpClientConfiguration(context));
+	}
+
+	public static Configuration getImageLoaderHttpClientConfiguration(final Context context) {
 		if (context == null) return null;
 		final SharedPreferences prefs = context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
 		final int timeout_millis = prefs.getInt(PREFERENCE_KEY_CONNECTION_TIMEOUT, 10000) * 1000;
 		final Proxy proxy = getProxy(context);
 		final String user_agent = getBrowserUserAgent(context);
 		final HostAddressResolver resolver = TwidereApplication.getInstance(context).getHostAddressResolver();
-		return getHttpClient(timeout_millis, true, proxy, resolver, user_agent);
+		final int max_total = prefs.getInt(PREFERENCE_KEY_MAX_TOTAL_CONNECTIONS, PREFERENCE_DEFAULT_MAX_TOTAL_CONNECTIONS);
+		final int max_per_route = prefs.getInt(PREFERENCE_KEY_MAX_CONNECTIONS_PER_ROUTE,
+				PREFERENCE_DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+		return getHttpClientConfiguration(timeout_millis, true, proxy, resolver, user_agent, max_total,
+				max_per_route);
 	}
 
 	public static String getImageMimeType(final File image) {
@@ -1244,14 +1206,17 @@ public final class Utils implements Constants {
 	public static List<ImageSpec> getImagesInStatus(final String status_string) {
 		if (status_string == null) return Collections.emptyList();
 		final List<ImageSpec> images = new ArrayList<ImageSpec>();
-		final HtmlLinkExtractor extractor = new HtmlLinkExtractor();
-		extractor.grabLinks(status_string);
-		for (final HtmlLink link : extractor.grabLinks(status_string)) {
-			final ImageSpec spec = getAllAvailableImage(link.getLink(), true);
-			if (spec != null) {
-				images.add(spec);
+		HtmlLinkExtractor.grabLinks(status_string, new OnLinkFoundListener() {
+
+			@Override
+			public boolean onLinkFound(final String link, final String text, final int start, final int end) {
+				final ImageSpec spec = getAllAvailableImage(link, true);
+				if (spec != null) {
+					images.add(spec);
+				}
+				return true;
 			}
-		}
+		});
 		return images;
 	}
 
@@ -1446,22 +1411,18 @@ public final class Utils implements Constants {
 
 	public static ImageSpec getPreviewImage(final String html, final int display_option) {
 		if (html == null) return null;
-		if (display_option == INLINE_IMAGE_PREVIEW_DISPLAY_OPTION_CODE_NONE
-				&& (html.contains(".twimg.com/") || html.contains("://instagr.am/")
-						|| html.contains("://instagram.com/") || html.contains("://imgur.com/")
-						|| html.contains("://i.imgur.com/") || html.contains("://twitpic.com/")
-						|| html.contains("://img.ly/") || html.contains("://yfrog.com/")
-						|| html.contains("://twitgoo.com/") || html.contains("://moby.to/")
-						|| html.contains("://plixi.com/p/") || html.contains("://lockerz.com/s/")
-						|| html.contains(".sinaimg.cn/") || html.contains("://photozou.jp/")))
-			return ImageSpec.getEmpty();
 		final boolean large_image_preview = display_option == INLINE_IMAGE_PREVIEW_DISPLAY_OPTION_CODE_LARGE;
-		final HtmlLinkExtractor extractor = new HtmlLinkExtractor();
-		for (final HtmlLink link : extractor.grabLinks(html)) {
-			final ImageSpec image = getAllAvailableImage(link.getLink(), large_image_preview);
-			if (image != null) return image;
-		}
-		return null;
+		final ImageSpec[] image = new ImageSpec[1];
+		HtmlLinkExtractor.grabLinks(html, new OnLinkFoundListener() {
+
+			@Override
+			public boolean onLinkFound(final String link, final String text, final int start, final int end) {
+				image[0] = getAllAvailableImage(link, large_image_preview);
+				return image[0] == null;
+			}
+		});
+		if (image[0] == null) return null;
+		return display_option == INLINE_IMAGE_PREVIEW_DISPLAY_OPTION_CODE_NONE ? ImageSpec.getEmpty() : image[0];
 	}
 
 	public static Proxy getProxy(final Context context) {
@@ -1490,35 +1451,49 @@ public final class Utils implements Constants {
 
 	public static HttpResponse getRedirectedHttpResponse(final HttpClientWrapper client, final String url)
 			throws TwitterException {
+		return getRedirectedHttpResponse(client, null, url, null);
+	}
+
+	/**
+	 * Same as {@link #getRedirectedHttpResponse(HttpClientWrapper, String)},
+	 * with extra request headers, like "Range".
+	 */
+	public static HttpResponse getRedirectedHttpResponse(final HttpClient client, final String url,
+			final Map<String, String> headers) throws TwitterException {
+		return getRedirectedHttpResponse(null, client, url, headers);
+	}
+
+	/**
+	 * Requests with <code>wrapper</code> if it's not null, or with
+	 * <code>client</code> and <code>headers</code> otherwise.
+	 */
+	private static HttpResponse getRedirectedHttpResponse(final HttpClientWrapper wrapper, final HttpClient client,
+			final String url, final Map<String, String> headers) throws TwitterException {
 		if (url == null) return null;
 		final ArrayList<String> urls = new ArrayList<String>();
 		urls.add(url);
-		HttpResponse resp;
-		try {
-			resp = client.get(url, url);
-		} catch (final TwitterException te) {
-			if (isRedirected(te.getStatusCode())) {
-				resp = te.getHttpResponse();
-			} else
-				throw te;
-		}
+		HttpResponse resp = getHttpResponseAllowingRedirect(wrapper, client, url, headers);
 		while (resp != null && isRedirected(resp.getStatusCode())) {
 			final String request_url = resp.getResponseHeader("Location");
 			if (request_url == null) return null;
 			if (urls.contains(request_url)) throw new TwitterException("Too many redirects");
 			urls.add(request_url);
-			try {
-				resp = client.get(request_url, request_url);
-			} catch (final TwitterException te) {
-				if (isRedirected(te.getStatusCode())) {
-					resp = te.getHttpResponse();
-				} else
-					throw te;
-			}
+			resp = getHttpResponseAllowingRedirect(wrapper, client, request_url, headers);
 		}
 		return resp;
 	}
 
+	private static HttpResponse getHttpResponseAllowingRedirect(final HttpClientWrapper wrapper,
+			final HttpClient client, final String url, final Map<String, String> headers) throws TwitterException {
+		try {
+			if (wrapper != null) return wrapper.get(url, url);
+			return client.request(new HttpRequest(RequestMethod.GET, url, url, null, null, headers));
+		} catch (final TwitterException te) {
+			if (isRedirected(te.getStatusCode())) return te.getHttpResponse();
+			throw te;
+		}
+	}
+
 	public static String getShareStatus(final Context context, final CharSequence title, final CharSequence text) {
 		if (context == null) return null;
 		String share_format = context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE).getString(
@@ -1737,6 +1712,18 @@ public final class Utils implements Constants {
 	public static Twitter getTwitterInstance(final Context context, final long account_id,
 			final boolean include_entities, final boolean use_apache_httpclient) {
 		if (context == null) return null;
+		final TwitterInstanceCache cache = TwitterInstanceCache.getInstance(context);
+		return cache.getInstance(account_id, include_entities, use_apache_httpclient);
+	}
+
+	/**
+	 * Builds a new {@link Twitter} instance for the account, use
+	 * {@link #getTwitterInstance(Context, long, boolean, boolean)} to get a
+	 * cached one.
+	 */
+	public static Twitter createTwitterInstance(final Context context, final long account_id,
+			final boolean include_entities, final boolean use_apache_httpclient) {
+		if (context == null) return null;
 		final TwidereApplication app = TwidereApplication.getInstance(context);
 		final SharedPreferences preferences = context.getSharedPreferences(SHARED_PREFERENCES_NAME,
 				Context.MODE_PRIVATE);
@@ -1762,6 +1749,10 @@ public final class Utils implements Constants {
 					cb.setHttpClientImplementation(HttpClientImpl.class);
 				}
 				cb.setHttpConnectionTimeout(connection_timeout);
+				cb.setHttpMaxTotalConnections(preferences.getInt(PREFERENCE_KEY_MAX_TOTAL_CONNECTIONS,
+						PREFERENCE_DEFAULT_MAX_TOTAL_CONNECTIONS));
+				cb.setHttpDefaultMaxPerRoute(preferences.getInt(PREFERENCE_KEY_MAX_CONNECTIONS_PER_ROUTE,
+						PREFERENCE_DEFAULT_MAX_CONNECTIONS_PER_ROUTE));
 				setUserAgent(context, cb);
 				cb.setGZIPEnabled(enable_gzip_compressing);
 				cb.setIgnoreSSLError(ignore_ssl_error);
@@ -1883,36 +1874,6 @@ public final class Utils implements Constants {
 		return plugged || level / scale > 0.15f;
 	}
 
-	public static boolean isFiltered(final SQLiteDatabase database, final ParcelableStatus status) {
-		if (status == null) return false;
-		return isFiltered(database, status.text_plain, status.text_html, status.screen_name, status.source);
-	}
-
-	public static boolean isFiltered(final SQLiteDatabase database, final String text_plain, final String text_html,
-			final String screen_name, final String source) {
-		if (database == null) return false;
-		final StringBuilder builder = new StringBuilder();
-		final String[] selection_args = new String[] { text_plain, text_html, screen_name, source };
-		builder.append("SELECT NULL WHERE");
-		builder.append("(SELECT 1 IN (SELECT ? LIKE '%'||" + TABLE_FILTERED_KEYWORDS + "." + Filters.TEXT
-				+ "||'%' FROM " + TABLE_FILTERED_KEYWORDS + "))");
-		builder.append(" OR ");
-		builder.append("(SELECT 1 IN (SELECT ? LIKE '%<a href=\"%'||" + TABLE_FILTERED_LINKS + "." + Filters.TEXT
-				+ "||'%\">%' FROM " + TABLE_FILTERED_LINKS + "))");
-		builder.append(" OR ");
-		builder.append("(SELECT ? IN (SELECT " + Filters.TEXT + " FROM " + TABLE_FILTERED_USERS + "))");
-		builder.append(" OR ");
-		builder.append("(SELECT 1 IN (SELECT ? LIKE '%>'||" + TABLE_FILTERED_SOURCES + "." + Filters.TEXT
-				+ "||'</a>%' FROM " + TABLE_FILTERED_SOURCES + "))");
-		final Cursor cur = database.rawQuery(builder.toString(), selection_args);
-		if (cur == null) return false;
-		try {
-			return cur.getCount() > 0;
-		} finally {
-			cur.close();
-		}
-	}
-
 	public static boolean isMyAccount(final Context context, final long account_id) {
 		if (context == null) return false;
 		final ContentResolver resolver = context.getContentResolver();
@@ -2164,8 +2125,10 @@ public final class Utils implements Constants {
 		if (status.getCreatedAt() != null) {
 			values.put(Statuses.STATUS_TIMESTAMP, status.getCreatedAt().getTime());
 		}
-		values.put(Statuses.TEXT_HTML, formatStatusText(status));
+		final String text_html = formatStatusText(status);
+		values.put(Statuses.TEXT_HTML, text_html);
 		values.put(Statuses.TEXT_PLAIN, status.getText());
+		values.put(Statuses.TEXT_SPANS, StatusSpanTable.serializeHtml(text_html));
 		values.put(Statuses.RETWEET_COUNT, status.getRetweetCount());
 		values.put(Statuses.IN_REPLY_TO_SCREEN_NAME, status.getInReplyToScreenName());
 		values.put(Statuses.IN_REPLY_TO_STATUS_ID, status.getInReplyToStatusId());
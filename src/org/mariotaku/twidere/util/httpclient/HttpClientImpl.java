@@ -30,6 +30,7 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.X509Certificate;
+import java.util.HashMap;
 import java.util.Map;
 
 import javax.net.ssl.SSLContext;
@@ -37,6 +38,7 @@ import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
 import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.HttpClient;
@@ -46,21 +48,21 @@ import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
 import org.apache.http.conn.params.ConnRoutePNames;
-import org.apache.http.conn.scheme.PlainSocketFactory;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.entity.mime.MultipartEntity;
 import org.apache.http.entity.mime.content.ContentBody;
 import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.entity.mime.content.StringBody;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreProtocolPNames;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
 
 import twitter4j.TwitterException;
 import twitter4j.http.HostAddressResolver;
@@ -84,35 +86,43 @@ public class HttpClientImpl implements twitter4j.http.HttpClient, HttpResponseCo
 
 	private static final SSLSocketFactory TRUST_ALL_SSL_SOCKET_FACTORY = TrustAllSSLSocketFactory.getInstance();
 
-	public HttpClientImpl(final HttpClientConfiguration conf) {
-		this.conf = conf;
-		final SchemeRegistry registry = new SchemeRegistry();
-		final SSLSocketFactory factory = conf.isSSLErrorIgnored() ? TRUST_ALL_SSL_SOCKET_FACTORY : SSLSocketFactory
-				.getSocketFactory();
-		registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
-		registry.register(new Scheme("https", factory, 443));
-		final HttpParams params = new BasicHttpParams();
-		final ThreadSafeClientConnManager cm = new ThreadSafeClientConnManager(params, registry);
-		final DefaultHttpClient client = new DefaultHttpClient(cm, params);
-		final HttpParams client_params = client.getParams();
-		HttpConnectionParams.setConnectionTimeout(client_params, conf.getHttpConnectionTimeout());
-		HttpConnectionParams.setSoTimeout(client_params, conf.getHttpReadTimeout());
+	private static final int SOCKET_BUFFER_SIZE = 8192;
+	private static final int PARTIAL_CONTENT = 206;
+	private static final long DEFAULT_KEEP_ALIVE_DURATION = 30 * 1000;
 
-		if (conf.getHttpProxyHost() != null && !conf.getHttpProxyHost().equals("")) {
-			final HttpHost proxy = new HttpHost(conf.getHttpProxyHost(), conf.getHttpProxyPort());
-			client.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, proxy);
+	/**
+	 * Uses timeout sent by server, or keeps connection for
+	 * {@link #DEFAULT_KEEP_ALIVE_DURATION} instead of forever.
+	 */
+	private static final ConnectionKeepAliveStrategy KEEP_ALIVE_STRATEGY = new ConnectionKeepAliveStrategy() {
 
-			if (conf.getHttpProxyUser() != null && !conf.getHttpProxyUser().equals("")) {
-				if (logger.isDebugEnabled()) {
-					logger.debug("Proxy AuthUser: " + conf.getHttpProxyUser());
-					logger.debug("Proxy AuthPassword: " + InternalStringUtil.maskString(conf.getHttpProxyPassword()));
-				}
-				client.getCredentialsProvider().setCredentials(
-						new AuthScope(conf.getHttpProxyHost(), conf.getHttpProxyPort()),
-						new UsernamePasswordCredentials(conf.getHttpProxyUser(), conf.getHttpProxyPassword()));
+		private final ConnectionKeepAliveStrategy mDefaultStrategy = new DefaultConnectionKeepAliveStrategy();
+
+		@Override
+		public long getKeepAliveDuration(final HttpResponse response, final HttpContext context) {
+			final long duration = mDefaultStrategy.getKeepAliveDuration(response, context);
+			return duration > 0 ? duration : DEFAULT_KEEP_ALIVE_DURATION;
+		}
+	};
+
+	/**
+	 * Clients are shared between instances with same connection settings, so
+	 * pooled connections can be reused across accounts.
+	 */
+	private static final Map<String, HttpClient> sSharedClients = new HashMap<String, HttpClient>();
+
+	public HttpClientImpl(final HttpClientConfiguration conf) {
+		this.conf = conf;
+		final String key = getClientKey(conf);
+		synchronized (sSharedClients) {
+			final HttpClient shared = sSharedClients.get(key);
+			if (shared != null) {
+				client = shared;
+			} else {
+				client = createClient(conf);
+				sSharedClients.put(key, client);
 			}
 		}
-		this.client = client;
 	}
 
 	@Override
@@ -125,7 +135,7 @@ public class HttpClientImpl implements twitter4j.http.HttpClient, HttpResponseCo
 			final URL url_orig = new URL(url_string);
 			final String host = url_orig.getHost();
 			final String resolved_host = resolver != null ? resolver.resolve(host) : null;
-			final String resolved_url = isEmpty(resolved_host) ? url_string.replace("://" + host, "://" + resolved_host)
+			final String resolved_url = !isEmpty(resolved_host) ? url_string.replace("://" + host, "://" + resolved_host)
 					: url_string;
 
 			if (req.getMethod() == RequestMethod.GET) {
@@ -180,7 +190,7 @@ public class HttpClientImpl implements twitter4j.http.HttpClient, HttpResponseCo
 					&& (authorizationHeader = req.getAuthorization().getAuthorizationHeader(req)) != null) {
 				commonsRequest.addHeader("Authorization", authorizationHeader);
 			}
-			if (isEmpty(resolved_host) && !host.equals(resolved_host)) {
+			if (!isEmpty(resolved_host) && !host.equals(resolved_host)) {
 				commonsRequest.addHeader("Host", host);
 			}
 
@@ -195,7 +205,8 @@ public class HttpClientImpl implements twitter4j.http.HttpClient, HttpResponseCo
 				throw new TwitterException("Unknown error", e);
 			}
 			final int statusCode = res.getStatusCode();
-			if (statusCode < OK || statusCode > ACCEPTED) throw new TwitterException(res.asString(), req, res);
+			if ((statusCode < OK || statusCode > ACCEPTED) && statusCode != PARTIAL_CONTENT)
+				throw new TwitterException(res.asString(), req, res);
 			return res;
 		} catch (final IOException e) {
 			throw new TwitterException(e);
@@ -204,7 +215,58 @@ public class HttpClientImpl implements twitter4j.http.HttpClient, HttpResponseCo
 
 	@Override
 	public void shutdown() {
-		client.getConnectionManager().shutdown();
+		// Client is shared with other instances, it will be released by
+		// releaseSharedClients().
+	}
+
+	/**
+	 * Forgets all shared clients, idle connections of them are closed, and
+	 * requests in progress are not affected.
+	 */
+	public static void releaseSharedClients() {
+		synchronized (sSharedClients) {
+			sSharedClients.clear();
+		}
+		SharedClientConnManager.closeIdleConnections();
+	}
+
+	private static HttpClient createClient(final HttpClientConfiguration conf) {
+		final SSLSocketFactory factory = conf.isSSLErrorIgnored() ? TRUST_ALL_SSL_SOCKET_FACTORY : SSLSocketFactory
+				.getSocketFactory();
+		final SharedClientConnManager cm = SharedClientConnManager.getInstance(conf, factory);
+		final HttpParams params = new BasicHttpParams();
+		final DefaultHttpClient client = new DefaultHttpClient(cm, params);
+		client.setKeepAliveStrategy(KEEP_ALIVE_STRATEGY);
+		final HttpParams client_params = client.getParams();
+		HttpConnectionParams.setConnectionTimeout(client_params, conf.getHttpConnectionTimeout());
+		HttpConnectionParams.setSoTimeout(client_params, conf.getHttpReadTimeout());
+		HttpConnectionParams.setTcpNoDelay(client_params, true);
+		HttpConnectionParams.setSocketBufferSize(client_params, SOCKET_BUFFER_SIZE);
+		// Don't wait forever for a pooled connection.
+		ConnManagerParams.setTimeout(client_params, conf.getHttpConnectionTimeout());
+
+		if (conf.getHttpProxyHost() != null && !conf.getHttpProxyHost().equals("")) {
+			final HttpHost proxy = new HttpHost(conf.getHttpProxyHost(), conf.getHttpProxyPort());
+			client.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, proxy);
+
+			if (conf.getHttpProxyUser() != null && !conf.getHttpProxyUser().equals("")) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("Proxy AuthUser: " + conf.getHttpProxyUser());
+					logger.debug("Proxy AuthPassword: " + InternalStringUtil.maskString(conf.getHttpProxyPassword()));
+				}
+				client.getCredentialsProvider().setCredentials(
+						new AuthScope(conf.getHttpProxyHost(), conf.getHttpProxyPort()),
+						new UsernamePasswordCredentials(conf.getHttpProxyUser(), conf.getHttpProxyPassword()));
+			}
+		}
+		return client;
+	}
+
+	private static String getClientKey(final HttpClientConfiguration conf) {
+		return conf.isSSLErrorIgnored() + "\n" + conf.getHttpConnectionTimeout() + "\n" + conf.getHttpReadTimeout()
+				+ "\n" + conf.getHttpProxyHost() + "\n" + conf.getHttpProxyPort() + "\n" + conf.getHttpProxyUser()
+				+ "\n" + conf.getHttpProxyPassword() + "\n" + conf.getHttpMaxTotalConnections() + "\n"
+				+ conf.getHttpDefaultMaxPerRoute();
 	}
 
 	final static class TrustAllSSLSocketFactory extends SSLSocketFactory {
@@ -0,0 +1,194 @@
+/*
+ *				Twidere - Twitter client for Android
+ *
+ * Copyright (C) 2012 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util.httpclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+
+import twitter4j.http.HttpClientConfiguration;
+
+/**
+ * Process-wide connection pool used by all {@link HttpClientImpl} instances.
+ * One manager is created for each SSL checking mode and connection limits,
+ * idle and expired connections of all managers are evicted by a background
+ * thread.
+ *
+ * @author mariotaku
+ */
+public final class SharedClientConnManager extends ThreadSafeClientConnManager {
+
+	private static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 20;
+	private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 6;
+
+	private static final long IDLE_CONNECTION_TIMEOUT = 60 * 1000;
+	private static final long EVICTION_INTERVAL = 30 * 1000;
+
+	private static final Map<String, SharedClientConnManager> sManagers = new HashMap<String, SharedClientConnManager>();
+	private static Thread sEvictionThread;
+
+	private final Set<ManagedClientConnection> mLeasedConnections = Collections
+			.synchronizedSet(new HashSet<ManagedClientConnection>());
+
+	private SharedClientConnManager(final HttpParams params, final SchemeRegistry registry) {
+		super(params, registry);
+	}
+
+	/**
+	 * @return Number of pooled connections not in use.
+	 */
+	public int getAvailableConnectionsCount() {
+		return Math.max(0, getConnectionsInPool() - getLeasedConnectionsCount());
+	}
+
+	/**
+	 * @return Number of connections currently used by requests.
+	 */
+	public int getLeasedConnectionsCount() {
+		return mLeasedConnections.size();
+	}
+
+	@Override
+	public void releaseConnection(final ManagedClientConnection conn, final long validDuration,
+			final TimeUnit timeUnit) {
+		mLeasedConnections.remove(conn);
+		super.releaseConnection(conn, validDuration, timeUnit);
+	}
+
+	@Override
+	public ClientConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+		final ClientConnectionRequest request = super.requestConnection(route, state);
+		return new ClientConnectionRequest() {
+
+			@Override
+			public void abortRequest() {
+				request.abortRequest();
+			}
+
+			@Override
+			public ManagedClientConnection getConnection(final long timeout, final TimeUnit tunit)
+					throws InterruptedException, ConnectionPoolTimeoutException {
+				final ManagedClientConnection conn = request.getConnection(timeout, tunit);
+				if (conn != null) {
+					mLeasedConnections.add(conn);
+				}
+				return conn;
+			}
+		};
+	}
+
+	@Override
+	public void shutdown() {
+		// Shared with other clients, never shut down.
+	}
+
+	public static SharedClientConnManager getInstance(final HttpClientConfiguration conf,
+			final SSLSocketFactory ssl_socket_factory) {
+		final int max_total = conf.getHttpMaxTotalConnections() > 0 ? conf.getHttpMaxTotalConnections()
+				: DEFAULT_MAX_TOTAL_CONNECTIONS;
+		final int max_per_route = conf.getHttpDefaultMaxPerRoute() > 0 ? conf.getHttpDefaultMaxPerRoute()
+				: DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+		final String key = conf.isSSLErrorIgnored() + ":" + max_total + ":" + max_per_route;
+		synchronized (sManagers) {
+			final SharedClientConnManager cached = sManagers.get(key);
+			if (cached != null) return cached;
+			final SchemeRegistry registry = new SchemeRegistry();
+			registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+			registry.register(new Scheme("https", ssl_socket_factory, 443));
+			final HttpParams params = new BasicHttpParams();
+			ConnManagerParams.setMaxTotalConnections(params, max_total);
+			ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(max_per_route));
+			final SharedClientConnManager manager = new SharedClientConnManager(params, registry);
+			sManagers.put(key, manager);
+			startEvictionThread();
+			return manager;
+		}
+	}
+
+	/**
+	 * @return Leased and available connections count of all shared managers.
+	 */
+	public static int[] getConnectionsCount() {
+		int leased = 0, available = 0;
+		for (final SharedClientConnManager manager : getManagers()) {
+			leased += manager.getLeasedConnectionsCount();
+			available += manager.getAvailableConnectionsCount();
+		}
+		return new int[] { leased, available };
+	}
+
+	/**
+	 * Closes idle connections of all shared managers, used when connection
+	 * settings are changed.
+	 */
+	public static void closeIdleConnections() {
+		for (final SharedClientConnManager manager : getManagers()) {
+			manager.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private static List<SharedClientConnManager> getManagers() {
+		synchronized (sManagers) {
+			return new ArrayList<SharedClientConnManager>(sManagers.values());
+		}
+	}
+
+	private static void startEvictionThread() {
+		if (sEvictionThread != null) return;
+		sEvictionThread = new Thread("IdleConnectionEvictor") {
+
+			@Override
+			public void run() {
+				while (true) {
+					try {
+						Thread.sleep(EVICTION_INTERVAL);
+					} catch (final InterruptedException e) {
+						return;
+					}
+					for (final SharedClientConnManager manager : getManagers()) {
+						manager.closeExpiredConnections();
+						manager.closeIdleConnections(IDLE_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+					}
+				}
+			}
+		};
+		sEvictionThread.setDaemon(true);
+		sEvictionThread.start();
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ *				Twidere - Twitter client for Android
+ *
+ * Copyright (C) 2012 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.gallery3d.app;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.mariotaku.twidere.Constants;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Measures tiles decoded per second from a large image, with one region
+ * decoder and with parallel region decoders opened from the image file, as
+ * the tile decoders of TileImageView do.
+ */
+public class PhotoViewAdapterTest extends AndroidTestCase implements Constants {
+
+	private static final int IMAGE_WIDTH = 3264, IMAGE_HEIGHT = 2448;
+	private static final int TILE_SIZE = 254, TILE_BORDER = 1;
+	private static final int TILE_DECODERS = 3;
+
+	private File mImageFile;
+	private Bitmap mScreenNail;
+	private ExecutorService mExecutor;
+
+	public void testTileDecodingBenchmark() throws Exception {
+		// Warm up.
+		decodeAllTiles(false);
+		final float single_decoder = decodeAllTiles(false);
+		final float parallel_decoders = decodeAllTiles(true);
+		Log.i(LOGTAG, "Tile decoding, " + Runtime.getRuntime().availableProcessors() + " CPUs: one decoder "
+				+ single_decoder + " tiles/s, " + TILE_DECODERS + " decoders " + parallel_decoders + " tiles/s");
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mImageFile = new File(getContext().getCacheDir(), "tile_test.jpg");
+		createFixture(mImageFile);
+		final BitmapFactory.Options opts = new BitmapFactory.Options();
+		opts.inSampleSize = 8;
+		mScreenNail = BitmapFactory.decodeFile(mImageFile.getPath(), opts);
+		mExecutor = Executors.newFixedThreadPool(TILE_DECODERS);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mExecutor.shutdownNow();
+		mScreenNail.recycle();
+		mImageFile.delete();
+		super.tearDown();
+	}
+
+	/**
+	 * Decodes all tiles of full resolution level from decoder threads.
+	 * Adapter opens more region decoders only if it knows the image file.
+	 *
+	 * @return Tiles decoded per second.
+	 */
+	private float decodeAllTiles(final boolean parallel) throws Exception {
+		final PhotoViewAdapter adapter = new PhotoViewAdapter(null);
+		final BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(mImageFile.getPath(), false);
+		assertTrue(adapter.setData(decoder, parallel ? mImageFile : null, mScreenNail, 0));
+		final List<Callable<Bitmap>> tiles = new ArrayList<Callable<Bitmap>>();
+		for (int y = 0; y < IMAGE_HEIGHT; y += TILE_SIZE) {
+			for (int x = 0; x < IMAGE_WIDTH; x += TILE_SIZE) {
+				final int tile_x = x, tile_y = y;
+				tiles.add(new Callable<Bitmap>() {
+
+					@Override
+					public Bitmap call() {
+						return adapter.getTile(0, tile_x, tile_y, TILE_SIZE, TILE_BORDER, null);
+					}
+				});
+			}
+		}
+		final long start_time = System.nanoTime();
+		final List<Future<Bitmap>> results = mExecutor.invokeAll(tiles);
+		final long time = System.nanoTime() - start_time;
+		for (final Future<Bitmap> result : results) {
+			final Bitmap tile = result.get();
+			assertNotNull(tile);
+			tile.recycle();
+		}
+		return tiles.size() * 1000000000f / time;
+	}
+
+	private static void createFixture(final File file) throws IOException {
+		final Bitmap bitmap = Bitmap.createBitmap(IMAGE_WIDTH, IMAGE_HEIGHT, Bitmap.Config.RGB_565);
+		final Canvas canvas = new Canvas(bitmap);
+		final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+		paint.setShader(new LinearGradient(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT, Color.RED, Color.CYAN,
+				Shader.TileMode.CLAMP));
+		canvas.drawPaint(paint);
+		paint.setShader(null);
+		for (int i = 0; i < 500; i++) {
+			paint.setColor(Color.HSVToColor(new float[] { i * 37 % 360, 0.8f, 0.9f }));
+			canvas.drawCircle(i * 97 % IMAGE_WIDTH, i * 61 % IMAGE_HEIGHT, 20 + i % 120, paint);
+		}
+		final FileOutputStream os = new FileOutputStream(file);
+		try {
+			bitmap.compress(Bitmap.CompressFormat.JPEG, 90, os);
+		} finally {
+			os.close();
+			bitmap.recycle();
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ *				Twidere - Twitter client for Android
+ *
+ * Copyright (C) 2012 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mariotaku.twidere.Constants;
+
+import twitter4j.Paging;
+import twitter4j.Twitter;
+import android.os.AsyncTask;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Fetches timelines of multiple accounts from stub {@link Twitter} instances
+ * with delayed responses, to check refreshing takes as long as the slowest
+ * account instead of all accounts.
+ */
+public class AsyncTwitterWrapperTest extends AndroidTestCase implements Constants {
+
+	private static final long[] DELAYS = { 400, 300, 200 };
+
+	private AsyncTwitterWrapper mTwitterWrapper;
+	private AtomicInteger mFinishedRequests;
+
+	public void testCancelledTask() {
+		final DummyTask task = new DummyTask();
+		task.cancel(true);
+		final long start_time = System.currentTimeMillis();
+		final List<Long> result = mTwitterWrapper.executeAccountRequests(task, createRequests());
+		final long time = System.currentTimeMillis() - start_time;
+		assertTrue(result.isEmpty());
+		assertTrue("Took " + time + " ms", time < DELAYS[DELAYS.length - 1]);
+	}
+
+	public void testConcurrentRequests() {
+		final long start_time = System.currentTimeMillis();
+		final List<Long> result = mTwitterWrapper.executeAccountRequests(new DummyTask(), createRequests());
+		final long time = System.currentTimeMillis() - start_time;
+		long serial_time = 0, max_delay = 0;
+		for (final long delay : DELAYS) {
+			serial_time += delay;
+			max_delay = Math.max(max_delay, delay);
+		}
+		Log.i(LOGTAG, "Fetched " + DELAYS.length + " accounts in " + time + " ms, " + serial_time
+				+ " ms if fetched one by one");
+		assertEquals(DELAYS.length, mFinishedRequests.get());
+		// Results are in order of accounts, not order of responses.
+		assertEquals(DELAYS.length, result.size());
+		for (int i = 0, j = DELAYS.length; i < j; i++) {
+			assertEquals(i, result.get(i).longValue());
+		}
+		assertTrue("Took " + time + " ms", time >= max_delay);
+		assertTrue("Took " + time + " ms", time < serial_time);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mTwitterWrapper = AsyncTwitterWrapper.getInstance(getContext());
+		mFinishedRequests = new AtomicInteger();
+	}
+
+	private List<Callable<Long>> createRequests() {
+		final List<Callable<Long>> requests = new ArrayList<Callable<Long>>();
+		for (int i = 0, j = DELAYS.length; i < j; i++) {
+			final long account_id = i;
+			final Twitter twitter = createStubTwitter(DELAYS[i]);
+			requests.add(new Callable<Long>() {
+
+				@Override
+				public Long call() throws Exception {
+					twitter.getHomeTimeline(new Paging());
+					mFinishedRequests.incrementAndGet();
+					return account_id;
+				}
+			});
+		}
+		return requests;
+	}
+
+	/**
+	 * @return {@link Twitter} responds to every call with null after given
+	 *         delay.
+	 */
+	private static Twitter createStubTwitter(final long delay) {
+		final InvocationHandler handler = new InvocationHandler() {
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+				Thread.sleep(delay);
+				return null;
+			}
+		};
+		return (Twitter) Proxy.newProxyInstance(Twitter.class.getClassLoader(), new Class<?>[] { Twitter.class },
+				handler);
+	}
+
+	private static class DummyTask extends AsyncTask<Void, Void, Void> {
+
+		@Override
+		protected Void doInBackground(final Void... params) {
+			return null;
+		}
+	}
+}
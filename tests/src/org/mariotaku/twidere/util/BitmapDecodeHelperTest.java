@@ -0,0 +1,182 @@
+/*
+ *				Twidere - Twitter client for Android
+ *
+ * Copyright (C) 2012 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.mariotaku.twidere.Constants;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.media.ExifInterface;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Decodes generated JPEG and PNG images with {@link BitmapDecodeHelper} and
+ * with full size decoding it replaced, and compares time and memory used.
+ */
+public class BitmapDecodeHelperTest extends AndroidTestCase implements Constants {
+
+	private static final int TARGET_WIDTH = 480, TARGET_HEIGHT = 800;
+
+	private File mJpegFile, mRotatedJpegFile, mPngFile;
+
+	public void testBenchmark() {
+		for (final File file : new File[] { mJpegFile, mRotatedJpegFile, mPngFile }) {
+			final String path = file.getAbsolutePath();
+			// Warm up.
+			BitmapDecodeHelper.decode(path, TARGET_WIDTH, TARGET_HEIGHT).recycle();
+			decodeFullSize(path).recycle();
+			final Measurement helper = new Measurement(), full_size = new Measurement();
+			helper.start();
+			final Bitmap helper_bitmap = BitmapDecodeHelper.decode(path, TARGET_WIDTH, TARGET_HEIGHT);
+			helper.stop(helper_bitmap);
+			full_size.start();
+			final Bitmap full_size_bitmap = decodeFullSize(path);
+			full_size.stop(full_size_bitmap);
+			Log.i(LOGTAG, file.getName() + ": BitmapDecodeHelper " + helper + ", full size " + full_size);
+			assertTrue(helper.allocated < full_size.allocated);
+			helper_bitmap.recycle();
+			full_size_bitmap.recycle();
+		}
+	}
+
+	public void testDecodeFitsTargetSize() {
+		assertDecodedSize(mJpegFile, TARGET_WIDTH, TARGET_WIDTH * 3 / 4);
+		// Rotated by 90 degrees, so width and height are swapped.
+		assertDecodedSize(mRotatedJpegFile, TARGET_WIDTH, TARGET_WIDTH * 4 / 3);
+		assertDecodedSize(mPngFile, TARGET_WIDTH, TARGET_WIDTH * 3 / 4);
+	}
+
+	public void testDecodeWithoutLimit() {
+		final Bitmap bitmap = BitmapDecodeHelper.decode(mPngFile.getAbsolutePath(), 0, 0);
+		assertEquals(1600, bitmap.getWidth());
+		assertEquals(1200, bitmap.getHeight());
+		bitmap.recycle();
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		final File dir = getContext().getCacheDir();
+		mJpegFile = createFixture(new File(dir, "decode_test.jpg"), 2048, 1536, Bitmap.CompressFormat.JPEG);
+		mRotatedJpegFile = createFixture(new File(dir, "decode_test_rotated.jpg"), 2048, 1536,
+				Bitmap.CompressFormat.JPEG);
+		final ExifInterface exif = new ExifInterface(mRotatedJpegFile.getAbsolutePath());
+		exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(ExifInterface.ORIENTATION_ROTATE_90));
+		exif.saveAttributes();
+		mPngFile = createFixture(new File(dir, "decode_test.png"), 1600, 1200, Bitmap.CompressFormat.PNG);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mJpegFile.delete();
+		mRotatedJpegFile.delete();
+		mPngFile.delete();
+		super.tearDown();
+	}
+
+	private static void assertDecodedSize(final File file, final int width, final int height) {
+		final Bitmap bitmap = BitmapDecodeHelper.decode(file.getAbsolutePath(), TARGET_WIDTH, TARGET_HEIGHT);
+		assertNotNull(bitmap);
+		assertEquals(file.getName(), width, bitmap.getWidth());
+		assertEquals(file.getName(), height, bitmap.getHeight());
+		bitmap.recycle();
+	}
+
+	private static File createFixture(final File file, final int width, final int height,
+			final Bitmap.CompressFormat format) throws IOException {
+		final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+		final Canvas canvas = new Canvas(bitmap);
+		final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+		paint.setShader(new LinearGradient(0, 0, width, height, Color.BLUE, Color.YELLOW, Shader.TileMode.CLAMP));
+		canvas.drawPaint(paint);
+		paint.setShader(null);
+		for (int i = 0; i < 200; i++) {
+			paint.setColor(Color.HSVToColor(new float[] { i * 37 % 360, 0.8f, 0.9f }));
+			canvas.drawCircle(i * 97 % width, i * 61 % height, 20 + i % 80, paint);
+		}
+		final FileOutputStream os = new FileOutputStream(file);
+		try {
+			bitmap.compress(format, 90, os);
+		} finally {
+			os.close();
+			bitmap.recycle();
+		}
+		return file;
+	}
+
+	/**
+	 * Same as decoding before {@link BitmapDecodeHelper} picked sample size,
+	 * full size image is decoded then copied to rotate.
+	 */
+	private static Bitmap decodeFullSize(final String path) {
+		final Bitmap bitmap = BitmapFactory.decodeFile(path);
+		final int orientation = Exif.getOrientation(path);
+		if (orientation % 360 == 0) return bitmap;
+		final Matrix m = new Matrix();
+		m.postRotate(orientation);
+		final Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), m, true);
+		bitmap.recycle();
+		return rotated;
+	}
+
+	/**
+	 * Bitmap pixels are allocated in Java heap since Honeycomb and in native
+	 * heap before, so both are counted.
+	 */
+	private static class Measurement {
+
+		private long start_time, start_native;
+		long time, allocated, bitmap_bytes;
+
+		@Override
+		public String toString() {
+			return time / 1000000 + " ms, " + allocated / 1024 + " KB allocated, " + bitmap_bytes / 1024
+					+ " KB bitmap";
+		}
+
+		void start() {
+			System.gc();
+			Debug.startAllocCounting();
+			Debug.resetThreadAllocSize();
+			start_native = Debug.getNativeHeapAllocatedSize();
+			start_time = System.nanoTime();
+		}
+
+		void stop(final Bitmap bitmap) {
+			time = System.nanoTime() - start_time;
+			final long native_allocated = Math.max(0, Debug.getNativeHeapAllocatedSize() - start_native);
+			allocated = Debug.getThreadAllocSize() + native_allocated;
+			Debug.stopAllocCounting();
+			bitmap_bytes = bitmap.getRowBytes() * bitmap.getHeight();
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ *				Twidere - Twitter client for Android
+ *
+ * Copyright (C) 2012 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util;
+
+import org.mariotaku.twidere.Constants;
+import org.mariotaku.twidere.provider.TweetStore.CachedStatuses;
+import org.mariotaku.twidere.provider.TweetStore.CachedUsers;
+import org.mariotaku.twidere.provider.TweetStore.DirectMessages;
+import org.mariotaku.twidere.provider.TweetStore.Statuses;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+/**
+ * Checks query plans of frequent queries, so they keep using the indices
+ * declared in {@link org.mariotaku.twidere.provider.TweetStore}.
+ */
+public class DatabaseIndexTest extends AndroidTestCase implements Constants {
+
+	private DatabaseHelper mHelper;
+	private SQLiteDatabase mDatabase;
+
+	public void testCachedStatusesByStatusId() {
+		assertUsesIndex("SELECT * FROM " + TABLE_CACHED_STATUSES + " WHERE " + CachedStatuses.STATUS_ID + " = 1",
+				TABLE_CACHED_STATUSES + "_unique_status_id");
+	}
+
+	public void testCachedUsersByScreenName() {
+		assertUsesIndex("SELECT * FROM " + TABLE_CACHED_USERS + " WHERE " + CachedUsers.SCREEN_NAME + " = 'user'",
+				TABLE_CACHED_USERS + "_screen_name");
+	}
+
+	public void testCachedUsersByUserId() {
+		assertUsesIndex("SELECT * FROM " + TABLE_CACHED_USERS + " WHERE " + CachedUsers.USER_ID + " = 1",
+				"sqlite_autoindex_" + TABLE_CACHED_USERS);
+	}
+
+	public void testCleanDirectMessages() {
+		for (final String table : new String[] { TABLE_DIRECT_MESSAGES_INBOX, TABLE_DIRECT_MESSAGES_OUTBOX }) {
+			assertUsesIndex("SELECT " + DirectMessages._ID + " FROM " + table + " WHERE " + DirectMessages.ACCOUNT_ID
+					+ " = 1 ORDER BY " + DirectMessages.MESSAGE_ID + " DESC LIMIT 100", table
+					+ "_unique_account_id_message_id");
+		}
+	}
+
+	public void testCleanStatuses() {
+		for (final String table : new String[] { TABLE_STATUSES, TABLE_MENTIONS }) {
+			assertUsesIndex("SELECT " + Statuses._ID + " FROM " + table + " WHERE " + Statuses.ACCOUNT_ID
+					+ " = 1 ORDER BY " + Statuses.STATUS_ID + " DESC LIMIT 100", table + "_unique_account_id_status_id");
+		}
+	}
+
+	public void testDeleteRetweets() {
+		for (final String table : new String[] { TABLE_STATUSES, TABLE_MENTIONS }) {
+			assertUsesIndex("SELECT * FROM " + table + " WHERE " + Statuses.ACCOUNT_ID + " = 1 AND "
+					+ Statuses.RETWEET_ID + " IN (1, 2, 3)", table + "_account_id_retweet_id");
+		}
+	}
+
+	public void testFindStatus() {
+		for (final String table : new String[] { TABLE_STATUSES, TABLE_MENTIONS }) {
+			assertUsesIndex("SELECT * FROM " + table + " WHERE " + Statuses.ACCOUNT_ID + " = 1 AND "
+					+ Statuses.STATUS_ID + " = 2", table + "_unique_account_id_status_id");
+		}
+	}
+
+	public void testNewestDirectMessageIds() {
+		assertUsesIndex("SELECT " + DirectMessages.MESSAGE_ID + " FROM " + TABLE_DIRECT_MESSAGES_INBOX + " WHERE "
+				+ DirectMessages.ACCOUNT_ID + " = 1 ORDER BY " + DirectMessages.DEFAULT_SORT_ORDER,
+				TABLE_DIRECT_MESSAGES_INBOX + "_unique_account_id_message_id");
+	}
+
+	public void testNewestStatusIds() {
+		for (final String table : new String[] { TABLE_STATUSES, TABLE_MENTIONS }) {
+			assertUsesIndex("SELECT " + Statuses.STATUS_ID + " FROM " + table + " WHERE " + Statuses.ACCOUNT_ID
+					+ " = 1 ORDER BY " + Statuses.DEFAULT_SORT_ORDER, table + "_unique_account_id_status_id");
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		// In-memory database.
+		mHelper = new DatabaseHelper(getContext(), null, DATABASES_VERSION);
+		mDatabase = mHelper.getWritableDatabase();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mHelper.close();
+		super.tearDown();
+	}
+
+	/**
+	 * Asserts the query is answered by searching the index, without sorting
+	 * rows afterwards.
+	 */
+	private void assertUsesIndex(final String sql, final String index) {
+		final StringBuilder plan = new StringBuilder();
+		final Cursor cur = mDatabase.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+		try {
+			// Detail is the last column in all SQLite versions.
+			final int detail_idx = cur.getColumnCount() - 1;
+			cur.moveToFirst();
+			while (!cur.isAfterLast()) {
+				plan.append(cur.getString(detail_idx)).append('\n');
+				cur.moveToNext();
+			}
+		} finally {
+			cur.close();
+		}
+		final String detail = plan.toString();
+		assertTrue(sql + "\n" + detail, detail.contains("INDEX " + index));
+		assertFalse(sql + "\n" + detail, detail.contains("TEMP B-TREE"));
+	}
+}
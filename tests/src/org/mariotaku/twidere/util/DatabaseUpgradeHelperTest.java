@@ -0,0 +1,162 @@
+/*
+ *				Twidere - Twitter client for Android
+ *
+ * Copyright (C) 2012 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util;
+
+import static org.mariotaku.twidere.util.DatabaseUpgradeHelper.safeUpgrade;
+
+import java.io.File;
+import java.util.HashMap;
+
+import org.mariotaku.twidere.Constants;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+public class DatabaseUpgradeHelperTest extends AndroidTestCase implements Constants {
+
+	private static final String TABLE = "upgrade_test";
+
+	private static final String[] OLD_COLUMNS = { "_id", "account_id", "status_id", "username", "text", "extra" };
+	private static final String[] OLD_TYPES = { "INTEGER PRIMARY KEY", "INTEGER", "INTEGER", "TEXT", "TEXT",
+			"INTEGER" };
+	// username is renamed, extra changes type, is_filtered is new.
+	private static final String[] NEW_COLUMNS = { "_id", "account_id", "status_id", "screen_name", "text", "extra",
+			"is_filtered" };
+	private static final String[] NEW_TYPES = { "INTEGER PRIMARY KEY", "INTEGER", "INTEGER", "TEXT", "TEXT", "TEXT",
+			"INTEGER" };
+
+	private static final int LARGE_TABLE_ROWS = 100000;
+	// Copying rows one by one through ContentValues allocates tens of MB for
+	// a table this large.
+	private static final long LARGE_TABLE_ALLOCATION_LIMIT = 1024 * 1024;
+
+	private File mDatabaseFile;
+	private SQLiteDatabase mDatabase;
+
+	public void testFastUpgradeSkipsUnchangedTable() {
+		fillOldTable(10);
+		safeUpgrade(mDatabase, TABLE, OLD_COLUMNS, OLD_TYPES, true, false, null);
+		assertEquals(10, getRowCount());
+		assertEquals("user0", queryString("SELECT username FROM " + TABLE + " WHERE status_id = 0"));
+	}
+
+	public void testLargeTableUpgrade() {
+		fillOldTable(LARGE_TABLE_ROWS);
+		System.gc();
+		Debug.startAllocCounting();
+		Debug.resetThreadAllocSize();
+		final long start_time = System.currentTimeMillis();
+		safeUpgrade(mDatabase, TABLE, NEW_COLUMNS, NEW_TYPES, true, false, getAlias());
+		final long time = System.currentTimeMillis() - start_time;
+		final long allocated = Debug.getThreadAllocSize();
+		Debug.stopAllocCounting();
+		Log.i(LOGTAG, "Upgraded " + LARGE_TABLE_ROWS + " rows in " + time + " ms, " + allocated
+				+ " bytes allocated");
+		assertEquals(LARGE_TABLE_ROWS, getRowCount());
+		assertTrue("Allocated " + allocated + " bytes", allocated < LARGE_TABLE_ALLOCATION_LIMIT);
+	}
+
+	public void testUpgradeMapsColumns() {
+		fillOldTable(10);
+		safeUpgrade(mDatabase, TABLE, NEW_COLUMNS, NEW_TYPES, true, false, getAlias());
+		assertEquals(10, getRowCount());
+		assertEquals("user3", queryString("SELECT screen_name FROM " + TABLE + " WHERE status_id = 3"));
+		assertEquals("text 3", queryString("SELECT text FROM " + TABLE + " WHERE status_id = 3"));
+		// Columns of incompatible types are not copied.
+		assertNull(queryString("SELECT extra FROM " + TABLE + " WHERE status_id = 3"));
+		assertNull(queryString("SELECT is_filtered FROM " + TABLE + " WHERE status_id = 3"));
+		assertNull(queryString("SELECT name FROM sqlite_master WHERE name = '" + TABLE + "_temp_upgrade'"));
+	}
+
+	public void testUpgradeSkipsConflictingRows() {
+		fillOldTable(10);
+		mDatabase.execSQL("UPDATE " + TABLE + " SET text = NULL WHERE status_id < 4");
+		final String[] types = NEW_TYPES.clone();
+		types[4] = "TEXT NOT NULL";
+		safeUpgrade(mDatabase, TABLE, NEW_COLUMNS, types, true, false, getAlias());
+		assertEquals(6, getRowCount());
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mDatabaseFile = new File(getContext().getCacheDir(), "upgrade_test.sqlite");
+		mDatabaseFile.delete();
+		mDatabase = SQLiteDatabase.openOrCreateDatabase(mDatabaseFile, null);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDatabase.close();
+		mDatabaseFile.delete();
+		super.tearDown();
+	}
+
+	private void fillOldTable(final int rows) {
+		final StringBuilder create = new StringBuilder("CREATE TABLE " + TABLE + " (");
+		for (int i = 0; i < OLD_COLUMNS.length; i++) {
+			if (i > 0) {
+				create.append(", ");
+			}
+			create.append(OLD_COLUMNS[i]).append(' ').append(OLD_TYPES[i]);
+		}
+		mDatabase.execSQL(create.append(")").toString());
+		final SQLiteStatement insert = mDatabase.compileStatement("INSERT INTO " + TABLE
+				+ " (account_id, status_id, username, text, extra) VALUES (?, ?, ?, ?, ?)");
+		mDatabase.beginTransaction();
+		try {
+			for (int i = 0; i < rows; i++) {
+				insert.bindLong(1, i % 3);
+				insert.bindLong(2, i);
+				insert.bindString(3, "user" + i);
+				insert.bindString(4, "text " + i);
+				insert.bindLong(5, i);
+				insert.executeInsert();
+			}
+			mDatabase.setTransactionSuccessful();
+		} finally {
+			mDatabase.endTransaction();
+			insert.close();
+		}
+	}
+
+	private int getRowCount() {
+		return Integer.parseInt(queryString("SELECT COUNT(*) FROM " + TABLE));
+	}
+
+	private String queryString(final String sql) {
+		final Cursor cur = mDatabase.rawQuery(sql, null);
+		try {
+			return cur.moveToFirst() ? cur.getString(0) : null;
+		} finally {
+			cur.close();
+		}
+	}
+
+	private static HashMap<String, String> getAlias() {
+		final HashMap<String, String> alias = new HashMap<String, String>();
+		alias.put("screen_name", "username");
+		return alias;
+	}
+}
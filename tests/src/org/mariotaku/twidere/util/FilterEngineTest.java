@@ -0,0 +1,168 @@
+/*
+ *				Twidere - Twitter client for Android
+ *
+ * Copyright (C) 2012 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util;
+
+import org.mariotaku.twidere.Constants;
+import org.mariotaku.twidere.provider.TweetStore.Filters;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Compares {@link FilterEngine} with SQL filtering it replaced, which is
+ * still used by database upgrade, and measures both.
+ */
+public class FilterEngineTest extends AndroidTestCase implements Constants {
+
+	private static final String[] FILTER_TABLES = { TABLE_FILTERED_USERS, TABLE_FILTERED_KEYWORDS,
+			TABLE_FILTERED_SOURCES, TABLE_FILTERED_LINKS };
+
+	// text_plain, text_html, screen_name, source
+	private static final String[][] STATUSES = {
+			{ "hello world", "hello world", "someone", "<a href=\"http://twitter.com\">web</a>" },
+			{ "buy SPAM now", "buy SPAM now", "someone", "web" },
+			{ "spammy", "spammy", "someone", "web" },
+			{ "nothing here", "nothing here", "spammer", "web" },
+			{ "nothing here", "nothing here", "Spammer", "web" },
+			{ "posted", "posted", "someone", "<a href=\"http://example.com/app\">BadApp</a>" },
+			{ "posted", "posted", "someone", "<a href=\"http://example.com/app\">badapp</a>" },
+			{ "posted", "posted", "someone", "<a href=\"http://example.com/app\">BadApp Pro</a>" },
+			{ "posted", "posted", "someone", "BadApp" },
+			{ "see t.co/x", "see <a href=\"http://evil.example.com/path\">t.co/x</a>", "someone", "web" },
+			{ "see evil.example.com", "see <a href=\"http://t.co/x\">evil.example.com/page</a>", "someone", "web" },
+			{ "see t.co/y", "see <a href=\"http://good.example.com/\">t.co/y</a>", "someone", "web" },
+			{ "café", "café", "someone", "web" }, { "CAFÉ", "CAFÉ", "someone", "web" },
+			{ "ÉCOLE", "ÉCOLE", "someone", "web" }, { "", "", "", "" } };
+
+	private SQLiteDatabase mDatabase;
+	private FilterEngine mEngine;
+
+	public void testBenchmark() {
+		for (int i = 0; i < 300; i++) {
+			addFilter(TABLE_FILTERED_KEYWORDS, "keyword" + i);
+			addFilter(TABLE_FILTERED_LINKS, "link" + i + ".example.com");
+			addFilter(TABLE_FILTERED_SOURCES, "Source " + i);
+			addFilter(TABLE_FILTERED_USERS, "user" + i);
+		}
+		mEngine.invalidate();
+		final String[][] statuses = new String[200][];
+		for (int i = 0; i < statuses.length; i++) {
+			final String text = "Status " + i + " with some words and a keyword" + (i * 7 % 400) + " in it";
+			final String html = "Status " + i + " <a href=\"http://site" + i + ".example.com/\">site" + i + "</a>";
+			statuses[i] = new String[] { text, html, "user" + (i * 3 % 600),
+					"<a href=\"http://example.com\">Source " + (i * 5 % 600) + "</a>" };
+		}
+		// Warm up, compiles rules too.
+		for (final String[] status : statuses) {
+			assertEquals(isFilteredBySql(status), isFiltered(status));
+		}
+		final long sql_start = System.nanoTime();
+		for (final String[] status : statuses) {
+			isFilteredBySql(status);
+		}
+		final long sql_time = System.nanoTime() - sql_start;
+		final long engine_start = System.nanoTime();
+		for (final String[] status : statuses) {
+			isFiltered(status);
+		}
+		final long engine_time = System.nanoTime() - engine_start;
+		Log.i(LOGTAG, "FilterEngine benchmark, " + statuses.length + " statuses, 1200 filters: SQL " + sql_time
+				/ 1000 + " us, FilterEngine " + engine_time / 1000 + " us");
+	}
+
+	public void testInvalidate() {
+		final String[] status = { "new rule", "new rule", "someone", "web" };
+		assertFalse(isFiltered(status));
+		addFilter(TABLE_FILTERED_KEYWORDS, "rule");
+		// Compiled rules are kept until invalidated.
+		assertFalse(isFiltered(status));
+		mEngine.invalidate();
+		assertTrue(isFiltered(status));
+	}
+
+	public void testMatchesSqlFiltering() {
+		addFilter(TABLE_FILTERED_KEYWORDS, "spam");
+		addFilter(TABLE_FILTERED_KEYWORDS, "é");
+		addFilter(TABLE_FILTERED_USERS, "spammer");
+		addFilter(TABLE_FILTERED_SOURCES, "BadApp");
+		addFilter(TABLE_FILTERED_LINKS, "evil.example.com");
+		mEngine.invalidate();
+		for (final String[] status : STATUSES) {
+			assertEquals(status[0] + ", " + status[1] + ", " + status[2] + ", " + status[3], isFilteredBySql(status),
+					isFiltered(status));
+		}
+	}
+
+	public void testNoFilters() {
+		for (final String[] status : STATUSES) {
+			assertFalse(isFiltered(status));
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mDatabase = SQLiteDatabase.create(null);
+		for (final String table : FILTER_TABLES) {
+			mDatabase.execSQL("CREATE TABLE " + table + " (" + Filters._ID + " INTEGER PRIMARY KEY, " + Filters.TEXT
+					+ " TEXT NOT NULL)");
+		}
+		mEngine = new FilterEngine(getContext(), mDatabase);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		mDatabase.close();
+		super.tearDown();
+	}
+
+	private void addFilter(final String table, final String text) {
+		final ContentValues values = new ContentValues();
+		values.put(Filters.TEXT, text);
+		mDatabase.insert(table, null, values);
+	}
+
+	private boolean isFiltered(final String[] status) {
+		return mEngine.isFiltered(status[0], status[1], status[2], status[3]);
+	}
+
+	/**
+	 * Same rules as the query used before {@link FilterEngine}, with anchor
+	 * text also matched by link filters.
+	 */
+	private boolean isFilteredBySql(final String[] status) {
+		final String sql = "SELECT NULL WHERE ? IN (SELECT " + Filters.TEXT + " FROM " + TABLE_FILTERED_USERS + ")"
+				+ " OR EXISTS (SELECT 1 FROM " + TABLE_FILTERED_KEYWORDS + " WHERE ? LIKE '%'||" + Filters.TEXT
+				+ "||'%')" + " OR EXISTS (SELECT 1 FROM " + TABLE_FILTERED_LINKS + " WHERE ? LIKE '%<a href=\"%'||"
+				+ Filters.TEXT + "||'%\">%' OR ? LIKE '%>%'||" + Filters.TEXT + "||'%</a>%')"
+				+ " OR EXISTS (SELECT 1 FROM " + TABLE_FILTERED_SOURCES + " WHERE ? LIKE '%>'||" + Filters.TEXT
+				+ "||'</a>%')";
+		final Cursor cur = mDatabase.rawQuery(sql, new String[] { status[2], status[0], status[1], status[1],
+				status[3] });
+		try {
+			return cur.getCount() > 0;
+		} finally {
+			cur.close();
+		}
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ *				Twidere - Twitter client for Android
+ *
+ * Copyright (C) 2012 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.mariotaku.twidere.Constants;
+import org.mariotaku.twidere.util.apache.commons.lang3.StringEscapeUtils;
+
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * Compares {@link HtmlBuilder} with the previous implementation, which
+ * split source into one String per char, and measures both.
+ */
+public class HtmlBuilderTest extends TestCase implements Constants {
+
+	private static final String[] SOURCE_PARTS = { "a", "B", "1", " ", "\n", "&", "<", ">", "\"", "'", "&amp;",
+			"&lt;", "&gt;", "&quot;", "&#39;", "&eacute;", "&nbsp;", "&unknown;", "&#x263A;", "é", "©", "日本",
+			" ", "😀", "http://example.com/?a=1&b=2", "@user", "#tag" };
+
+	private static final int STATUSES_COUNT = 200;
+
+	public void testAllocationBenchmark() {
+		final String[] texts = new String[STATUSES_COUNT];
+		for (int i = 0; i < STATUSES_COUNT; i++) {
+			texts[i] = "RT @user" + i + ": Status " + i + " &amp; a link http://t.co/abc" + i + " to #tag" + i
+					+ " &lt;3";
+		}
+		// Warm up, and check both produce same HTML.
+		for (final String text : texts) {
+			assertEquals(text, buildStatusHtml(text, true), buildStatusHtml(text, false));
+		}
+		System.gc();
+		Debug.startAllocCounting();
+		Debug.resetThreadAllocCount();
+		Debug.resetThreadAllocSize();
+		final long previous_start = System.nanoTime();
+		for (final String text : texts) {
+			buildStatusHtml(text, true);
+		}
+		final long previous_time = System.nanoTime() - previous_start;
+		final int previous_count = Debug.getThreadAllocCount();
+		final long previous_size = Debug.getThreadAllocSize();
+		Debug.resetThreadAllocCount();
+		Debug.resetThreadAllocSize();
+		final long builder_start = System.nanoTime();
+		for (final String text : texts) {
+			buildStatusHtml(text, false);
+		}
+		final long builder_time = System.nanoTime() - builder_start;
+		final int builder_count = Debug.getThreadAllocCount();
+		final long builder_size = Debug.getThreadAllocSize();
+		Debug.stopAllocCounting();
+		Log.i(LOGTAG, "HtmlBuilder benchmark, " + STATUSES_COUNT + " statuses: previous " + previous_time / 1000
+				+ " us, " + previous_count + " objects, " + previous_size + " bytes; HtmlBuilder " + builder_time
+				/ 1000 + " us, " + builder_count + " objects, " + builder_size + " bytes");
+		assertTrue(builder_count < previous_count);
+		assertTrue(builder_size < previous_size);
+	}
+
+	public void testEscapeMatchesEscapeHtml4() {
+		final StringBuilder builder = new StringBuilder();
+		for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+			if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				continue;
+			}
+			final String string = String.valueOf((char) c);
+			assertEquals(Integer.toHexString(c), StringEscapeUtils.escapeHtml4(string),
+					HtmlEscapeHelper.escape(string));
+			builder.append((char) c);
+		}
+		final String all = builder.toString();
+		assertEquals(StringEscapeUtils.escapeHtml4(all), HtmlEscapeHelper.escape(all));
+	}
+
+	public void testMatchesPreviousBuilder() {
+		final Random random = new Random(0);
+		for (int i = 0; i < 5000; i++) {
+			final StringBuilder source_builder = new StringBuilder();
+			final int parts = 1 + random.nextInt(30);
+			for (int j = 0; j < parts; j++) {
+				source_builder.append(SOURCE_PARTS[random.nextInt(SOURCE_PARTS.length)]);
+			}
+			final String source = source_builder.toString();
+			final boolean is_escaped = random.nextBoolean(), re_escape = random.nextBoolean();
+			final HtmlBuilder builder = new HtmlBuilder(source, false, is_escaped, re_escape);
+			final PreviousHtmlBuilder previous = new PreviousHtmlBuilder(source, is_escaped, re_escape);
+			final int links = random.nextInt(5);
+			for (int j = 0; j < links; j++) {
+				final int start = random.nextInt(source.length() + 1);
+				final int end = start + random.nextInt(source.length() - start + 1);
+				final String link = "http://example.com/" + j;
+				final String display = random.nextBoolean() ? null : SOURCE_PARTS[random.nextInt(SOURCE_PARTS.length)];
+				final boolean display_is_html = random.nextBoolean();
+				final String message = source + ", " + start + "-" + end;
+				assertEquals(message, previous.addLink(link, display, start, end, display_is_html),
+						builder.addLink(link, display, start, end, display_is_html));
+			}
+			assertEquals(source, previous.build(), builder.build());
+		}
+	}
+
+	public void testRejectsInvalidLinks() {
+		final HtmlBuilder builder = new HtmlBuilder("hello world", false, false, false);
+		assertTrue(builder.addLink("http://a.com", "hello", 0, 5));
+		assertFalse(builder.addLink("http://b.com", "hello", 3, 8));
+		assertFalse(builder.addLink("http://c.com", "world", 6, 12));
+		assertFalse(builder.addLink("http://c.com", "world", 8, 6));
+		assertTrue(builder.addLink("http://c.com", "world", 6, 11));
+		assertEquals("<a href=\"http://a.com\">hello</a> <a href=\"http://c.com\">world</a>", builder.build());
+		try {
+			new HtmlBuilder("", true, false, false).addLink("http://a.com", "a", 0, 1);
+			fail("Link past end of empty source accepted");
+		} catch (final StringIndexOutOfBoundsException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Builds HTML of status text the way formatting in {@link Utils} does.
+	 */
+	private static String buildStatusHtml(final String text, final boolean previous) {
+		final String mention = text.substring(3, text.indexOf(':'));
+		final int link_start = text.indexOf("http://"), link_end = text.indexOf(' ', link_start);
+		final int tag_start = text.indexOf('#'), tag_end = text.indexOf(' ', tag_start);
+		final String link = text.substring(link_start, link_end), tag = text.substring(tag_start, tag_end);
+		if (previous) {
+			final PreviousHtmlBuilder builder = new PreviousHtmlBuilder(text, true, true);
+			builder.addLink("https://twitter.com/" + mention, mention, 3, 3 + mention.length(), false);
+			builder.addLink(link, "example.com/" + link.substring(link.length() - 4), link_start, link_end, false);
+			builder.addLink("https://twitter.com/search?q=" + tag, tag, tag_start, tag_end, false);
+			return builder.build();
+		}
+		final HtmlBuilder builder = new HtmlBuilder(text, true, true, true);
+		builder.addLink("https://twitter.com/" + mention, mention, 3, 3 + mention.length());
+		builder.addLink(link, "example.com/" + link.substring(link.length() - 4), link_start, link_end);
+		builder.addLink("https://twitter.com/search?q=" + tag, tag, tag_start, tag_end);
+		return builder.build();
+	}
+
+	/**
+	 * HtmlBuilder before it worked on string offsets, not strict, with
+	 * escaping done by {@link StringEscapeUtils} as before.
+	 */
+	private static final class PreviousHtmlBuilder {
+
+		private final String[] array;
+		private final int string_length;
+		private final boolean source_is_escaped, should_re_escape;
+
+		private final ArrayList<Link> links = new ArrayList<Link>();
+
+		PreviousHtmlBuilder(final String source, final boolean is_escaped, final boolean re_escape) {
+			array = ArrayUtils.toStringArray(source);
+			source_is_escaped = is_escaped;
+			should_re_escape = re_escape;
+			string_length = array.length;
+		}
+
+		boolean addLink(final String link, final String display, final int start, final int end,
+				final boolean display_is_html) {
+			if (start < 0 || end < 0 || start > end || end > string_length) return false;
+			if (hasLink(start, end)) return false;
+			return links.add(new Link(link, display, start, end, display_is_html));
+		}
+
+		String build() {
+			if (links.size() == 0) return escapeSource(ArrayUtils.mergeArrayToString(array));
+			Collections.sort(links);
+			final StringBuilder builder = new StringBuilder();
+			final int links_size = links.size();
+			for (int i = 0; i < links_size; i++) {
+				final Link spec = links.get(i);
+				final int start = spec.start, end = spec.end;
+				if (i == 0) {
+					if (start >= 0 && start <= string_length) {
+						builder.append(escapeSource(ArrayUtils.mergeArrayToString(ArrayUtils.subArray(array, 0,
+								start))));
+					}
+				} else if (i > 0) {
+					final int last_end = links.get(i - 1).end;
+					if (last_end >= 0 && last_end <= start && start <= string_length) {
+						builder.append(escapeSource(ArrayUtils.mergeArrayToString(ArrayUtils.subArray(array,
+								last_end, start))));
+					}
+				}
+				builder.append("<a href=\"" + spec.link + "\">");
+				if (start >= 0 && start <= end && end <= string_length) {
+					final String display = spec.display;
+					builder.append(display != null && display.length() > 0 ? spec.display_is_html ? display
+							: StringEscapeUtils.escapeHtml4(display).replace("\n", "<br/>") : spec.link);
+				}
+				builder.append("</a>");
+				if (i == links.size() - 1 && end >= 0 && end <= string_length) {
+					builder.append(escapeSource(ArrayUtils.mergeArrayToString(ArrayUtils.subArray(array, end,
+							string_length))));
+				}
+			}
+			return builder.toString();
+		}
+
+		private String escapeSource(final String string) {
+			final String escaped = source_is_escaped ? string : StringEscapeUtils.escapeHtml4(string);
+			return should_re_escape ? StringEscapeUtils.escapeHtml4(StringEscapeUtils.unescapeHtml4(escaped))
+					: escaped;
+		}
+
+		private boolean hasLink(final int start, final int end) {
+			for (final Link spec : links) {
+				if (start >= spec.start && start <= spec.end || end >= spec.start && end <= spec.end) return true;
+			}
+			return false;
+		}
+
+		private static final class Link implements Comparable<Link> {
+
+			final String link, display;
+			final int start, end;
+			final boolean display_is_html;
+
+			Link(final String link, final String display, final int start, final int end,
+					final boolean display_is_html) {
+				this.link = link;
+				this.display = display;
+				this.start = start;
+				this.end = end;
+				this.display_is_html = display_is_html;
+			}
+
+			@Override
+			public int compareTo(final Link that) {
+				return start - that.start;
+			}
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ *				Twidere - Twitter client for Android
+ *
+ * Copyright (C) 2012 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.mariotaku.twidere.util.HtmlLinkExtractor.HtmlLink;
+import org.mariotaku.twidere.util.HtmlLinkExtractor.OnLinkFoundListener;
+
+/**
+ * Compares {@link HtmlLinkExtractor} with the regular expressions it
+ * replaced, on well formed and randomly assembled malformed markup.
+ */
+public class HtmlLinkExtractorTest extends TestCase {
+
+	private static final Pattern PATTERN_ANCHOR = Pattern.compile("(?i)<a([^>]+)>(.+?)</a>");
+	private static final Pattern PATTERN_HREF = Pattern
+			.compile("\\s*(?i)href\\s*=\\s*(\"([^\"]*\")|'[^']*'|([^'\">\\s]+))");
+
+	private static final String[] HTML_PARTS = { "<a", "<A", "<", ">", "/", "</a>", "</A>", "</a", "<b>", "</b>",
+			" ", "\t", "\n", "\r", "\u2028", "href", "HREF", "hReF", "=", " = ", "\"", "'", "http://example.com/",
+			"https://t.co/abc", "text", "x", "&amp;", "日本", " class=\"link\"", " href=\"http://a.com\"",
+			" href='http://b.com'", " href=http://c.com", "<a href=\"http://d.com\">d</a>" };
+
+	private static final String[] HTML = {
+			"",
+			"no links",
+			"<a href=\"http://example.com/\">example.com</a>",
+			"RT <a href=\"https://twitter.com/user\">@user</a>: see <a href=\"http://t.co/abc\" title=\"x\">"
+					+ "example.com/page</a> #<a href='https://twitter.com/search?q=%23tag'>tag</a>",
+			"<A HREF=http://example.com/>Upper</A>", "<a href = \"http://a.com\" href='http://b.com'>two</a>",
+			"<a name=\"anchor\">no href</a>", "<a href=\"http://example.com/\"></a>",
+			"<a href=\"http://example.com/\">line\nbreak</a>", "<a href=\"http://example.com/\">unclosed",
+			"<a href=\"unterminated>text</a>", "<abbr href=\"http://abbr.com\">abbr</abbr> <a href=\"x\">y</a>",
+			"<a href=\"http://a.com\"><b>bold</b></a>", "<a>empty attrs</a>", "<a href=>empty value</a>" };
+
+	public void testMatchesPreviousExtractor() {
+		for (final String html : HTML) {
+			assertEquals(html, grabLinksWithPatterns(html), describe(HtmlLinkExtractor.grabLinks(html)));
+		}
+	}
+
+	public void testMatchesPreviousExtractorOnMalformedMarkup() {
+		final Random random = new Random(0);
+		for (int i = 0; i < 20000; i++) {
+			final StringBuilder builder = new StringBuilder();
+			final int parts = random.nextInt(24);
+			for (int j = 0; j < parts; j++) {
+				builder.append(HTML_PARTS[random.nextInt(HTML_PARTS.length)]);
+			}
+			final String html = builder.toString();
+			assertEquals(html, grabLinksWithPatterns(html), describe(HtmlLinkExtractor.grabLinks(html)));
+		}
+	}
+
+	public void testNullHtml() {
+		assertTrue(HtmlLinkExtractor.grabLinks(null).isEmpty());
+	}
+
+	public void testStopsWhenListenerReturnsFalse() {
+		final List<String> links = new ArrayList<String>();
+		final boolean completed = HtmlLinkExtractor.grabLinks(HTML[3], new OnLinkFoundListener() {
+
+			@Override
+			public boolean onLinkFound(final String link, final String text, final int start, final int end) {
+				links.add(link);
+				return !link.startsWith("http://t.co/");
+			}
+		});
+		assertFalse(completed);
+		assertEquals(2, links.size());
+		assertEquals("https://twitter.com/user", links.get(0));
+		assertEquals("http://t.co/abc", links.get(1));
+	}
+
+	private static List<String> describe(final List<HtmlLink> links) {
+		final List<String> result = new ArrayList<String>();
+		for (final HtmlLink link : links) {
+			result.add(link.getLink() + " " + link.getLinkText() + " " + link.getStart() + "-" + link.getEnd());
+		}
+		return result;
+	}
+
+	/**
+	 * Same as HtmlLinkExtractor before it scanned markup by itself, with
+	 * range of anchor added.
+	 */
+	private static List<String> grabLinksWithPatterns(final String html) {
+		final List<String> result = new ArrayList<String>();
+		final Matcher tag = PATTERN_ANCHOR.matcher(html);
+		while (tag.find()) {
+			final Matcher link = PATTERN_HREF.matcher(tag.group(1));
+			while (link.find()) {
+				final String href = link.group(1).replaceAll("'", "").replaceAll("\"", "");
+				result.add(href + " " + tag.group(2) + " " + tag.start() + "-" + tag.end());
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ *				Twidere - Twitter client for Android
+ *
+ * Copyright (C) 2012 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.mariotaku.twidere.Constants;
+import org.mariotaku.twidere.model.ImageSpec;
+
+import android.util.Log;
+
+/**
+ * Checks images found by {@link ImageHostResolver} for links of every
+ * supported host, and compares its speed with matching patterns of all
+ * hosts in turn, as done before.
+ */
+public class ImageHostResolverTest extends TestCase implements Constants {
+
+	private static final String PLIXI_API = "https://api.plixi.com/api/tpapi.svc/imagefromurl?url=";
+
+	// link, preview image, full image; images are null if not supported.
+	private static final String[][] LINKS = {
+			{ "https://pbs.twimg.com/media/A1b-C_3.jpg", "https://pbs.twimg.com/media/A1b-C_3.jpg:thumb",
+					"https://pbs.twimg.com/media/A1b-C_3.jpg:large" },
+			{ "p.twimg.com/A1b2C3.png", "p.twimg.com/A1b2C3.png:thumb", "p.twimg.com/A1b2C3.png:large" },
+			{ "http://twitpic.com/abc12", "https://twitpic.com/show/thumb/abc12",
+					"https://twitpic.com/show/large/abc12" },
+			{ "HTTP://TwitPic.COM/abc12/", "https://twitpic.com/show/thumb/abc12",
+					"https://twitpic.com/show/large/abc12" },
+			{ "http://instagr.am/p/AbC-_1/", "https://instagr.am/p/AbC-_1/media/?size=t",
+					"https://instagr.am/p/AbC-_1/media/?size=l" },
+			{ "https://instagram.com/p/xyz", "https://instagr.am/p/xyz/media/?size=t",
+					"https://instagr.am/p/xyz/media/?size=l" },
+			{ "http://imgur.com/abc12", "http://i.imgur.com/abc12s.jpg", "http://i.imgur.com/abc12.jpg" },
+			{ "http://i.imgur.com/abc12.jpg", "http://i.imgur.com/abc12s.jpg", "http://i.imgur.com/abc12.jpg" },
+			{ "http://img.ly/abc", "https://img.ly/show/thumb/abc", "https://img.ly/show/full/abc" },
+			{ "http://yfrog.com/abc", "https://yfrog.com/abc:iphone", "https://yfrog.com/abc:small" },
+			{ "http://plixi.com/p/123", PLIXI_API + "http://plixi.com/p/123&size=small",
+					PLIXI_API + "http://plixi.com/p/123&size=big" },
+			{ "http://lockerz.com/s/123", PLIXI_API + "http://lockerz.com/s/123&size=small",
+					PLIXI_API + "http://lockerz.com/s/123&size=big" },
+			{ "http://ww1.sinaimg.cn/large/abc123.jpg", "http://ww1.sinaimg.cn/thumbnail/abc123.jpg",
+					"http://ww1.sinaimg.cn/large/abc123.jpg" },
+			{ "http://ww2.sina.cn/bmiddle/abc.png", "http://ww2.sina.cn/thumbnail/abc.png",
+					"http://ww2.sina.cn/large/abc.png" },
+			{ "http://twitgoo.com/abc", "https://twitgoo.com/show/thumb/abc", "https://twitgoo.com/show/img/abc" },
+			{ "http://moby.to/abc", "https://moby.to/abc:thumb", "https://moby.to/abc:full" },
+			{ "http://photozou.jp/photo/show/123/456", "http://photozou.jp/p/thumb/456",
+					"http://photozou.jp/p/img/456" },
+			{ "http://twitpic.com/", null, null },
+			{ "http://twitpic.com", null, null },
+			{ "http://twitpic.com:80/abc12", null, null },
+			{ "ftp://twitpic.com/abc12", null, null },
+			{ "http://example.com/abc.jpg", null, null },
+			{ "http://example.com/twitpic.com/abc12", null, null },
+			{ "http://pbs.twimg.com/media/abc.txt", null, null },
+			{ "http://instagram.com/p/", null, null },
+			{ "http://a.b.sinaimg.cn/large/abc.jpg", null, null },
+			{ "http://sinaimg.cn/large/abc.jpg", null, null },
+			{ "http://ww1.sinaimg.cn/small/abc.jpg", null, null },
+			{ "http://photozou.jp/photo/show/123/abc", null, null }, { "", null, null } };
+
+	// Patterns matched one by one before ImageHostResolver.
+	private static final Pattern PATTERN_TWITTER_IMAGES = compile("(p|pbs)\\.twimg\\.com(\\/media)?"
+			+ "\\/([\\d\\w\\-_]+)\\.(png|jpeg|jpg|gif|bmp)");
+	private static final Pattern PATTERN_TWITPIC = compile("twitpic\\.com\\/([\\d\\w]+)\\/?");
+	private static final Pattern PATTERN_INSTAGRAM = compile("(instagr\\.am|instagram\\.com)"
+			+ "\\/p\\/([_\\-\\d\\w]+)\\/?");
+	private static final Pattern PATTERN_IMGUR = compile("(imgur\\.com|i\\.imgur\\.com)\\/([\\d\\w]+)((?-i)s|(?-i)l)?"
+			+ "(\\.(png|jpeg|jpg|gif|bmp))?");
+	private static final Pattern PATTERN_IMGLY = compile("img\\.ly\\/([\\w\\d]+)\\/?");
+	private static final Pattern PATTERN_YFROG = compile("yfrog\\.com\\/([\\w\\d]+)\\/?");
+	private static final Pattern PATTERN_LOCKERZ_AND_PLIXI = compile("(plixi\\.com\\/p|lockerz\\.com\\/s)"
+			+ "\\/(\\w+)\\/?");
+	private static final Pattern PATTERN_SINA_WEIBO_IMAGES = compile("([\\w\\d]+\\.sinaimg\\.cn|"
+			+ "[\\w\\d]+\\.sina\\.cn)\\/(woriginal|large|thumbnail|bmiddle|mw[\\d]+)"
+			+ "\\/(([\\d\\w]+)\\.(png|jpeg|jpg|gif|bmp))");
+	private static final Pattern PATTERN_TWITGOO = compile("twitgoo\\.com\\/([\\d\\w]+)\\/?");
+	private static final Pattern PATTERN_MOBYPICTURE = compile("moby\\.to\\/([\\d\\w]+)\\/?");
+	private static final Pattern PATTERN_PHOTOZOU = compile("photozou\\.jp\\/photo\\/show\\/([\\d]+)\\/([\\d]+)\\/?");
+
+	public void testBenchmark() {
+		final int rounds = 2000;
+		// Warm up, and both ways must find same images.
+		for (final String[] link : LINKS) {
+			for (final boolean large_image_preview : new boolean[] { false, true }) {
+				final ImageSpec expected = getImageSequentially(link[0], large_image_preview);
+				final ImageSpec actual = ImageHostResolver.getImage(link[0], large_image_preview);
+				assertEquals(link[0], expected != null ? expected.toString() : null,
+						actual != null ? actual.toString() : null);
+			}
+		}
+		final long sequential_start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			for (final String[] link : LINKS) {
+				getImageSequentially(link[0], false);
+			}
+		}
+		final long sequential_time = System.nanoTime() - sequential_start;
+		final long resolver_start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			for (final String[] link : LINKS) {
+				ImageHostResolver.getImage(link[0], false);
+			}
+		}
+		final long resolver_time = System.nanoTime() - resolver_start;
+		final long count = (long) rounds * LINKS.length;
+		Log.i(LOGTAG, "ImageHostResolver benchmark, " + count + " links: getAllAvailableImage before "
+				+ count * 1000000000L / sequential_time + " links/s, ImageHostResolver " + count * 1000000000L
+				/ resolver_time + " links/s");
+	}
+
+	public void testHasRule() {
+		assertTrue(ImageHostResolver.hasRule("http://twitpic.com/"));
+		assertTrue(ImageHostResolver.hasRule("http://ww1.sinaimg.cn/any/path"));
+		assertFalse(ImageHostResolver.hasRule("http://example.com/abc.jpg"));
+		assertFalse(ImageHostResolver.hasRule(null));
+	}
+
+	public void testLargeImagePreview() {
+		final ImageSpec twitpic = ImageHostResolver.getImage("http://twitpic.com/abc12", true);
+		assertEquals("https://twitpic.com/show/large/abc12", twitpic.preview_image_link);
+		final ImageSpec imgur = ImageHostResolver.getImage("http://imgur.com/abc12", true);
+		assertEquals("http://i.imgur.com/abc12l.jpg", imgur.preview_image_link);
+		final ImageSpec yfrog = ImageHostResolver.getImage("http://yfrog.com/abc", true);
+		assertEquals("https://yfrog.com/abc:medium", yfrog.full_image_link);
+	}
+
+	public void testLinks() {
+		assertNull(ImageHostResolver.getImage(null, false));
+		for (final String[] link : LINKS) {
+			final ImageSpec image = ImageHostResolver.getImage(link[0], false);
+			if (link[2] == null) {
+				assertNull(link[0], image);
+			} else {
+				assertNotNull(link[0], image);
+				assertEquals(link[0], link[1], image.preview_image_link);
+				assertEquals(link[0], link[2], image.full_image_link);
+			}
+		}
+	}
+
+	public void testRegisterHost() {
+		final String link = "http://images.example.org/view/42";
+		assertNull(ImageHostResolver.getImage(link, false));
+		ImageHostResolver.registerHost("Images.Example.org", new ImageHostResolver.Rule("\\/view\\/(\\d+)") {
+			@Override
+			public ImageSpec getImage(final String link, final Matcher path, final boolean large_image_preview) {
+				final String full = "http://images.example.org/" + path.group(1) + ".png";
+				return new ImageSpec(full, full, link);
+			}
+		});
+		final ImageSpec image = ImageHostResolver.getImage(link, false);
+		assertNotNull(image);
+		assertEquals("http://images.example.org/42.png", image.full_image_link);
+		assertNull(ImageHostResolver.getImage("http://images.example.org/view/abc", false));
+	}
+
+	private static Pattern compile(final String pattern_no_scheme) {
+		return Pattern.compile("(https?:\\/\\/)?" + pattern_no_scheme, Pattern.CASE_INSENSITIVE);
+	}
+
+	/**
+	 * Same as getAllAvailableImage before {@link ImageHostResolver}.
+	 */
+	private static ImageSpec getImageSequentially(final String link, final boolean large_image_preview) {
+		if (link == null) return null;
+		Matcher m;
+		m = PATTERN_TWITTER_IMAGES.matcher(link);
+		if (m.matches()) return Utils.getTwitterImage(link, large_image_preview);
+		m = PATTERN_TWITPIC.matcher(link);
+		if (m.matches()) return Utils.getTwitpicImage(m.group(2), link, large_image_preview);
+		m = PATTERN_INSTAGRAM.matcher(link);
+		if (m.matches()) return Utils.getInstagramImage(m.group(3), link, large_image_preview);
+		m = PATTERN_IMGUR.matcher(link);
+		if (m.matches()) return Utils.getImgurImage(m.group(3), link, large_image_preview);
+		m = PATTERN_IMGLY.matcher(link);
+		if (m.matches()) return Utils.getImglyImage(m.group(2), link, large_image_preview);
+		m = PATTERN_YFROG.matcher(link);
+		if (m.matches()) return Utils.getYfrogImage(m.group(2), link, large_image_preview);
+		m = PATTERN_LOCKERZ_AND_PLIXI.matcher(link);
+		if (m.matches()) return Utils.getLockerzAndPlixiImage(link, large_image_preview);
+		m = PATTERN_SINA_WEIBO_IMAGES.matcher(link);
+		if (m.matches()) return Utils.getSinaWeiboImage(link, large_image_preview);
+		m = PATTERN_TWITGOO.matcher(link);
+		if (m.matches()) return Utils.getTwitgooImage(m.group(2), link, large_image_preview);
+		m = PATTERN_MOBYPICTURE.matcher(link);
+		if (m.matches()) return Utils.getMobyPictureImage(m.group(2), link, large_image_preview);
+		m = PATTERN_PHOTOZOU.matcher(link);
+		if (m.matches()) return Utils.getPhotozouImage(m.group(3), link, large_image_preview);
+		return null;
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ *				Twidere - Twitter client for Android
+ *
+ * Copyright (C) 2012 Mariotaku Lee <mariotaku.lee@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mariotaku.twidere.util;
+
+import static org.mariotaku.twidere.util.TwidereLinkify.LINK_TYPE_CASHTAG;
+import static org.mariotaku.twidere.util.TwidereLinkify.LINK_TYPE_HASHTAG;
+import static org.mariotaku.twidere.util.TwidereLinkify.LINK_TYPE_LINK;
+import static org.mariotaku.twidere.util.TwidereLinkify.LINK_TYPE_LINK_WITH_IMAGE_EXTENSION;
+import static org.mariotaku.twidere.util.TwidereLinkify.LINK_TYPE_LIST;
+import static org.mariotaku.twidere.util.TwidereLinkify.LINK_TYPE_MENTION;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.twitter.Extractor;
+
+/**
+ * Checks entities found by {@link LinkEntityTokenizer} against
+ * {@link Extractor#extractEntitiesWithIndices(String)}.
+ */
+public class LinkEntityTokenizerTest extends TestCase {
+
+	private static final String[] TEXTS = { "", "hello world", "@user", "@user hi", "hi @user", "#日本@user hi",
+			"#tag@user", "$TWTR@user", "@a@b", "@@user", "@＠user", "＠user", "email@example.com",
+			"a@user", "_@user", "!@user", "#@user", "$@user", "%@user", "&@user", "*@user", "RT@user", "rt@user",
+			"RT:@user", "xRT@user", "@user/list", "@user/list-name_1 end", "@user/1list", "@user/", "@user.",
+			"@user_name_that_is_far_too_long", "@user@", "@userü", "@user:// x", "#hashtag", "#hash#tag",
+			"a#hashtag", "#123", "#日本語 #한국어", "#tag http://example.com #tag2", "$TWTR", "$TWTR $GOOG",
+			"a$TWTR", "$123", "http://example.com", "visit example.com now", "https://t.co/abc123xyz/extra",
+			"http://example.com/@user", "http://example.com/#tag", "@user http://example.com/path?q=1 #tag",
+			"http://example.com/image.png", "pic http://twitpic.com/abc12", "see @user/list and #tag and $TWTR",
+			"RT @user: #tag http://example.com/ @other", "(@user)", "[#tag]", "\"@user\"", "@user's", "#tag's",
+			"日本語@user", "日本語#ハッシュタグ", "@user1 @user2 @user3", "@user #tag $TWTR http://a.com" };
+
+	public void testConformsToExtractor() {
+		final Extractor extractor = new Extractor();
+		for (final String text : TEXTS) {
+			final List<String> expected = new ArrayList<String>();
+			for (final Extractor.Entity entity : extractor.extractEntitiesWithIndices(text)) {
+				expected.addAll(describe(entity));
+			}
+			final List<String> actual = new ArrayList<String>();
+			for (final LinkEntityTokenizer.Entity entity : LinkEntityTokenizer.tokenize(text)) {
+				actual.add(describe(entity));
+			}
+			assertEquals(text, expected, actual);
+		}
+	}
+
+	public void testMentionAfterHashtag() {
+		final List<LinkEntityTokenizer.Entity> entities = LinkEntityTokenizer.tokenize("#日本@user hi");
+		assertEquals(2, entities.size());
+		assertEntity(entities.get(0), LINK_TYPE_HASHTAG, 0, 3);
+		assertEntity(entities.get(1), LINK_TYPE_MENTION, 3, 8);
+	}
+
+	public void testMentionAfterLink() {
+		final List<LinkEntityTokenizer.Entity> entities = LinkEntityTokenizer.tokenize("http://example.com/,@user");
+		assertEquals(2, entities.size());
+		assertEntity(entities.get(0), LINK_TYPE_LINK, 0, 19);
+		assertEntity(entities.get(1), LINK_TYPE_MENTION, 20, 25);
+	}
+
+	private static void assertEntity(final LinkEntityTokenizer.Entity entity, final int type, final int start,
+			final int end) {
+		assertEquals(type, entity.type);
+		assertEquals(start, entity.start);
+		assertEquals(end, entity.end);
+	}
+
+	/**
+	 * Mentions start at the '@' right before username, and a list is a
+	 * mention with list slug, in the same format as the tokenizer.
+	 */
+	private static List<String> describe(final Extractor.Entity entity) {
+		final List<String> result = new ArrayList<String>();
+		final int start = entity.getStart(), end = entity.getEnd();
+		final String value = entity.getValue();
+		switch (entity.getType()) {
+			case MENTION: {
+				final int username_end = start + 1 + value.length();
+				result.add("mention " + value + " " + start + "-" + username_end);
+				final String list = entity.getListSlug();
+				if (list != null) {
+					result.add("list " + value + "/" + list + " " + (end - list.length()) + "-" + end);
+				}
+				break;
+			}
+			case HASHTAG:
+				result.add("hashtag " + value + " " + start + "-" + end);
+				break;
+			case CASHTAG:
+				// Bundled Extractor keeps '$' in value and starts one
+				// character early.
+				result.add("cashtag " + value.substring(1) + " " + (end - value.length()) + "-" + end);
+				break;
+			case URL:
+				result.add("url " + start + "-" + end);
+				break;
+		}
+		return result;
+	}
+
+	private static String describe(final LinkEntityTokenizer.Entity entity) {
+		final int start = entity.start, end = entity.end;
+		switch (entity.type) {
+			case LINK_TYPE_MENTION:
+				// Only the last one of multiple at signs is counted.
+				return "mention " + entity.url + " " + (end - entity.url.length() - 1) + "-" + end;
+			case LINK_TYPE_LIST:
+				return "list " + entity.url + " " + start + "-" + end;
+			case LINK_TYPE_HASHTAG:
+				return "hashtag " + entity.url.substring(1) + " " + start + "-" + end;
+			case LINK_TYPE_CASHTAG:
+				return "cashtag " + entity.url + " " + start + "-" + end;
+			case LINK_TYPE_LINK:
+			case LINK_TYPE_LINK_WITH_IMAGE_EXTENSION:
+				return "url " + start + "-" + end;
+		}
+		return "unknown " + entity;
+	}
+}